@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures transmission through a BasicChannel for one transmitter to one receiver,
+ * a number of concurrent transmitters to one receiver and one transmitter to a number of receivers.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BasicChannelBenchmark {
+
+	private static final String MESSAGE = "message";
+
+	@State(Scope.Benchmark)
+	public static class SingleReceiver {
+		BasicChannel channel;
+
+		@Setup
+		public void setUp() {
+			channel = new BasicChannel("benchmark");
+			channel.registerReceiver(new BenchmarkReceiver());
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class MultipleReceivers {
+		@Param({"1", "4", "16", "64"})
+		public int nrofReceivers;
+		@Param({"1", "64"})
+		public int batchSize;
+
+		BasicChannel channel;
+		List<Object> batch;
+
+		@Setup
+		public void setUp() {
+			channel = new BasicChannel("benchmark");
+			for (int i = 0; i < nrofReceivers; i++) {
+				channel.registerReceiver(new BenchmarkReceiver());
+			}
+			batch = new ArrayList<Object>();
+			for (int i = 0; i < batchSize; i++) {
+				batch.add(MESSAGE);
+			}
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void transmitOneToOne(SingleReceiver state) {
+		state.channel.transmit(MESSAGE);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void transmitManyToOne(SingleReceiver state) {
+		state.channel.transmit(MESSAGE);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void transmitOneToMany(MultipleReceivers state) {
+		state.channel.transmit(MESSAGE);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void transmitBatchOneToMany(MultipleReceivers state) {
+		state.channel.transmitBatch(state.batch);
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+/**
+ * Receiver that does as little as possible, without letting the JIT optimize transmission away.
+ */
+public class BenchmarkReceiver implements Receiver {
+
+	//not volatile on purpose, receivers may be invoked concurrently
+	private Object lastMessage;
+	private long nrofMessages;
+
+	public void onReceive(Object message) {
+		lastMessage = message;
+		nrofMessages++;
+	}
+
+	public void onTransmissionClose() {
+	}
+
+	public Object getLastMessage() {
+		return lastMessage;
+	}
+
+	public long getNrofMessages() {
+		return nrofMessages;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.ijsberg.iglu.util.execution.CommandShell;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures transmission through a Pipe without and with a filter,
+ * and through a FilterPipeline that filters in parallel.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipeBenchmark {
+
+	//typical command line output
+	private static final byte[] LINE = "drwxr-xr-x  12 iglu  staff   384 Jan 12 10:41 src\n".getBytes();
+	private static final int BATCH_SIZE = 64;
+
+	@State(Scope.Thread)
+	public static class Pipes {
+		Pipe pipe;
+		Pipe filteringPipe;
+		List<Object> batch;
+
+		@Setup
+		public void setUp() {
+			pipe = new Pipe(new BenchmarkReceiver());
+			filteringPipe = new Pipe(new BenchmarkReceiver(), new CommandShell.NewLineFilter());
+			batch = new ArrayList<Object>();
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				batch.add(LINE);
+			}
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Pipeline {
+		@Param({"1", "2", "4"})
+		public int parallelism;
+		@Param({"true", "false"})
+		public boolean ordered;
+
+		FilterPipeline pipeline;
+
+		@Setup
+		public void setUp() {
+			pipeline = new FilterPipeline(new ReceiverQueue(FilterPipeline.DEFAULT_QUEUE_SIZE))
+					.addStage(new Filter<byte[]>() {
+						//stateless, so that workers can share it; a NewLineNormalizer keeps state per stream
+						public byte[] filter(byte[] input) {
+							byte[] output = new byte[input.length];
+							for (int i = 0; i < input.length; i++) {
+								byte b = input[i];
+								output[i] = b >= 'a' && b <= 'z' ? (byte) (b - 'a' + 'A') : b;
+							}
+							return output;
+						}
+					}, parallelism, FilterPipeline.DEFAULT_QUEUE_SIZE, ordered);
+			pipeline.start();
+		}
+
+		@TearDown
+		public void tearDown() throws InterruptedException {
+			pipeline.onTransmissionClose();
+			pipeline.awaitTermination(10000);
+		}
+	}
+
+	@Benchmark
+	public void transmit(Pipes state) {
+		state.pipe.transmit(LINE);
+	}
+
+	@Benchmark
+	public void transmitFiltered(Pipes state) {
+		state.filteringPipe.transmit(LINE);
+	}
+
+	@Benchmark
+	public void transmitBatchFiltered(Pipes state) {
+		state.filteringPipe.transmitBatch(state.batch);
+	}
+
+	/**
+	 * Throughput is limited by the hand-off queue, so this measures
+	 * how fast the stage consumes once the queue is full.
+	 */
+	@Benchmark
+	public void transmitThroughPipeline(Pipeline state) {
+		state.pipeline.onReceive(LINE);
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading from and draining a ReceiverQueue, in one thread and handed off between threads.
+ * The lock-free RingBufferReceiverQueue is measured alongside for comparison.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReceiverQueueBenchmark {
+
+	private static final String MESSAGE = "message";
+	private static final int CAPACITY = 1024;
+
+	@State(Scope.Thread)
+	public static class Queues {
+		@Param({"16", "256"})
+		public int batchSize;
+
+		ReceiverQueue receiverQueue;
+		RingBufferReceiverQueue ringBufferQueue;
+		List<Object> batch;
+		List<Object> target;
+
+		@Setup
+		public void setUp() {
+			receiverQueue = new ReceiverQueue(CAPACITY);
+			ringBufferQueue = new RingBufferReceiverQueue(CAPACITY);
+			batch = new ArrayList<Object>();
+			for (int i = 0; i < batchSize; i++) {
+				batch.add(MESSAGE);
+			}
+			target = new ArrayList<Object>(batchSize);
+		}
+	}
+
+	@State(Scope.Group)
+	public static class HandOff {
+		ReceiverQueue receiverQueue;
+		RingBufferReceiverQueue ringBufferQueue;
+
+		@Setup
+		public void setUp() {
+			receiverQueue = new ReceiverQueue(CAPACITY);
+			//a blocking producer would hang once the consumer stops at the end of an iteration
+			ringBufferQueue = new RingBufferReceiverQueue(CAPACITY);
+		}
+	}
+
+	@Benchmark
+	public Object receiveAndRead(Queues state) {
+		state.receiverQueue.onReceive(MESSAGE);
+		return state.receiverQueue.read();
+	}
+
+	@Benchmark
+	public int receiveBatchAndDrain(Queues state) {
+		state.receiverQueue.onReceiveBatch(state.batch);
+		state.target.clear();
+		return state.receiverQueue.drainTo(state.target, state.batchSize);
+	}
+
+	@Benchmark
+	public Object ringBufferReceiveAndRead(Queues state) {
+		state.ringBufferQueue.onReceive(MESSAGE);
+		return state.ringBufferQueue.read();
+	}
+
+	@Benchmark
+	public int ringBufferReceiveBatchAndDrain(Queues state) {
+		state.ringBufferQueue.onReceiveBatch(state.batch);
+		state.target.clear();
+		return state.ringBufferQueue.drainTo(state.target, state.batchSize);
+	}
+
+	@Benchmark
+	@Group("receiverQueueHandOff")
+	@GroupThreads(1)
+	public void receiverQueueProducer(HandOff state) {
+		state.receiverQueue.onReceive(MESSAGE);
+	}
+
+	@Benchmark
+	@Group("receiverQueueHandOff")
+	@GroupThreads(1)
+	public Object receiverQueueConsumer(HandOff state) {
+		return state.receiverQueue.read();
+	}
+
+	@Benchmark
+	@Group("ringBufferHandOff")
+	@GroupThreads(1)
+	public void ringBufferProducer(HandOff state) {
+		state.ringBufferQueue.onReceive(MESSAGE);
+	}
+
+	@Benchmark
+	@Group("ringBufferHandOff")
+	@GroupThreads(1)
+	public Object ringBufferConsumer(HandOff state) {
+		return state.ringBufferQueue.read();
+	}
+}
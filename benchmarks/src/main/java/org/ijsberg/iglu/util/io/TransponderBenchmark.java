@@ -0,0 +1,142 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end-to-end forwarding by a Transponder:
+ * the round trip of messages through its queue and forwarder thread,
+ * and forwarding a stream with and without pooled buffers.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransponderBenchmark {
+
+	private static final String MESSAGE = "message";
+
+	@State(Scope.Benchmark)
+	public static class QueuedTransponder {
+		Transponder transponder;
+		ReceiverQueue output;
+
+		@Setup
+		public void setUp() {
+			output = new ReceiverQueue();
+			transponder = new Transponder(new Pipe(output));
+			transponder.start();
+		}
+
+		@TearDown
+		public void tearDown() {
+			transponder.stop();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Stream {
+		@Param({"65536", "4194304"})
+		public int payloadSize;
+		@Param({"false", "true"})
+		public boolean pooled;
+
+		byte[] payload;
+
+		@Setup
+		public void setUp() {
+			payload = new byte[payloadSize];
+			new Random(0).nextBytes(payload);
+		}
+	}
+
+	/**
+	 * Counts forwarded bytes until the complete payload is received.
+	 */
+	private static class PayloadReceiver implements Receiver {
+		private final int payloadSize;
+		private final CountDownLatch received = new CountDownLatch(1);
+		private int nrofBytes;
+
+		private PayloadReceiver(int payloadSize) {
+			this.payloadSize = payloadSize;
+		}
+
+		public void onReceive(Object message) {
+			nrofBytes += message instanceof PooledByteBuffer ? ((PooledByteBuffer) message).size() : ((byte[]) message).length;
+			if (nrofBytes >= payloadSize) {
+				received.countDown();
+			}
+		}
+
+		public void onTransmissionClose() {
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Threads(1)
+	public Object roundTrip(QueuedTransponder state) throws InterruptedException {
+		state.transponder.onReceive(MESSAGE);
+		return state.output.read(1000);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Threads(4)
+	public Object roundTripConcurrent(QueuedTransponder state) throws InterruptedException {
+		state.transponder.onReceive(MESSAGE);
+		return state.output.read(1000);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public void forwardStream(Stream state) throws InterruptedException {
+		PayloadReceiver receiver = new PayloadReceiver(state.payloadSize);
+		Transponder transponder = new Transponder(new ByteArrayInputStream(state.payload), new Pipe(receiver));
+		if (state.pooled) {
+			transponder.usePooledBuffers();
+		}
+		transponder.start();
+		receiver.received.await();
+		//a transponder that forwards byte arrays keeps polling the input stream
+		transponder.stop();
+	}
+}
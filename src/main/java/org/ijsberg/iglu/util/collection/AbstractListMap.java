@@ -2,26 +2,245 @@ package org.ijsberg.iglu.util.collection;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.Predicate;
 
+/**
+ * Keeps the total number of values up to date, so that size() is O(1).
+ * Value lists report their changes to the map, so they may be modified directly.
+ * Keys, lists and the internal map are exposed as read-only live views.
+ */
 public abstract class AbstractListMap<K, V> implements Serializable, ListMap<K, V> {
 
     protected Map<K, List<V>> internalMap;
     protected int loadFactor = 10;
+    //total number of values in all lists
+    private int nrofValues;
+    //map that keeps count of the lists; a view on part of another map has that map as owner
+    AbstractListMap<K, V> owner = this;
+    //keys in order of iteration, rebuilt if absent
+    private transient ArrayList<K> keyIndex;
+
+    /**
+     * List of values of a key, which reports changes in size to the map.
+     */
+    protected class ValueList extends AbstractList<V> implements RandomAccess, Serializable {
+
+        static final long serialVersionUID = 27L;
+
+        private final ArrayList<V> values;
+        //false once removed from the map
+        private boolean attached = true;
+
+        protected ValueList(int initialCapacity) {
+            values = new ArrayList<V>(initialCapacity);
+        }
+
+        private void countValues(int delta) {
+            if(attached) {
+                owner.nrofValues += delta;
+            }
+        }
+
+        @Override
+        public V get(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+
+        @Override
+        public V set(int index, V value) {
+            return values.set(index, value);
+        }
+
+        @Override
+        public void add(int index, V value) {
+            values.add(index, value);
+            modCount++;
+            countValues(1);
+        }
+
+        @Override
+        public V remove(int index) {
+            V value = values.remove(index);
+            modCount++;
+            countValues(-1);
+            return value;
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends V> collection) {
+            return addAll(values.size(), collection);
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends V> collection) {
+            int size = values.size();
+            values.addAll(index, collection);
+            modCount++;
+            countValues(values.size() - size);
+            return values.size() != size;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            values.subList(fromIndex, toIndex).clear();
+            modCount++;
+            countValues(fromIndex - toIndex);
+        }
+
+        @Override
+        public void clear() {
+            countValues(-values.size());
+            values.clear();
+            modCount++;
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super V> filter) {
+            int size = values.size();
+            values.removeIf(filter);
+            modCount++;
+            countValues(values.size() - size);
+            return values.size() != size;
+        }
+
+        @Override
+        public void sort(Comparator<? super V> comparator) {
+            values.sort(comparator);
+            modCount++;
+        }
+
+        @Override
+        public boolean contains(Object value) {
+            return values.contains(value);
+        }
+
+        @Override
+        public int indexOf(Object value) {
+            return values.indexOf(value);
+        }
+
+        @Override
+        public int lastIndexOf(Object value) {
+            return values.lastIndexOf(value);
+        }
+    }
+
+    /**
+     * Read-only view on all values, in order of keys.
+     */
+    private class ValuesView extends AbstractList<V> implements Serializable {
+
+        static final long serialVersionUID = 27L;
+
+        /**
+         * Iterates the lists to find the value; iterate the view rather than call get(int) repeatedly.
+         */
+        @Override
+        public V get(int index) {
+            if(index >= 0) {
+                for (List<V> list : internalMap.values()) {
+                    if (index < list.size()) {
+                        return list.get(index);
+                    }
+                    index -= list.size();
+                }
+            }
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds");
+        }
+
+        @Override
+        public int size() {
+            return AbstractListMap.this.size();
+        }
 
+        @Override
+        public Iterator<V> iterator() {
+            return new Iterator<V>() {
+                private final Iterator<List<V>> lists = internalMap.values().iterator();
+                private Iterator<V> values = Collections.emptyIterator();
+
+                @Override
+                public boolean hasNext() {
+                    while(!values.hasNext() && lists.hasNext()) {
+                        values = lists.next().iterator();
+                    }
+                    return values.hasNext();
+                }
+
+                @Override
+                public V next() {
+                    if(!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return values.next();
+                }
+            };
+        }
+    }
+
+    /**
+     * @return read-only view on the internal map; lists of values may be modified
+     */
     @Override
     public Map<K, List<V>> getMap() {
-        return internalMap;
+        return Collections.unmodifiableMap(internalMap);
     }
 
     protected List<V> createOrRetrieveList(K key) {
         List<V> list = internalMap.get(key);
         if(list == null) {
-            list = new ArrayList<V>(loadFactor);
+            list = new ValueList(loadFactor);
             internalMap.put(key, list);
+            owner.onKeyAdded(key);
         }
         return list;
     }
 
+    /**
+     * Keeps track of keys for positional access.
+     * New keys are appended to the index if the internal map iterates in order of insertion.
+     *
+     * @param key key that was not in the map before
+     */
+    protected void onKeyAdded(K key) {
+        if(keyIndex != null) {
+            if(internalMap instanceof LinkedHashMap) {
+                keyIndex.add(key);
+            } else {
+                keyIndex = null;
+            }
+        }
+    }
+
+    /**
+     * Drops the index, since finding the key in it takes O(n); it is rebuilt once on the next positional access.
+     *
+     * @param key key that was removed from the map
+     */
+    protected void onKeyRemoved(K key) {
+        keyIndex = null;
+    }
+
+    protected void onKeysCleared() {
+        keyIndex = null;
+    }
+
+    /**
+     * @param index position in order of keySet()
+     * @return key at the position
+     */
+    protected K getKeyByIndex(int index) {
+        if(keyIndex == null) {
+            keyIndex = new ArrayList<>(internalMap.keySet());
+        }
+        return keyIndex.get(index);
+    }
+
     @Override
     public List<V> put(K key, V value) {
         List<V> list = createOrRetrieveList(key);
@@ -111,46 +330,63 @@ public abstract class AbstractListMap<K, V> implements Serializable, ListMap<K,
         return internalMap.get(key);
     }
 
+    /**
+     * @param index position in order of keySet()
+     * @return values of the key at the position
+     */
     @Override
     public List<V> getByIndex(int index) {
-        return internalMap.get(new ArrayList<>(internalMap.keySet()).get(index));
+        if(owner != this) {
+            //views are not indexed
+            return internalMap.get(new ArrayList<>(internalMap.keySet()).get(index));
+        }
+        return internalMap.get(getKeyByIndex(index));
     }
 
     public String toString() {
         return internalMap.toString();
     }
 
+    /**
+     * @return read-only live view on the keys
+     */
     @Override
     public Set<K> keySet() {
-        return internalMap.keySet();
+        return Collections.unmodifiableSet(internalMap.keySet());
     }
 
     @Override
     public int size() {
-        //nr of items
-        int retval = 0;
-        for(List<V> list : internalMap.values()) {
-            retval += list.size();
+        if(owner != this) {
+            //nr of items in a view
+            int retval = 0;
+            for(List<V> list : internalMap.values()) {
+                retval += list.size();
+            }
+            return retval;
         }
-        return retval;
+        return nrofValues;
     }
 
+    /**
+     * @return read-only live view on the lists of values
+     */
     @Override
     public Collection<List<V>> lists() {
-        return internalMap.values();
+        return Collections.unmodifiableCollection(internalMap.values());
     }
 
+    /**
+     * @return read-only live view on all values, in order of keys
+     */
     @Override
     public List<V> values() {
-        List<V> retval = new ArrayList<V>();
-        for(List<V> list : internalMap.values()) {
-            retval.addAll(list);
-        }
-        return retval;
+        return new ValuesView();
     }
+
     @Override
     public Set<V> valueSet() {
-        Set<V> retval = new HashSet<>();
+        Set<V> retval = new HashSet<>(Math.max(16, (int) (size() / .75f) + 1));
         for(List<V> list : internalMap.values()) {
             retval.addAll(list);
         }
@@ -181,7 +417,20 @@ public abstract class AbstractListMap<K, V> implements Serializable, ListMap<K,
 
     @Override
     public List<V> removeAll(K key) {
-        return internalMap.remove(key);
+        List<V> list = internalMap.remove(key);
+        if(list != null) {
+            detach(list);
+            owner.onKeyRemoved(key);
+        }
+        return list;
+    }
+
+    private void detach(List<V> list) {
+        if(list instanceof AbstractListMap.ValueList) {
+            AbstractListMap<?, ?>.ValueList valueList = (AbstractListMap<?, ?>.ValueList) list;
+            valueList.countValues(-valueList.size());
+            valueList.attached = false;
+        }
     }
 
     @Override
@@ -209,6 +458,16 @@ public abstract class AbstractListMap<K, V> implements Serializable, ListMap<K,
 
     @Override
     public void clear() {
+        for(List<V> list : internalMap.values()) {
+            detach(list);
+        }
+        if(owner != this) {
+            for(K key : internalMap.keySet()) {
+                owner.onKeyRemoved(key);
+            }
+        } else {
+            onKeysCleared();
+        }
         internalMap.clear();
     }
 
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.collection;
+
+import java.util.Comparator;
+
+/**
+ * Sorted set of keys that provides access by position in O(log n).
+ * Implemented as a treap in which every node keeps the size of its subtree.
+ * Not thread safe.
+ */
+class IndexedKeySet<K> {
+
+	private static class Node<K> {
+		private final K key;
+		private final int priority;
+		private int size = 1;
+		private Node<K> left;
+		private Node<K> right;
+
+		private Node(K key, int priority) {
+			this.key = key;
+			this.priority = priority;
+		}
+	}
+
+	private final Comparator<? super K> comparator;
+	private Node<K> root;
+	private int seed = 0x2545F491;
+
+	/**
+	 * @param comparator comparator of the map, or null for natural ordering
+	 */
+	IndexedKeySet(Comparator<? super K> comparator) {
+		this.comparator = comparator;
+	}
+
+	int size() {
+		return size(root);
+	}
+
+	void clear() {
+		root = null;
+	}
+
+	/**
+	 * @param key key that is not yet in the set
+	 */
+	void add(K key) {
+		Node<K>[] parts = split(root, key);
+		root = merge(merge(parts[0], new Node<K>(key, nextPriority())), parts[1]);
+	}
+
+	/**
+	 * @param key key that is in the set
+	 */
+	void remove(K key) {
+		root = remove(root, key);
+	}
+
+	/**
+	 * @param index position in sorted order
+	 * @return key at position
+	 */
+	K get(int index) {
+		if(index < 0 || index >= size(root)) {
+			throw new IndexOutOfBoundsException("index " + index + " out of bounds for size " + size(root));
+		}
+		Node<K> node = root;
+		while(true) {
+			int leftSize = size(node.left);
+			if(index < leftSize) {
+				node = node.left;
+			} else if(index > leftSize) {
+				index -= leftSize + 1;
+				node = node.right;
+			} else {
+				return node.key;
+			}
+		}
+	}
+
+	private int nextPriority() {
+		//xorshift
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return seed;
+	}
+
+	private static int size(Node<?> node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static <K> Node<K> update(Node<K> node) {
+		node.size = 1 + size(node.left) + size(node.right);
+		return node;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(K key1, K key2) {
+		return comparator != null ? comparator.compare(key1, key2) : ((Comparable<? super K>)key1).compareTo(key2);
+	}
+
+	/**
+	 * @return nodes with keys smaller than key and nodes with keys greater than or equal to key
+	 */
+	private Node<K>[] split(Node<K> node, K key) {
+		if(node == null) {
+			return newParts();
+		}
+		Node<K>[] parts;
+		if(compare(node.key, key) < 0) {
+			parts = split(node.right, key);
+			node.right = parts[0];
+			parts[0] = update(node);
+		} else {
+			parts = split(node.left, key);
+			node.left = parts[1];
+			parts[1] = update(node);
+		}
+		return parts;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> Node<K>[] newParts() {
+		return (Node<K>[]) new Node<?>[2];
+	}
+
+	private Node<K> merge(Node<K> left, Node<K> right) {
+		if(left == null) {
+			return right;
+		}
+		if(right == null) {
+			return left;
+		}
+		if(left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			return update(left);
+		}
+		right.left = merge(left, right.left);
+		return update(right);
+	}
+
+	private Node<K> remove(Node<K> node, K key) {
+		if(node == null) {
+			return null;
+		}
+		int comparison = compare(key, node.key);
+		if(comparison == 0) {
+			return merge(node.left, node.right);
+		}
+		if(comparison < 0) {
+			node.left = remove(node.left, key);
+		} else {
+			node.right = remove(node.right, key);
+		}
+		return update(node);
+	}
+}
@@ -1,6 +1,6 @@
 package org.ijsberg.iglu.util.collection;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -11,7 +11,8 @@ public class ListHashMap<K, V> extends AbstractListMap<K, V> {
     static final long serialVersionUID = 27L;
 
     public ListHashMap() {
-        this.internalMap = new HashMap<>();
+        //keeps keys in order of insertion, so that getByIndex is O(1) while keys are added
+        this.internalMap = new LinkedHashMap<>();
     }
 
     public ListHashMap(int loadFactor) {
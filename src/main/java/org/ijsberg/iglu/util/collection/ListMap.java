@@ -1,10 +1,12 @@
 package org.ijsberg.iglu.util.collection;
 
 import java.io.Serializable;
+import java.util.AbstractMap;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Created by jeroe on 23/08/2018.
@@ -46,6 +48,14 @@ public interface ListMap<K, V> extends Serializable {
 
     List<V> values();
 
+    /**
+     * @return every value paired with its key, in order of keys
+     */
+    default Stream<Map.Entry<K, V>> entryStream() {
+        return getMap().entrySet().stream().flatMap(entry -> entry.getValue().stream()
+                .map(value -> new AbstractMap.SimpleImmutableEntry<K, V>(entry.getKey(), value)));
+    }
+
     Set<V> valueSet();
 
     /*    public List<V> getTop(int x) {
@@ -25,6 +25,9 @@ public class ListTreeMap<K, V> extends AbstractListMap<K, V> {
 
 	static final long serialVersionUID = 27L;
 
+	//keys in sorted order for positional access, rebuilt if absent
+	private transient IndexedKeySet<K> keyIndex;
+
 	public ListTreeMap() {
 		internalMap = new TreeMap<>();
 	}
@@ -60,9 +63,42 @@ public class ListTreeMap<K, V> extends AbstractListMap<K, V> {
 		return super.createOrRetrieveList(key);
 	}
 
+	@Override
+	protected void onKeyAdded(K key) {
+		if(keyIndex != null) {
+			keyIndex.add(key);
+		}
+	}
+
+	@Override
+	protected void onKeyRemoved(K key) {
+		if(keyIndex != null) {
+			keyIndex.remove(key);
+		}
+	}
+
+	@Override
+	protected void onKeysCleared() {
+		keyIndex = null;
+	}
+
+	/**
+	 * O(log n) once the index is built.
+	 */
+	@Override
+	protected K getKeyByIndex(int index) {
+		if(keyIndex == null) {
+			IndexedKeySet<K> keys = new IndexedKeySet<>(((TreeMap<K, List<V>>)internalMap).comparator());
+			for(K key : internalMap.keySet()) {
+				keys.add(key);
+			}
+			keyIndex = keys;
+		}
+		return keyIndex.get(index);
+	}
 
 	public NavigableSet<K> descendingKeySet() {
-		return ((TreeMap<K,List<V>>)internalMap).descendingKeySet();
+		return Collections.unmodifiableNavigableSet(((NavigableMap<K,List<V>>)internalMap).descendingKeySet());
 	}
 
 	public List<V> valuesDescending() {
@@ -94,10 +130,16 @@ public class ListTreeMap<K, V> extends AbstractListMap<K, V> {
 		return submap.keySet();
 	}
 */
+	/**
+	 * @param key prefix of String keys
+	 * @return live view on the keys that start with the prefix
+	 */
+	@SuppressWarnings("unchecked")
 	public ListTreeMap<K, V> subMap(String key) {
-		Map<K, List<V>> submap = ((TreeMap)internalMap).subMap(key, key + '\255');
-		ListTreeMap submapResponse = new ListTreeMap();
-		submapResponse.internalMap = submap;
+		//only applies to maps with String keys
+		ListTreeMap<K, V> submapResponse = new ListTreeMap<>();
+		submapResponse.internalMap = ((TreeMap<K, List<V>>)internalMap).subMap((K)key, (K)(key + '\255'));
+		submapResponse.owner = owner;
 		return submapResponse;
 	}
 
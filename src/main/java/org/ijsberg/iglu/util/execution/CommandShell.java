@@ -21,13 +21,19 @@ package org.ijsberg.iglu.util.execution;
 
 import org.ijsberg.iglu.util.collection.ArraySupport;
 import org.ijsberg.iglu.util.io.*;
-import org.ijsberg.iglu.util.misc.StringSupport;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Tries to start a command shell in the OS and
@@ -50,6 +56,8 @@ public class CommandShell implements Transceiver {
 	private File workingDir;
 
 	private boolean isClosed;
+	//creates output forwarding threads
+	private ThreadFactory threadFactory = ThreadSupport.getDefaultThreadFactory();
 
 	private StringBuffer command = new StringBuffer();
 
@@ -90,6 +98,16 @@ public class CommandShell implements Transceiver {
 		this(shellCommandArray, null, workingDir);
 	}
 
+	/**
+	 * Determines how output forwarding threads are created.
+	 * Must be invoked before the shell is opened.
+	 *
+	 * @param threadFactory
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
 	/**
 	 * Transmits
 	 *
@@ -163,16 +181,10 @@ public class CommandShell implements Transceiver {
 	}
 
 	/**
-	 *
+	 * Converts line separators in shell output to "\r\n".
+	 * An instance keeps state and must be used for one output stream only.
 	 */
-	public static class NewLineFilter implements Filter<byte[]> {
-		public byte[] filter(byte[] input) {
-			StringBuffer temp = new StringBuffer(new String(input));
-			StringSupport.replaceAll(temp, "\r\n", "\n");
-			StringSupport.replaceAll(temp, "\r", "\n");
-			StringSupport.replaceAll(temp, "\n", "\r\n");
-			return temp.toString().getBytes();
-		}
+	public static class NewLineFilter extends NewLineNormalizer {
 	}
 
 	/**
@@ -202,6 +214,8 @@ public class CommandShell implements Transceiver {
 		outputForwarder = new
 				Transponder(proc.getInputStream(), new Pipe(receiver, new NewLineFilter()));
 
+		errorForwarder.setThreadFactory(threadFactory);
+		outputForwarder.setThreadFactory(threadFactory);
 		errorForwarder.start();
 		outputForwarder.start();
 
@@ -215,6 +229,16 @@ public class CommandShell implements Transceiver {
 	 * @throws IOException
 	 */
 	public static int execute(String[] commandArray, String[] alternativeEnvVars, File workingDir, Receiver outputReceiver) throws IOException {
+		return execute(commandArray, alternativeEnvVars, workingDir, outputReceiver, ThreadSupport.getDefaultThreadFactory());
+	}
+
+	/**
+	 * execute particular command, forwarding output in threads created by the given factory
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static int execute(String[] commandArray, String[] alternativeEnvVars, File workingDir, Receiver outputReceiver, ThreadFactory threadFactory) throws IOException {
 		Runtime rt = Runtime.getRuntime();
 		//command + arguments, environment parameters, workingdir
         Process proc = null;
@@ -233,6 +257,8 @@ public class CommandShell implements Transceiver {
 		Transponder outputForwarder = new
 				Transponder(proc.getInputStream(), new Pipe(outputReceiver));
 
+		errorForwarder.setThreadFactory(threadFactory);
+		outputForwarder.setThreadFactory(threadFactory);
 		errorForwarder.start();
 		outputForwarder.start();
 
@@ -285,6 +311,23 @@ public class CommandShell implements Transceiver {
 		return new String(byteArrayOutputStream.toByteArray());
 	}
 
+	/**
+	 * Executes a command and gathers its output in a limited amount of memory.
+	 * If output exceeds the limit, only the start and the end of the output are returned.
+	 *
+	 * @param command
+	 * @param workingDir
+	 * @param maxNrofBytes maximum number of bytes of output kept
+	 * @return output, possibly with the middle part omitted
+	 * @throws IOException
+	 * @see HeadTailOutputReceiver
+	 */
+	public static String executeAndGatherOutput(String command, File workingDir, int maxNrofBytes) throws IOException {
+		HeadTailOutputReceiver outputReceiver = new HeadTailOutputReceiver(maxNrofBytes / 2, maxNrofBytes - maxNrofBytes / 2);
+		execute(getCommandArrayForCurrentOS(command), null, workingDir, outputReceiver);
+		return outputReceiver.getOutput();
+	}
+
 	public enum GuessedOS {
 		WINDOWS_95,
 		WINDOWS,
@@ -352,6 +395,88 @@ public class CommandShell implements Transceiver {
 		}
 	}
 
+	//output kept per directory by executeRecursive until it can be printed
+	private static final int RECURSIVE_OUTPUT_HEAD_SIZE = 16 * 1024;
+	private static final int RECURSIVE_OUTPUT_TAIL_SIZE = 16 * 1024;
+
+	/**
+	 * Executes a command in a directory and all its subdirectories, running a number of processes in parallel.
+	 * Output of a command is printed as soon as the command and the commands in preceding directories are done.
+	 * Commands are started no further ahead than twice the number of processes, and only the
+	 * head and tail of their output is kept, so memory use does not depend on the size of the tree.
+	 *
+	 * @param command
+	 * @param rootdir
+	 * @param maxNrofProcesses maximum number of processes running concurrently
+	 * @param failFast if true, a failing command cancels commands that have not finished yet
+	 * @return results in order of directory, up to and including a failure if fail-fast applies;
+	 * output is printed rather than kept in the results
+	 * @throws IOException if a command can not be started
+	 * @throws InterruptedException
+	 */
+	public static List<ProcessPool.ProcessResult> executeRecursive(String command, String rootdir, int maxNrofProcesses, boolean failFast) throws IOException, InterruptedException {
+		File root = new File(rootdir);
+		if (!root.exists() || !root.isDirectory()) {
+			throw new IllegalArgumentException("root dir '" + rootdir + "' not valid");
+		}
+		List<File> dirs = new ArrayList<File>();
+		dirs.add(root);
+		dirs.addAll(FileSupport.getDirectoriesInDirectoryTree(rootdir));
+
+		ProcessPool pool = new ProcessPool(maxNrofProcesses);
+		pool.setFailFast(failFast);
+		int maxNrofPendingCommands = 2 * maxNrofProcesses;
+		ArrayDeque<Future<ProcessPool.ProcessResult>> futures = new ArrayDeque<Future<ProcessPool.ProcessResult>>();
+		ArrayDeque<HeadTailOutputReceiver> outputs = new ArrayDeque<HeadTailOutputReceiver>();
+		int nextDir = 0;
+
+		List<ProcessPool.ProcessResult> results = new ArrayList<ProcessPool.ProcessResult>();
+		try {
+			while (true) {
+				while (nextDir < dirs.size() && futures.size() < maxNrofPendingCommands) {
+					HeadTailOutputReceiver output = new HeadTailOutputReceiver(RECURSIVE_OUTPUT_HEAD_SIZE, RECURSIVE_OUTPUT_TAIL_SIZE);
+					try {
+						futures.addLast(pool.submit(getCommandArrayForCurrentOS(command), null, dirs.get(nextDir++), output, null));
+					}
+					catch (IllegalStateException e) {
+						//aborted by failure, pending commands are cancelled
+						nextDir = dirs.size();
+						break;
+					}
+					outputs.addLast(output);
+				}
+				if (futures.isEmpty()) {
+					break;
+				}
+				ProcessPool.ProcessResult result = futures.removeFirst().get();
+				System.out.println("EXECUTED " + command + " in dir " + result.getWorkingDir() + " with exit code " + result.getExitCode());
+				System.out.print(outputs.removeFirst().getOutput());
+				results.add(result);
+			}
+		}
+		catch (CancellationException e) {
+			//aborted by failure
+			if (pool.getFailure() != null && !results.contains(pool.getFailure())) {
+				results.add(pool.getFailure());
+			}
+		}
+		catch (ExecutionException e) {
+			pool.cancel();
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException("unable to execute command: " + command, e.getCause());
+		}
+		catch (InterruptedException e) {
+			pool.cancel();
+			throw e;
+		}
+		finally {
+			pool.shutdown();
+		}
+		return results;
+	}
+
 	/**
 	 * Runs test dialog.
 	 *
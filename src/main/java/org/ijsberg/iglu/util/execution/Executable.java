@@ -16,10 +16,23 @@
  * You should have received a copy of the GNU Lesser General Public License
  * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
  */
-
 package org.ijsberg.iglu.util.execution;
 
-import java.util.Date;
+import org.ijsberg.iglu.util.io.Receiver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * Subclasses implement a piece of code that should be executed in a special way, such as:
@@ -34,52 +47,233 @@ import java.util.Date;
  * <code>
  * new Executable(){protected Object execute(){System.out.println("this message is printed asynchronously");return null;}}.executeAsync();
  * </code>
+ * <p/>
+ * Asynchronous execution takes place on an executor, by default ThreadSupport's shared platform executor.
+ * It reuses non-daemon threads, so an executable started from main is not cut short when main returns.
+ * ThreadSupport's shared executor may be set to run on daemon or virtual threads instead.
+ * Delays are handled by a scheduler, by default ThreadSupport's shared scheduler, and timeouts
+ * by a {@link TimeoutWatchdog}, by default ThreadSupport's shared watchdog, so waiting does not occupy a thread.
+ * <p/>
+ * The future result is completed outside this executable's monitor; dependent stages that are
+ * triggered by a timeout run on ThreadSupport's shared executor rather than on the watchdog thread.
  */
 public abstract class Executable implements Runnable {
 
+	private boolean started;
 	private boolean finished;
-	protected boolean aborted = false;
+	protected volatile boolean aborted = false;
 	private Throwable execException;
+	//thread running execute(), guarded by this
 	private Thread executeThread;
 	private Object retval;
-	private Executable helperExecutable;
+	private final CompletableFuture<Object> result = new CompletableFuture<Object>();
+	//true once the outcome of the result is decided, guarded by this
+	private boolean completing;
+	//pending delayed or periodic execution
+	private Future<?> scheduledTask;
+	private TimeoutWatchdog.Timeout timeout;
+	private Executor executor;
+	private ScheduledExecutorService scheduler;
+	private TimeoutWatchdog timeoutWatchdog;
 
 	/**
 	 */
 	public Executable() {
 	}
 
+	/**
+	 * @param executor executor for asynchronous execution
+	 */
+	public Executable(Executor executor) {
+		setExecutor(executor);
+	}
+
+
+	/**
+	 * @param executor executor for asynchronous execution
+	 * @see ThreadSupport#getSharedExecutor()
+	 */
+	public void setExecutor(Executor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("executor may not be null");
+		}
+		this.executor = executor;
+	}
+
+
+	/**
+	 * @param scheduler scheduler that triggers delayed execution and timeouts
+	 * @see ThreadSupport#getSharedScheduler()
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		if (scheduler == null) {
+			throw new IllegalArgumentException("scheduler may not be null");
+		}
+		this.scheduler = scheduler;
+	}
+
+
+	/**
+	 * @param timeoutWatchdog watchdog that times out execution
+	 * @see ThreadSupport#getSharedTimeoutWatchdog()
+	 */
+	public void setTimeoutWatchdog(TimeoutWatchdog timeoutWatchdog) {
+		if (timeoutWatchdog == null) {
+			throw new IllegalArgumentException("timeout watchdog may not be null");
+		}
+		this.timeoutWatchdog = timeoutWatchdog;
+	}
+
+
+	private TimeoutWatchdog getTimeoutWatchdog() {
+		return timeoutWatchdog != null ? timeoutWatchdog : ThreadSupport.getSharedTimeoutWatchdog();
+	}
+
+
+	private Executor getExecutor() {
+		return executor != null ? executor : ThreadSupport.getSharedPlatformExecutor();
+	}
+
+
+	private ScheduledExecutorService getScheduler() {
+		return scheduler != null ? scheduler : ThreadSupport.getSharedScheduler();
+	}
+
 
 	/**
 	 * Used to invoke executable asynchronously.
 	 */
 	public void run() {
+		if (!enter()) {
+			return;
+		}
 		try {
-			Object result = execute();
-			if (!aborted) {
-				this.retval = result;
-				finished = true;
-			}
+			complete(execute());
 		}
 		catch (InterruptedException ie) {
-			//
+			//aborted
+			completeInterrupted(ie);
 		}
 		catch (Throwable t) {
-			execException = t;
-			finished = true;
+			fail(t);
+		}
+		finally {
+			exit();
+		}
+	}
+
+
+	private synchronized boolean enter() {
+		if (aborted || completing) {
+			return false;
 		}
+		executeThread = Thread.currentThread();
+		return true;
+	}
+
+
+	private synchronized void exit() {
 		executeThread = null;
+		//an interrupt that arrived too late must not affect the next task of a pooled thread
+		Thread.interrupted();
+	}
+
+
+	/*
+	 * The outcome is decided while holding the monitor, but the result is completed
+	 * after releasing it, since completion runs dependent stages.
+	 */
+
+	private void complete(Object value) {
+		synchronized (this) {
+			if (aborted || completing) {
+				return;
+			}
+			completing = true;
+			this.retval = value;
+			finished = true;
+			cancelScheduledTask();
+		}
+		result.complete(value);
 	}
 
+
+	private boolean fail(Throwable t) {
+		return fail(t, null);
+	}
+
+
 	/**
-	 * Executes asynchronously.
+	 * @param completer executor that completes the result, or null to complete it in the current thread
+	 * @return true if the executable had not completed yet
 	 */
-	public void executeAsync() {
-		if (executeThread != null) {
+	private boolean fail(final Throwable t, Executor completer) {
+		synchronized (this) {
+			if (completing) {
+				return false;
+			}
+			completing = true;
+			execException = t;
+			finished = true;
+			cancelScheduledTask();
+		}
+		if (completer != null) {
+			completer.execute(new Runnable() {
+				public void run() {
+					result.completeExceptionally(t);
+				}
+			});
+		}
+		else {
+			result.completeExceptionally(t);
+		}
+		return true;
+	}
+
+
+	private void completeInterrupted(InterruptedException e) {
+		synchronized (this) {
+			if (completing) {
+				return;
+			}
+			completing = true;
+		}
+		result.completeExceptionally(e);
+	}
+
+
+	private synchronized void setReturnValue(Object value) {
+		this.retval = value;
+	}
+
+
+	private void cancelScheduledTask() {
+		if (scheduledTask != null) {
+			scheduledTask.cancel(false);
+		}
+		if (timeout != null) {
+			timeout.cancel();
+		}
+	}
+
+
+	private synchronized void start() {
+		if (started) {
 			throw new IllegalStateException("use executable once per call");
 		}
-		executeThread = new Thread(this);
-		executeThread.start();
+		started = true;
+	}
+
+
+	/**
+	 * Executes asynchronously.
+	 *
+	 * @return future result
+	 */
+	public CompletableFuture<Object> executeAsync() {
+		start();
+		getExecutor().execute(this);
+		return result;
 	}
 
 
@@ -87,64 +281,103 @@ public abstract class Executable implements Runnable {
 	 * Executes asynchronously.
 	 * After <emph>timeout</emph> ms the abort method is invoked if the executable has not finished processing
 	 *
-	 * @param timeout timeout value in milliseconds
+	 * @param timeout timeout value in milliseconds, 0 or less to wait indefinitely
+	 * @return future result, completed exceptionally with a {@link TimeOutException} on timeout
 	 */
-	public void executeAsyncTimed(final long timeout) {
-		if (executeThread != null) {
-			throw new IllegalStateException("use executable once per call");
+	public CompletableFuture<Object> executeAsyncTimed(final long timeout) {
+		executeAsync();
+		scheduleTimeout(timeout);
+		return result;
+	}
+
+
+	/**
+	 * Lets the watchdog fail and interrupt execution that does not finish in time.
+	 */
+	private synchronized void scheduleTimeout(final long timeout) {
+		if (timeout > 0 && !completing) {
+			this.timeout = getTimeoutWatchdog().schedule(new Runnable() {
+				public void run() {
+					//dependent stages must not run on the watchdog thread
+					if (fail(new TimeOutException("execution timed out (" + timeout + "ms)"), ThreadSupport.getSharedExecutor())) {
+						interrupt();
+					}
+				}
+			}, timeout);
 		}
-		final Executable nestedExec = this;
-		helperExecutable = new Executable() {
-			public Object execute() throws Throwable {
-				return nestedExec.executeTimed(timeout);
-			}
-		};
-		helperExecutable.executeAsync();
 	}
 
+
 	/**
 	 * Executes repeatedly after <emph>interval</emph> ms.
+	 * Execution stops when the executable is interrupted or throws.
 	 * Make sure to interrupt the Executable when shutting down an application.
+	 * <p/>
+	 * Between executions only the scheduler holds on to the executable. The thread of the shared
+	 * scheduler is a daemon, so set a scheduler with non-daemon threads, such as
+	 * Executors.newSingleThreadScheduledExecutor(), if periodic execution must keep the JVM alive.
 	 *
-	 * @param interval
-	 */
-	public void executeAsyncPeriodically(final long interval) {
-		new Executable() {
-			@Override
-			protected Object execute() throws Throwable {
-				System.out.println("ABORTED:" + aborted);
-				while (!aborted) {
-					System.out.println(new Date() + "_executeDelayed");
-					executeDelayed(interval);
-					System.out.println("DONE " + new Date() + "_executeDelayed");
+	 * @param interval time in milliseconds between the end of an execution and the start of the next
+	 * @return future that is completed when execution stops
+	 */
+	public CompletableFuture<Object> executeAsyncPeriodically(final long interval) {
+		start();
+		schedule(new Runnable() {
+			public void run() {
+				if (!enter()) {
+					return;
 				}
-				return null;
+				try {
+					setReturnValue(execute());
+				}
+				catch (InterruptedException ie) {
+					completeInterrupted(ie);
+				}
+				catch (Throwable t) {
+					fail(t);
+				}
+				finally {
+					exit();
+				}
+				schedule(this, interval);
 			}
-		}.executeAsync();
+		}, interval);
+		return result;
 	}
 
 
-
 	/**
 	 * Executes after <emph>delay</emph> ms.
 	 *
 	 * @param delay
+	 * @return future result
 	 */
-	public void executeAsyncDelayed(final long delay) {
-		final Executable nestedExec = this;
-		helperExecutable = new Executable() {
-			public Object execute() throws Throwable {
-				return nestedExec.executeDelayed(delay);
-			}
-		};
-		helperExecutable.executeAsync();
+	public CompletableFuture<Object> executeAsyncDelayed(final long delay) {
+		start();
+		schedule(this, delay);
+		return result;
+	}
+
+
+	/**
+	 * Lets the scheduler hand off a task to the executor after a delay.
+	 */
+	private synchronized void schedule(final Runnable task, long delay) {
+		if (!aborted && !completing) {
+			scheduledTask = getScheduler().schedule(new Runnable() {
+				public void run() {
+					getExecutor().execute(task);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
 	}
 
+
 	/**
 	 * Executes synchronously.
 	 * After <emph>timeout</emph> ms the abort method is invoked if the executable has not finished processing.
 	 *
-	 * @param timeout timeout value in milliseconds
+	 * @param timeout timeout value in milliseconds, 0 or less to wait indefinitely
 	 * @return
 	 * @throws TimeOutException	 in case the call is timed out
 	 * @throws InterruptedException if execution was interrupted before timeout
@@ -152,21 +385,126 @@ public abstract class Executable implements Runnable {
 	 */
 	public Object executeTimed(long timeout) throws TimeOutException, InterruptedException, Throwable {
 		//this also executes asynchronously, yet the current thread waits for it to execute
-		executeAsync();
-		executeThread.join(timeout);
-		if (execException == null && !finished) {
+		executeAsyncTimed(timeout);
+		try {
+			return result.get();
+		}
+		catch (InterruptedException e) {
 			interrupt();
-			if (!finished)//execution could still have been finished by now
-			{
-				execException = new TimeOutException("execution timed out (" + timeout + "ms)");
+			throw e;
+		}
+		catch (ExecutionException e) {
+			throw e.getCause();
+		}
+		catch (CancellationException e) {
+			throw new InterruptedException("execution aborted");
+		}
+	}
+
+
+	/**
+	 * Executes a number of executables in parallel within a common time limit.
+	 *
+	 * @param executables executables that have not been executed yet
+	 * @param parallelism maximum number of executables running at the same time
+	 * @param timeout time in milliseconds for all executables to finish
+	 * @return results in order of the executables
+	 * @throws InterruptedException
+	 * @see #invokeAll(Collection, int, long, Receiver)
+	 */
+	public static List<CompletableFuture<Object>> invokeAll(Collection<? extends Executable> executables, int parallelism, long timeout) throws InterruptedException {
+		return invokeAll(executables, parallelism, timeout, null);
+	}
+
+
+	/**
+	 * Executes a number of executables in parallel within a common time limit.
+	 * Executables run on their own executor; a new executable is started as soon as one finishes.
+	 * Once the time limit is exceeded, executables that have not finished are interrupted, and
+	 * executables that have not started never will. Their results fail with a {@link TimeOutException}.
+	 * <p/>
+	 * The completion receiver receives every executable as soon as it is finished, failed or timed out,
+	 * in the thread that completed it, followed by a transmission close when all are done.
+	 *
+	 * @param executables executables that have not been executed yet
+	 * @param parallelism maximum number of executables running at the same time
+	 * @param timeout time in milliseconds for all executables to finish
+	 * @param completionReceiver receiver of completed executables or null
+	 * @return results in order of the executables, all of them completed
+	 * @throws InterruptedException if interrupted while waiting, in which case all executables are interrupted
+	 */
+	public static List<CompletableFuture<Object>> invokeAll(Collection<? extends Executable> executables, int parallelism, final long timeout, final Receiver completionReceiver) throws InterruptedException {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism (" + parallelism + ") must be positive");
+		}
+		final Executable[] tasks = executables.toArray(new Executable[0]);
+		for (Executable task : tasks) {
+			task.start();
+		}
+		final AtomicInteger nextTask = new AtomicInteger();
+		final CountDownLatch allDone = new CountDownLatch(tasks.length);
+		List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>(tasks.length);
+		for (final Executable task : tasks) {
+			results.add(task.result);
+			task.result.whenComplete(new BiConsumer<Object, Throwable>() {
+				public void accept(Object value, Throwable throwable) {
+					if (completionReceiver != null) {
+						completionReceiver.onReceive(task);
+					}
+					allDone.countDown();
+					startNext(tasks, nextTask);
+				}
+			});
+		}
+		TimeoutWatchdog.Timeout batchTimeout = ThreadSupport.getSharedTimeoutWatchdog().schedule(new Runnable() {
+			public void run() {
+				interruptAll(tasks, nextTask, new TimeOutException("execution of " + tasks.length + " executables timed out (" + timeout + "ms)"), ThreadSupport.getSharedExecutor());
 			}
+		}, timeout);
+		for (int i = 0; i < parallelism; i++) {
+			startNext(tasks, nextTask);
 		}
-		if (execException != null) {
-			throw execException;
+		try {
+			allDone.await();
 		}
-		return retval;
+		catch (InterruptedException e) {
+			interruptAll(tasks, nextTask, null, null);
+			throw e;
+		}
+		finally {
+			batchTimeout.cancel();
+		}
+		if (completionReceiver != null) {
+			completionReceiver.onTransmissionClose();
+		}
+		return results;
 	}
 
+
+	private static void startNext(Executable[] tasks, AtomicInteger nextTask) {
+		int index = nextTask.getAndIncrement();
+		if (index < tasks.length) {
+			//an executable that timed out before it started returns immediately
+			tasks[index].getExecutor().execute(tasks[index]);
+		}
+	}
+
+
+	/**
+	 * @param exception exception unfinished executables fail with, or null to cancel them
+	 * @param completer executor that completes the results, or null to complete them in the current thread
+	 */
+	private static void interruptAll(Executable[] tasks, AtomicInteger nextTask, Throwable exception, Executor completer) {
+		//prevents completion of one executable from starting another
+		nextTask.set(tasks.length);
+		for (Executable task : tasks) {
+			if (exception == null || task.fail(exception, completer)) {
+				task.interrupt();
+			}
+		}
+	}
+
+
 	/**
 	 * @param delay
 	 * @return
@@ -194,32 +532,58 @@ public abstract class Executable implements Runnable {
 	/**
 	 * Tries to interrupt execution.
 	 * Execution code is interrupted if it sleeps once in a while.
+	 * Pending delayed or periodic execution is cancelled.
 	 */
 	public void interrupt() {
-		if (!aborted) {
+		synchronized (this) {
+			if (aborted) {
+				return;
+			}
 			aborted = true;
 			if (executeThread != null) {
 				executeThread.interrupt();
 			}
-			if(helperExecutable != null) {
-				helperExecutable.interrupt();
+			cancelScheduledTask();
+			if (completing) {
+				//outcome is decided already
+				return;
 			}
+			completing = true;
 		}
+		result.cancel(false);
 	}
 
 	/**
-	 * Joins execution thread
+	 * Waits until execution is finished, interrupted or timed out.
 	 */
 	public void waitUntilFinished() throws InterruptedException {
-		if (executeThread != null) {
-			executeThread.join();
+		synchronized (this) {
+			if (!started) {
+				return;
+			}
+		}
+		try {
+			result.get();
+		}
+		catch (ExecutionException e) {
+			//available as execution exception
+		}
+		catch (CancellationException e) {
+			//aborted
 		}
 	}
 
+	/**
+	 * @return future result of asynchronous execution
+	 */
+	public CompletableFuture<Object> getResult() {
+		return result;
+	}
+
 	/**
 	 * @return the (runtime) exception that may have occurred during execution
 	 */
-	public Throwable getExecutionException() {
+	public synchronized Throwable getExecutionException() {
 		return execException;
 	}
 
@@ -227,21 +591,21 @@ public abstract class Executable implements Runnable {
 	/**
 	 * @return true if execution has been finished (un)successfully
 	 */
-	public boolean isFinished() {
+	public synchronized boolean isFinished() {
 		return finished;
 	}
 
 	/**
-	 * @return
+	 * @return the thread currently running execute() or null
 	 */
-	public Thread getExecutionThread() {
+	public synchronized Thread getExecutionThread() {
 		return executeThread;
 	}
 
 	/**
 	 * @return
 	 */
-	public Object getReturnValue() {
+	public synchronized Object getReturnValue() {
 		return retval;
 	}
 }
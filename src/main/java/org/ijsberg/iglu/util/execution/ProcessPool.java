@@ -0,0 +1,378 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.execution;
+
+import org.ijsberg.iglu.util.collection.ArraySupport;
+import org.ijsberg.iglu.util.io.Pipe;
+import org.ijsberg.iglu.util.io.PooledByteBuffer;
+import org.ijsberg.iglu.util.io.Receiver;
+import org.ijsberg.iglu.util.io.RoutingChannel;
+import org.ijsberg.iglu.util.io.Transponder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes OS commands in parallel, running no more than a maximum number of processes at a time.
+ * <p/>
+ * Every submitted command yields a future holding its exit code and, unless output is passed
+ * to a receiver, its captured output. Output of stdout and stderr is combined.
+ * If fail-fast is enabled, a command that fails cancels all other commands:
+ * waiting commands are not started and running processes are destroyed.
+ */
+public class ProcessPool {
+
+	private final ThreadFactory threadFactory;
+	private final ExecutorService executor;
+	private final int maxNrofProcesses;
+	private final List<Job> jobs = new ArrayList<Job>();
+	private volatile boolean failFast;
+	private volatile ProcessResult failure;
+
+
+	/**
+	 * @param maxNrofProcesses maximum number of processes running concurrently
+	 */
+	public ProcessPool(int maxNrofProcesses) {
+		this(maxNrofProcesses, ThreadSupport.getDefaultThreadFactory());
+	}
+
+
+	/**
+	 * @param maxNrofProcesses maximum number of processes running concurrently
+	 * @param threadFactory creates threads that wait for processes and forward their output
+	 */
+	public ProcessPool(int maxNrofProcesses, ThreadFactory threadFactory) {
+		if (maxNrofProcesses < 1) {
+			throw new IllegalArgumentException("maximum number of processes (" + maxNrofProcesses + ") must be positive");
+		}
+		this.maxNrofProcesses = maxNrofProcesses;
+		this.threadFactory = threadFactory;
+		this.executor = Executors.newFixedThreadPool(maxNrofProcesses, threadFactory);
+	}
+
+
+	/**
+	 * Outcome of an executed command.
+	 */
+	public static class ProcessResult {
+		private final String[] commandArray;
+		private final File workingDir;
+		private final int exitCode;
+		private final byte[] output;
+
+		private ProcessResult(String[] commandArray, File workingDir, int exitCode, byte[] output) {
+			this.commandArray = commandArray;
+			this.workingDir = workingDir;
+			this.exitCode = exitCode;
+			this.output = output;
+		}
+
+		public String[] getCommandArray() {
+			return commandArray;
+		}
+
+		public File getWorkingDir() {
+			return workingDir;
+		}
+
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		/**
+		 * @return combined output of stdout and stderr or null if output was passed to a receiver
+		 */
+		public byte[] getOutput() {
+			return output;
+		}
+
+		public boolean isSuccessful() {
+			return exitCode == 0;
+		}
+
+		public String toString() {
+			return "[" + ArraySupport.format(commandArray, " ") + "] in " + workingDir + " exited with " + exitCode;
+		}
+	}
+
+
+	/**
+	 * Chunk of output of a command, tagged to identify the command when output of
+	 * several commands is passed to the same receiver.
+	 * May be routed by a {@link RoutingChannel}.
+	 */
+	public static class TaggedOutput implements RoutingChannel.Tagged {
+		private final String tag;
+		private final byte[] data;
+
+		private TaggedOutput(String tag, byte[] data) {
+			this.tag = tag;
+			this.data = data;
+		}
+
+		public String getTag() {
+			return tag;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		public String[] getTags() {
+			return new String[]{tag};
+		}
+
+		public String toString() {
+			return tag + ": " + new String(data);
+		}
+	}
+
+
+	/**
+	 * Collects output of both output streams of a process and signals when both are closed.
+	 */
+	private static class JobOutput implements Receiver {
+		private final Receiver receiver;
+		private final String tag;
+		private final ByteArrayOutputStream capturedOutput;
+		private final CountDownLatch streamsClosed = new CountDownLatch(2);
+
+		private JobOutput(Receiver receiver, String tag) {
+			this.receiver = receiver;
+			this.tag = tag;
+			this.capturedOutput = receiver == null ? new ByteArrayOutputStream() : null;
+		}
+
+		public synchronized void onReceive(Object message) {
+			//pooled buffers are recycled as soon as this method returns
+			byte[] data = message instanceof PooledByteBuffer ? ((PooledByteBuffer) message).toByteArray() : (byte[]) message;
+			if (capturedOutput != null) {
+				capturedOutput.write(data, 0, data.length);
+			}
+			else {
+				receiver.onReceive(tag != null ? new TaggedOutput(tag, data) : data);
+			}
+		}
+
+		/**
+		 * Is not passed on, since a receiver may be shared by commands.
+		 */
+		public void onTransmissionClose() {
+			streamsClosed.countDown();
+		}
+	}
+
+
+	private class Job implements Callable<ProcessResult> {
+		private final String[] commandArray;
+		private final String[] envVars;
+		private final File workingDir;
+		private final JobOutput output;
+		private FutureTask<ProcessResult> future;
+
+		private Job(String[] commandArray, String[] envVars, File workingDir, Receiver outputReceiver, String tag) {
+			this.commandArray = commandArray;
+			this.envVars = envVars;
+			this.workingDir = workingDir;
+			this.output = new JobOutput(outputReceiver, tag);
+		}
+
+		public ProcessResult call() throws IOException, InterruptedException {
+			ProcessResult result;
+			try {
+				result = execute();
+			}
+			catch (IOException e) {
+				//command can not be started
+				onFailure(this, new ProcessResult(commandArray, workingDir, -1, null));
+				throw e;
+			}
+			if (!result.isSuccessful()) {
+				onFailure(this, result);
+			}
+			return result;
+		}
+
+		private ProcessResult execute() throws IOException, InterruptedException {
+			Process proc = Runtime.getRuntime().exec(commandArray, envVars, workingDir);
+			Transponder errorForwarder = new Transponder(proc.getErrorStream(), new Pipe(output));
+			Transponder outputForwarder = new Transponder(proc.getInputStream(), new Pipe(output));
+			//pooled forwarding stops at the end of the stream
+			errorForwarder.usePooledBuffers();
+			outputForwarder.usePooledBuffers();
+			errorForwarder.setThreadFactory(threadFactory);
+			outputForwarder.setThreadFactory(threadFactory);
+			errorForwarder.start();
+			outputForwarder.start();
+			try {
+				int exitCode = proc.waitFor();
+				output.streamsClosed.await();
+				return new ProcessResult(commandArray, workingDir, exitCode,
+						output.capturedOutput != null ? output.capturedOutput.toByteArray() : null);
+			}
+			finally {
+				if (proc.isAlive()) {
+					//cancelled, children may keep output streams open
+					Iterator<ProcessHandle> descendants = proc.descendants().iterator();
+					while (descendants.hasNext()) {
+						descendants.next().destroyForcibly();
+					}
+					proc.destroyForcibly();
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Lets a failing command, or a command that can not be started, cancel all other commands.
+	 *
+	 * A command that is cancelled does not count as failure.
+	 *
+	 * @param failFast
+	 */
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+
+	/**
+	 * Executes a command and captures its output.
+	 *
+	 * @param commandArray
+	 * @param envVars environment variables or null to inherit the environment
+	 * @param workingDir
+	 * @return future result
+	 */
+	public Future<ProcessResult> submit(String[] commandArray, String[] envVars, File workingDir) {
+		return submit(commandArray, envVars, workingDir, null, null);
+	}
+
+
+	/**
+	 * Executes a command and passes its output to a receiver.
+	 * A receiver shared by commands must be thread-safe.
+	 *
+	 * @param commandArray
+	 * @param envVars environment variables or null to inherit the environment
+	 * @param workingDir
+	 * @param outputReceiver receives output as byte arrays, or null to capture output
+	 * @param tag if not null, output is passed to the receiver as {@link TaggedOutput}
+	 * @return future result
+	 * @throws IllegalStateException if the pool is shut down or aborted by a failure
+	 */
+	public synchronized Future<ProcessResult> submit(String[] commandArray, String[] envVars, File workingDir, Receiver outputReceiver, String tag) {
+		if (failFast && failure != null) {
+			throw new IllegalStateException("process pool aborted after failure of " + failure);
+		}
+		final Job job = new Job(commandArray, envVars, workingDir, outputReceiver, tag);
+		job.future = new FutureTask<ProcessResult>(job) {
+			protected void done() {
+				removeJob(job);
+			}
+		};
+		try {
+			executor.execute(job.future);
+		}
+		catch (RejectedExecutionException e) {
+			throw new IllegalStateException("process pool is shut down", e);
+		}
+		jobs.add(job);
+		return job.future;
+	}
+
+
+	private synchronized void removeJob(Job job) {
+		jobs.remove(job);
+	}
+
+
+	private synchronized void onFailure(Job failedJob, ProcessResult result) {
+		if (failure == null) {
+			failure = result;
+		}
+		if (failFast) {
+			//cancelled jobs remove themselves
+			for (Job job : new ArrayList<Job>(jobs)) {
+				if (job != failedJob) {
+					job.future.cancel(true);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * @return the first command that failed or null
+	 */
+	public ProcessResult getFailure() {
+		return failure;
+	}
+
+
+	/**
+	 * Cancels all commands; running processes are destroyed.
+	 */
+	public synchronized void cancel() {
+		for (Job job : new ArrayList<Job>(jobs)) {
+			job.future.cancel(true);
+		}
+	}
+
+
+	/**
+	 * Lets submitted commands finish, but accepts no new commands.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+
+	/**
+	 * @param timeout maximum time in milliseconds to wait for commands to finish after shutdown
+	 * @return true if all commands finished
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout) throws InterruptedException {
+		return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * @return maximum number of processes running concurrently
+	 */
+	public int getMaxNrofProcesses() {
+		return maxNrofProcesses;
+	}
+}
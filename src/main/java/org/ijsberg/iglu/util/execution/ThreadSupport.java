@@ -0,0 +1,217 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.execution;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helper class for creating threads.
+ * <p/>
+ * By default ordinary non-daemon platform threads are created, so that the JVM does not exit
+ * while a thread is still forwarding data.
+ * On JDK 21 and later, virtual threads, which make it cheap to dedicate a thread to a blocking task
+ * such as reading an input stream, can be enabled with
+ * setDefaultThreadFactory(ThreadSupport.getVirtualThreadFactory()).
+ * Note that virtual threads are daemon threads.
+ */
+public abstract class ThreadSupport {
+
+	private static final ThreadFactory PLATFORM_THREAD_FACTORY = new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable);
+			//a new thread inherits the daemon status of the thread that creates it
+			thread.setDaemon(false);
+			return thread;
+		}
+	};
+
+	private static final ThreadFactory DAEMON_THREAD_FACTORY = new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable);
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private static final ThreadFactory VIRTUAL_THREAD_FACTORY = lookUpVirtualThreadFactory();
+
+	//idle threads of the shared platform executor terminate after this time
+	private static final long PLATFORM_THREAD_KEEP_ALIVE = 60;
+
+	private static ExecutorService sharedExecutor;
+	private static ExecutorService sharedPlatformExecutor;
+	private static ScheduledExecutorService sharedScheduler;
+	private static TimeoutWatchdog sharedTimeoutWatchdog;
+
+	private static volatile ThreadFactory defaultThreadFactory = PLATFORM_THREAD_FACTORY;
+
+	/**
+	 * Obtains Thread.ofVirtual().factory() by reflection, since the code base targets an older JDK.
+	 *
+	 * @return a factory for virtual threads or null if the runtime does not support them
+	 */
+	private static ThreadFactory lookUpVirtualThreadFactory() {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(ofVirtual.invoke(null));
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Obtains Executors.newVirtualThreadPerTaskExecutor() by reflection.
+	 *
+	 * @return an executor that starts a virtual thread per task or null if the runtime does not support them
+	 */
+	private static ExecutorService createVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the runtime supports virtual threads
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return VIRTUAL_THREAD_FACTORY != null;
+	}
+
+	/**
+	 * @return a factory that creates virtual threads if supported, platform threads otherwise
+	 */
+	public static ThreadFactory getVirtualThreadFactory() {
+		return VIRTUAL_THREAD_FACTORY != null ? VIRTUAL_THREAD_FACTORY : PLATFORM_THREAD_FACTORY;
+	}
+
+	/**
+	 * @return a factory that creates (non-daemon) platform threads
+	 */
+	public static ThreadFactory getPlatformThreadFactory() {
+		return PLATFORM_THREAD_FACTORY;
+	}
+
+	/**
+	 * @return the factory used by classes that have not been configured with a specific factory
+	 */
+	public static ThreadFactory getDefaultThreadFactory() {
+		return defaultThreadFactory;
+	}
+
+	/**
+	 * Replaces the factory used by classes that have not been configured with a specific factory.
+	 * Threads created by a factory for daemon or virtual threads do not keep the JVM alive.
+	 *
+	 * @param threadFactory
+	 */
+	public static void setDefaultThreadFactory(ThreadFactory threadFactory) {
+		if (threadFactory == null) {
+			throw new IllegalArgumentException("thread factory may not be null");
+		}
+		defaultThreadFactory = threadFactory;
+	}
+
+	/**
+	 * Returns an executor that can be shared by components that run short or blocking tasks.
+	 * It starts a virtual thread per task if supported, otherwise it pools daemon platform threads.
+	 *
+	 * @return the shared executor
+	 */
+	public static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = createVirtualThreadPerTaskExecutor();
+			if (sharedExecutor == null) {
+				sharedExecutor = Executors.newCachedThreadPool(DAEMON_THREAD_FACTORY);
+			}
+		}
+		return sharedExecutor;
+	}
+
+	/**
+	 * Returns an executor that pools non-daemon platform threads, so that tasks keep the JVM alive
+	 * until they are finished. Threads are reused, and terminate once they have been idle for a minute,
+	 * so that the pool does not keep the JVM alive by itself.
+	 *
+	 * @return the shared platform executor
+	 */
+	public static synchronized ExecutorService getSharedPlatformExecutor() {
+		if (sharedPlatformExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), Integer.MAX_VALUE,
+					PLATFORM_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), PLATFORM_THREAD_FACTORY);
+			executor.allowCoreThreadTimeOut(true);
+			sharedPlatformExecutor = executor;
+		}
+		return sharedPlatformExecutor;
+	}
+
+	/**
+	 * Returns a scheduler that can be shared by components that need to run tasks after a delay.
+	 * It runs on a single daemon thread, so scheduled tasks should merely hand off work
+	 * to an executor such as the shared executor.
+	 *
+	 * @return the shared scheduler
+	 */
+	public static synchronized ScheduledExecutorService getSharedScheduler() {
+		if (sharedScheduler == null) {
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, DAEMON_THREAD_FACTORY);
+			//do not keep cancelled timeouts around until they expire
+			scheduler.setRemoveOnCancelPolicy(true);
+			sharedScheduler = scheduler;
+		}
+		return sharedScheduler;
+	}
+
+	/**
+	 * Returns a watchdog that can be shared by components that need to time out work.
+	 *
+	 * @return the shared watchdog
+	 */
+	public static synchronized TimeoutWatchdog getSharedTimeoutWatchdog() {
+		if (sharedTimeoutWatchdog == null) {
+			sharedTimeoutWatchdog = new TimeoutWatchdog();
+		}
+		return sharedTimeoutWatchdog;
+	}
+
+	/**
+	 * Creates and starts a thread using the default factory.
+	 *
+	 * @param runnable
+	 * @return the started thread
+	 */
+	public static Thread start(Runnable runnable) {
+		Thread thread = defaultThreadFactory.newThread(runnable);
+		thread.start();
+		return thread;
+	}
+}
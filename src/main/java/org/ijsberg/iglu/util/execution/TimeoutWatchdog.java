@@ -0,0 +1,342 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.execution;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of a large number of timeouts with a single thread.
+ * <p/>
+ * Timeouts are kept in a hashed timing wheel: a circular array of buckets, each covering one tick.
+ * A timeout is put in the bucket of its deadline, together with the number of rotations of the
+ * wheel left before it expires. Adding and cancelling a timeout are O(1); the watchdog thread
+ * visits one bucket per tick. Deadlines are therefore accurate up to one tick.
+ * <p/>
+ * Expiration tasks run on the watchdog thread and must be short; they should typically
+ * interrupt or cancel the work that timed out, or hand off to an executor.
+ */
+public class TimeoutWatchdog {
+
+	public static final long DEFAULT_TICK_DURATION = 10;
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	private final long tickDurationNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final ThreadFactory threadFactory;
+	//timeouts are handed over to the watchdog thread, which owns the wheel
+	private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicLong nrofPendingTimeouts = new AtomicLong();
+	private final long startTime = System.nanoTime();
+	private Thread watchdogThread;
+	private volatile boolean stopped;
+	//only written by the watchdog thread
+	private volatile long nrofFailedTasks;
+	private volatile Throwable lastException;
+	private long tick;
+
+
+	/**
+	 * Creates a watchdog that is accurate up to {@link #DEFAULT_TICK_DURATION} ms.
+	 */
+	public TimeoutWatchdog() {
+		this(DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE, ThreadSupport.getPlatformThreadFactory());
+	}
+
+
+	/**
+	 * @param tickDuration accuracy in milliseconds
+	 * @param wheelSize number of buckets, rounded up to a power of 2;
+	 * should exceed the usual timeout divided by the tick duration
+	 * @param threadFactory creates the watchdog thread, which is made a daemon
+	 */
+	public TimeoutWatchdog(long tickDuration, int wheelSize, ThreadFactory threadFactory) {
+		if (tickDuration <= 0 || wheelSize <= 0 || wheelSize > 1 << 30) {
+			throw new IllegalArgumentException("tick duration (" + tickDuration + ") and wheel size (" + wheelSize + ") must be positive");
+		}
+		this.tickDurationNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+		int size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize) {
+			size <<= 1;
+		}
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.threadFactory = threadFactory;
+	}
+
+
+	/**
+	 * Handle to a scheduled timeout.
+	 */
+	public final class Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		//owned by the watchdog thread
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout previous;
+		private Timeout next;
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Prevents the timeout task from running.
+		 *
+		 * @return true if the timeout was pending
+		 */
+		public boolean cancel() {
+			if (state.compareAndSet(PENDING, CANCELLED)) {
+				nrofPendingTimeouts.decrementAndGet();
+				cancelledTimeouts.add(this);
+				return true;
+			}
+			return false;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		private void expire() {
+			if (state.compareAndSet(PENDING, EXPIRED)) {
+				nrofPendingTimeouts.decrementAndGet();
+				try {
+					task.run();
+				}
+				catch (Throwable t) {
+					//a failing task must not stop the watchdog
+					lastException = t;
+					nrofFailedTasks++;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Doubly linked list of timeouts, so that a cancelled timeout can be removed in O(1).
+	 */
+	private static class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		private void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			}
+			else {
+				tail.next = timeout;
+				timeout.previous = tail;
+				tail = timeout;
+			}
+		}
+
+		private Timeout remove(Timeout timeout) {
+			Timeout next = timeout.next;
+			if (timeout.previous != null) {
+				timeout.previous.next = next;
+			}
+			if (next != null) {
+				next.previous = timeout.previous;
+			}
+			if (timeout == head) {
+				head = next;
+			}
+			if (timeout == tail) {
+				tail = timeout.previous;
+			}
+			timeout.previous = null;
+			timeout.next = null;
+			timeout.bucket = null;
+			return next;
+		}
+
+		private void expireTimeouts(long deadline) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+					Timeout next = remove(timeout);
+					timeout.expire();
+					timeout = next;
+				}
+				else {
+					timeout.remainingRounds--;
+					timeout = timeout.next;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Runs a task once a timeout expires, unless the timeout is cancelled first.
+	 *
+	 * @param task short task to run on the watchdog thread
+	 * @param timeout time in milliseconds
+	 * @return handle to cancel the timeout
+	 */
+	public Timeout schedule(Runnable task, long timeout) {
+		if (task == null) {
+			throw new IllegalArgumentException("task may not be null");
+		}
+		if (stopped) {
+			throw new IllegalStateException("watchdog is stopped");
+		}
+		start();
+		Timeout result = new Timeout(task, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeout)));
+		nrofPendingTimeouts.incrementAndGet();
+		newTimeouts.add(result);
+		return result;
+	}
+
+
+	private synchronized void start() {
+		if (watchdogThread == null) {
+			watchdogThread = threadFactory.newThread(new Runnable() {
+				public void run() {
+					watch();
+				}
+			});
+			watchdogThread.setDaemon(true);
+			watchdogThread.start();
+		}
+	}
+
+
+	private void watch() {
+		while (!stopped) {
+			long deadline = waitForNextTick();
+			if (deadline < 0) {
+				break;
+			}
+			removeCancelledTimeouts();
+			transferNewTimeouts();
+			wheel[(int) (tick & mask)].expireTimeouts(deadline);
+			tick++;
+		}
+	}
+
+
+	/**
+	 * @return the time the tick ends relative to the start time, or -1 if stopped while waiting
+	 */
+	private long waitForNextTick() {
+		long deadline = tickDurationNanos * (tick + 1);
+		while (true) {
+			long remaining = deadline - (System.nanoTime() - startTime);
+			if (remaining <= 0) {
+				return deadline;
+			}
+			try {
+				TimeUnit.NANOSECONDS.sleep(remaining);
+			}
+			catch (InterruptedException e) {
+				if (stopped) {
+					return -1;
+				}
+			}
+		}
+	}
+
+
+	private void removeCancelledTimeouts() {
+		Timeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+
+	private void transferNewTimeouts() {
+		//limit work per tick if timeouts are added faster than they can be transferred
+		for (int i = 0; i < 100000; i++) {
+			Timeout timeout = newTimeouts.poll();
+			if (timeout == null) {
+				break;
+			}
+			if (timeout.isCancelled()) {
+				continue;
+			}
+			long expirationTick = timeout.deadline / tickDurationNanos;
+			timeout.remainingRounds = (expirationTick - tick) / wheel.length;
+			//expire overdue timeouts in the current tick
+			wheel[(int) (Math.max(expirationTick, tick) & mask)].add(timeout);
+		}
+	}
+
+
+	/**
+	 * @return the number of timeouts that have neither expired nor been cancelled
+	 */
+	public long getNrofPendingTimeouts() {
+		return nrofPendingTimeouts.get();
+	}
+
+
+	/**
+	 * @return the number of expiration tasks that threw an exception
+	 */
+	public long getNrofFailedTasks() {
+		return nrofFailedTasks;
+	}
+
+
+	/**
+	 * @return the exception thrown by the most recent failing expiration task, or null
+	 */
+	public Throwable getLastException() {
+		return lastException;
+	}
+
+
+	/**
+	 * Stops the watchdog thread. Pending timeouts will not expire.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		if (watchdogThread != null) {
+			watchdogThread.interrupt();
+		}
+	}
+}
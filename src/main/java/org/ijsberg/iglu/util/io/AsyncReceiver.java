@@ -0,0 +1,224 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples a receiver from the thread that transmits to it.
+ * <p/>
+ * Messages are put in a bounded mailbox and delivered to the target receiver by tasks
+ * running on a (shared) executor. At most one task per receiver runs at a time, so messages
+ * are delivered in the order they were received. A slow receiver therefore only fills up
+ * its own mailbox, in which case the overflow policy applies.
+ * <p/>
+ * The receiver has demand as long as its mailbox is not full, so a {@link BackpressurePolicy}
+ * can hold off transmitters before the overflow policy comes into play.
+ *
+ * @see BasicChannel#setAsyncDispatch(Executor, int, OverflowPolicy)
+ */
+public class AsyncReceiver implements BatchReceiver, FlowControlledReceiver {
+
+	public static final int DEFAULT_MAILBOX_SIZE = 1024;
+	//maximum number of messages delivered before the task yields to other receivers
+	private static final int MAX_DELIVERIES_PER_RUN = 256;
+	//interval at which a transmitter checks for demand
+	private static final long DEMAND_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final Receiver receiver;
+	private final Executor executor;
+	private final RingBufferReceiverQueue mailbox;
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private volatile boolean transmissionClosed;
+	private boolean closeDelivered;
+	//only written by the delivery task
+	private volatile long nrofFailedDeliveries;
+	private volatile RuntimeException lastException;
+	//only accessed by the delivery task
+	private final List<Object> batch = new ArrayList<Object>();
+	private final Runnable deliveryTask = new Runnable() {
+		public void run() {
+			deliver();
+		}
+	};
+
+	/**
+	 * @param receiver receiver messages are delivered to
+	 * @param executor executor that runs delivery
+	 * @param mailboxSize maximum number of pending messages
+	 * @param overflowPolicy determines what happens if a message arrives while the mailbox is full
+	 */
+	public AsyncReceiver(Receiver receiver, Executor executor, int mailboxSize, OverflowPolicy overflowPolicy) {
+		if (receiver == null) {
+			throw new IllegalArgumentException("receiver may not be null");
+		}
+		if (executor == null) {
+			throw new IllegalArgumentException("executor may not be null");
+		}
+		this.receiver = receiver;
+		this.executor = executor;
+		this.mailbox = new RingBufferReceiverQueue(mailboxSize, overflowPolicy);
+	}
+
+	/**
+	 * @param message
+	 */
+	public void onReceive(Object message) {
+		mailbox.onReceive(message);
+		schedule();
+	}
+
+	/**
+	 * @param messages
+	 */
+	public void onReceiveBatch(List<?> messages) {
+		mailbox.onReceiveBatch(messages);
+		schedule();
+	}
+
+	/**
+	 * Passes on the close after all pending messages have been delivered.
+	 */
+	public void onTransmissionClose() {
+		transmissionClosed = true;
+		mailbox.close();
+		schedule();
+	}
+
+	/**
+	 * @return true if the mailbox is not full
+	 */
+	public boolean hasDemand() {
+		return mailbox.getNrofQueuedMessages() < mailbox.getCapacity() || mailbox.isClosed();
+	}
+
+	/**
+	 * Waits until the mailbox is no longer full.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return true if the mailbox accepts messages, false if the timeout expired
+	 * @throws InterruptedException
+	 */
+	public boolean awaitDemand(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!hasDemand()) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			if (timeout > 0 && System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			LockSupport.parkNanos(this, DEMAND_WAIT_NANOS);
+		}
+		return true;
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(deliveryTask);
+		}
+	}
+
+	private void deliver() {
+		int nrofDeliveries = 0;
+		while (nrofDeliveries < MAX_DELIVERIES_PER_RUN && mailbox.drainTo(batch, MAX_DELIVERIES_PER_RUN - nrofDeliveries) > 0) {
+			nrofDeliveries += batch.size();
+			if (receiver instanceof BatchReceiver) {
+				try {
+					((BatchReceiver) receiver).onReceiveBatch(batch);
+				}
+				catch (RuntimeException e) {
+					recordFailure(e);
+				}
+			}
+			else {
+				for (Object message : batch) {
+					try {
+						receiver.onReceive(message);
+					}
+					catch (RuntimeException e) {
+						recordFailure(e);
+					}
+				}
+			}
+			//release the references the mailbox took; receivers that keep a buffer retain it themselves
+			for (Object message : batch) {
+				PooledByteBuffer.releaseIfPooled(message);
+			}
+			batch.clear();
+		}
+		if (transmissionClosed && !closeDelivered && mailbox.available() == 0) {
+			closeDelivered = true;
+			try {
+				receiver.onTransmissionClose();
+			}
+			catch (RuntimeException e) {
+				recordFailure(e);
+			}
+		}
+		scheduled.set(false);
+		//messages may have arrived after the mailbox was found empty
+		if (mailbox.available() > 0 || (transmissionClosed && !closeDelivered)) {
+			schedule();
+		}
+	}
+
+	/**
+	 * A failing receiver must not stop delivery of subsequent messages,
+	 * so the failure is only recorded.
+	 */
+	private void recordFailure(RuntimeException e) {
+		lastException = e;
+		nrofFailedDeliveries++;
+	}
+
+	/**
+	 * @return number of deliveries that failed because the receiver threw an exception
+	 */
+	public long getNrofFailedDeliveries() {
+		return nrofFailedDeliveries;
+	}
+
+	/**
+	 * @return the exception thrown by the most recent failing delivery, or null
+	 */
+	public RuntimeException getLastException() {
+		return lastException;
+	}
+
+	/**
+	 * @return the receiver messages are delivered to
+	 */
+	public Receiver getReceiver() {
+		return receiver;
+	}
+
+	/**
+	 * @return number of messages waiting for delivery
+	 */
+	public int getNrofPendingMessages() {
+		return mailbox.available();
+	}
+}
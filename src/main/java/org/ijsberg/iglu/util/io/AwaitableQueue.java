@@ -0,0 +1,43 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+/**
+ * Object queue that lets a reader wait for objects to arrive instead of polling.
+ */
+public interface AwaitableQueue extends Queue {
+	/**
+	 * Waits until objects are available or the queue is closed.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return true if objects are available, false if the timeout expired or the queue was closed while empty
+	 * @throws InterruptedException
+	 */
+	boolean awaitAvailable(long timeout) throws InterruptedException;
+
+	/**
+	 * Reads (and removes) an object from a queue, waiting if necessary.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return the first object or null if the timeout expired or the queue was closed while empty
+	 * @throws InterruptedException
+	 */
+	Object read(long timeout) throws InterruptedException;
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+/**
+ * Determines how a transmitter treats a {@link FlowControlledReceiver} that has no demand.
+ */
+public enum BackpressurePolicy {
+	/**
+	 * Messages are delivered regardless of demand.
+	 */
+	IGNORE,
+	/**
+	 * The transmitting thread waits for demand, rejecting the message if a timeout expires.
+	 */
+	BLOCK,
+	/**
+	 * The message is rejected immediately.
+	 */
+	REJECT;
+
+	/**
+	 * Applies this policy to a receiver that is about to receive a message.
+	 *
+	 * @param receiver
+	 * @param timeout maximum time to wait for demand in milliseconds, 0 means wait indefinitely
+	 * @throws TransmissionRejectedException if the message must not be delivered
+	 */
+	void awaitDemand(Receiver receiver, long timeout) {
+		if (this == IGNORE || !(receiver instanceof FlowControlledReceiver)) {
+			return;
+		}
+		FlowControlledReceiver flowControlledReceiver = (FlowControlledReceiver) receiver;
+		if (flowControlledReceiver.hasDemand()) {
+			return;
+		}
+		if (this == REJECT) {
+			throw new TransmissionRejectedException("receiver can not keep up");
+		}
+		try {
+			if (!flowControlledReceiver.awaitDemand(timeout)) {
+				throw new TransmissionRejectedException("receiver can not keep up (waited " + timeout + "ms)");
+			}
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new TransmissionRejectedException("interrupted while waiting for receiver");
+		}
+	}
+}
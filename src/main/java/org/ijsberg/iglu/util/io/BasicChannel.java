@@ -19,20 +19,37 @@
 
 package org.ijsberg.iglu.util.io;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 
 /**
  * Transmits messages to a number of Receivers.
+ * <p/>
+ * Receivers are kept in an immutable array that is replaced whenever a receiver
+ * is added or removed. Messages can therefore be transmitted concurrently without locking.
  */
-public class BasicChannel implements Channel, Transmitter {
-	private ArrayList<Receiver> receivers = new ArrayList<Receiver>();
+public class BasicChannel implements Channel, BatchTransmitter {
+	private static final Receiver[] NO_RECEIVERS = new Receiver[0];
+	//snapshot of registered receivers, replaced on every modification
+	private volatile Receiver[] receivers = NO_RECEIVERS;
+	private final Object registryLock = new Object();
+	//set if a transmission encountered a closed receiver
+	private volatile boolean cleanupRequired;
 	private int maxNrofReceivers;//unlimited
 	//echo input to transceivers
 	private boolean echo;
 	private String name;
-	private boolean closed;
+	private volatile boolean closed;
+	private volatile BackpressurePolicy backpressurePolicy = BackpressurePolicy.IGNORE;
+	private volatile long backpressureTimeout;
+	//if set, receivers are wrapped in an AsyncReceiver
+	private Executor asyncExecutor;
+	private int mailboxSize;
+	private OverflowPolicy mailboxOverflowPolicy;
+	//instrumentation is disabled by default
+	private volatile MessagingMetrics metrics;
 
 
 	/**
@@ -95,38 +112,250 @@ public class BasicChannel implements Channel, Transmitter {
 
 	/**
 	 * Dispatches an object to all connected receivers.
+	 * If a backpressure policy is set, the call may block or fail with a {@link TransmissionRejectedException}.
+	 * Closed receivers are skipped; they are removed when receivers are registered
+	 * or when {@link #removeClosedReceivers()} is invoked.
 	 *
 	 * @param o the object to dispatch
 	 * @param t the transceiver sending the object
 	 */
-	public synchronized void transmit(Object o, ReceiverQueue t) {
+	public void transmit(Object o, ReceiverQueue t) {
 		if (!closed) {
-			ArrayList<Receiver> toBeRemoved = new ArrayList<Receiver>();
+			MessagingMetrics metrics = this.metrics;
+			if (metrics != null) {
+				metrics.recordIn(o);
+			}
+			Receiver[] receivers = this.receivers;
+			awaitDemand(receivers, t);
 			for (Receiver r : receivers) {
-				//cleanup
-				//TODO separate cleanup from transmit
-				//
-				if (r instanceof ReceiverQueue && ((ReceiverQueue)r).isClosed()) {
-					toBeRemoved.add(r);
+				if (isClosed(r)) {
+					cleanupRequired = true;
 				}
-				else {
-					if (echo || r != t) {
-						r.onReceive(o);
+				else if (echo || unwrap(r) != t) {
+					r.onReceive(o);
+					if (metrics != null) {
+						metrics.recordOut(o);
 					}
 				}
 			}
-			for (Receiver r : toBeRemoved) {
-				receivers.remove(r);
+		}
+	}
+
+
+	/**
+	 * Dispatches a number of objects to all connected receivers.
+	 *
+	 * @param objects the objects to dispatch
+	 */
+	public void transmitBatch(List<?> objects) {
+		transmitBatch(objects, null);
+	}
+
+
+	/**
+	 * Dispatches a number of objects to all connected receivers.
+	 * Receivers that implement {@link BatchReceiver} receive all objects in one call.
+	 *
+	 * @param objects the objects to dispatch
+	 * @param t the transceiver sending the objects
+	 */
+	public void transmitBatch(List<?> objects, ReceiverQueue t) {
+		if (!closed) {
+			MessagingMetrics metrics = this.metrics;
+			if (metrics != null) {
+				for (Object o : objects) {
+					metrics.recordIn(o);
+				}
+			}
+			Receiver[] receivers = this.receivers;
+			awaitDemand(receivers, t);
+			for (Receiver r : receivers) {
+				if (isClosed(r)) {
+					cleanupRequired = true;
+				}
+				else if (echo || unwrap(r) != t) {
+					if (r instanceof BatchReceiver) {
+						((BatchReceiver) r).onReceiveBatch(objects);
+					}
+					else {
+						for (Object o : objects) {
+							r.onReceive(o);
+						}
+					}
+					if (metrics != null) {
+						for (Object o : objects) {
+							metrics.recordOut(o);
+						}
+					}
+				}
 			}
 		}
 	}
 
 
+	/**
+	 * Applies the backpressure policy to all receivers before anything is delivered.
+	 */
+	private void awaitDemand(Receiver[] receivers, ReceiverQueue t) {
+		BackpressurePolicy policy = backpressurePolicy;
+		if (policy != BackpressurePolicy.IGNORE) {
+			try {
+				for (Receiver r : receivers) {
+					if ((echo || unwrap(r) != t) && !isClosed(r)) {
+						policy.awaitDemand(r, backpressureTimeout);
+					}
+				}
+			}
+			catch (TransmissionRejectedException e) {
+				MessagingMetrics metrics = this.metrics;
+				if (metrics != null) {
+					metrics.recordDrop();
+				}
+				throw e;
+			}
+		}
+	}
+
+
+	/**
+	 * Determines how transmission deals with receivers that can not keep up.
+	 * By default, demand signalled by a {@link FlowControlledReceiver} is ignored.
+	 *
+	 * @param policy
+	 * @param timeout maximum time in milliseconds to wait for demand if the policy is BLOCK, 0 means wait indefinitely
+	 */
+	public void setBackpressurePolicy(BackpressurePolicy policy, long timeout) {
+		if (policy == null) {
+			throw new IllegalArgumentException("backpressure policy may not be null");
+		}
+		this.backpressureTimeout = timeout;
+		this.backpressurePolicy = policy;
+	}
+
+
+	/**
+	 * Enables instrumentation of this channel.
+	 * Messages in are counted per transmission, messages out per delivery to a receiver.
+	 *
+	 * @param metrics metrics to update or null to disable instrumentation
+	 */
+	public void setMetrics(MessagingMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+
+	/**
+	 * @return metrics or null if instrumentation is disabled
+	 */
+	public MessagingMetrics getMetrics() {
+		return metrics;
+	}
+
+
+	private static boolean isClosed(Receiver receiver) {
+		Receiver target = unwrap(receiver);
+		return target instanceof Queue && ((Queue) target).isClosed();
+	}
+
+
+	private static Receiver unwrap(Receiver receiver) {
+		return receiver instanceof AsyncReceiver ? ((AsyncReceiver) receiver).getReceiver() : receiver;
+	}
+
+
+	/**
+	 * Lets every receiver receive messages in a task run by the given executor instead of in the
+	 * transmitting thread. Each receiver gets its own mailbox, so a slow receiver
+	 * holds up neither transmitters nor other receivers. Messages are delivered in order.
+	 * Applies to receivers that are already registered as well.
+	 * Note that backpressure applies to the mailboxes rather than the receivers themselves:
+	 * a receiver has demand as long as its mailbox is not full.
+	 *
+	 * @param executor executor that runs delivery, for instance ThreadSupport.getSharedExecutor()
+	 * @param mailboxSize maximum number of pending messages per receiver
+	 * @param overflowPolicy determines what happens if a message arrives while a mailbox is full
+	 */
+	public void setAsyncDispatch(Executor executor, int mailboxSize, OverflowPolicy overflowPolicy) {
+		if (executor == null) {
+			throw new IllegalArgumentException("executor may not be null");
+		}
+		synchronized (registryLock) {
+			this.asyncExecutor = executor;
+			this.mailboxSize = mailboxSize;
+			this.mailboxOverflowPolicy = overflowPolicy;
+			Receiver[] current = receivers;
+			Receiver[] wrapped = new Receiver[current.length];
+			for (int i = 0; i < current.length; i++) {
+				wrapped[i] = current[i] instanceof AsyncReceiver ? current[i] : wrap(current[i]);
+			}
+			receivers = wrapped;
+		}
+	}
+
+
+	private Receiver wrap(Receiver receiver) {
+		return new AsyncReceiver(receiver, asyncExecutor, mailboxSize, mailboxOverflowPolicy);
+	}
+
+
+	/**
+	 * Removes receivers that have been closed since they were registered.
+	 */
+	public void removeClosedReceivers() {
+		synchronized (registryLock) {
+			cleanupRequired = false;
+			Receiver[] current = receivers;
+			int nrofOpenReceivers = 0;
+			for (Receiver r : current) {
+				if (!isClosed(r)) {
+					nrofOpenReceivers++;
+				}
+			}
+			if (nrofOpenReceivers < current.length) {
+				Receiver[] remaining = new Receiver[nrofOpenReceivers];
+				int i = 0;
+				for (Receiver r : current) {
+					if (!isClosed(r)) {
+						remaining[i++] = r;
+					}
+				}
+				receivers = remaining;
+			}
+		}
+	}
+
+
+	/**
+	 * Removes a receiver from this channel.
+	 *
+	 * @param receiver
+	 * @return true if the receiver was registered
+	 */
+	public boolean removeReceiver(Receiver receiver) {
+		synchronized (registryLock) {
+			Receiver[] current = receivers;
+			for (int i = 0; i < current.length; i++) {
+				if (unwrap(current[i]) == receiver) {
+					Receiver[] remaining = new Receiver[current.length - 1];
+					System.arraycopy(current, 0, remaining, 0, i);
+					System.arraycopy(current, i + 1, remaining, i, current.length - i - 1);
+					receivers = remaining;
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+
 	/**
 	 * @return the number of listening receivers
 	 */
 	public int getNrofReceivers() {
-		return receivers.size();
+		if (cleanupRequired) {
+			removeClosedReceivers();
+		}
+		return receivers.length;
 	}
 
 	/**
@@ -146,14 +375,7 @@ public class BasicChannel implements Channel, Transmitter {
 	 * @return a receiver
 	 */
 	public ReceiverQueue createReceiver(int limit) {
-		synchronized (receivers) {
-			ReceiverQueue q = null;
-			if (!closed && (maxNrofReceivers == 0 || receivers.size() < maxNrofReceivers)) {
-				q = new ReceiverQueue(/*this, */limit);
-				receivers.add(q);
-			}
-			return q;
-		}
+		return (ReceiverQueue) registerReceiver(new ReceiverQueue(/*this, */limit));
 	}
 
 	/**
@@ -164,9 +386,15 @@ public class BasicChannel implements Channel, Transmitter {
 	 *         number of receivers is reached
 	 */
 	public Receiver registerReceiver(Receiver receiver) {
-		synchronized (receivers) {
-			if (!closed && (maxNrofReceivers == 0 || receivers.size() < maxNrofReceivers)) {
-				receivers.add(receiver);
+		synchronized (registryLock) {
+			if (cleanupRequired) {
+				removeClosedReceivers();
+			}
+			Receiver[] current = receivers;
+			if (!closed && (maxNrofReceivers == 0 || current.length < maxNrofReceivers)) {
+				Receiver[] extended = Arrays.copyOf(current, current.length + 1);
+				extended[current.length] = asyncExecutor != null ? wrap(receiver) : receiver;
+				receivers = extended;
 			}
 			else {
 				return null;
@@ -180,14 +408,12 @@ public class BasicChannel implements Channel, Transmitter {
 	 * Closes the channel and all receivers.
 	 */
 	public void close() {
-		synchronized (receivers) {
-			Iterator i = receivers.iterator();
-			while (i.hasNext()) {
-				ReceiverQueue r = (ReceiverQueue) i.next();
+		synchronized (registryLock) {
+			closed = true;
+			for (Receiver r : receivers) {
 				r.onTransmissionClose();
 			}
-			closed = true;
-			receivers.clear();
+			receivers = NO_RECEIVERS;
 		}
 	}
 
@@ -215,13 +441,18 @@ public class BasicChannel implements Channel, Transmitter {
 	 */
 	public String toString() {
 		StringBuffer result = new StringBuffer("Pipe: " + name + "\n");
-		synchronized (receivers) {
-			Iterator i = receivers.iterator();
-			while (i.hasNext()) {
-				ReceiverQueue r = (ReceiverQueue) i.next();
-				result.append("- r: " + r.getNrofQueuedMessages() + " queued\n");
+		if (metrics != null) {
+			result.append("- " + metrics + "\n");
+		}
+		for (Receiver receiver : receivers) {
+			Receiver r = unwrap(receiver);
+			if (r instanceof Queue) {
+				result.append("- r: " + ((Queue) r).available() + " queued\n");
+			}
+			else {
+				result.append("- r: " + r + "\n");
 			}
-			return result.toString();
 		}
+		return result.toString();
 	}
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.util.List;
+
+/**
+ * Receiver that is able to process a number of messages in one call.
+ */
+public interface BatchReceiver extends Receiver {
+	/**
+	 * Is invoked in case a number of messages is received at once.
+	 * The list is only valid for the duration of the call and must be copied if retained.
+	 *
+	 * @param messages
+	 */
+	void onReceiveBatch(List<?> messages);
+}
@@ -1,12 +1,14 @@
 package org.ijsberg.iglu.util.io;
 
+import java.nio.ByteBuffer;
+
 public class BufferedCommandLineOutputReceiver implements Receiver {
 
     private StringBuilder bufferedOutput = new StringBuilder();
 
     @Override
     public void onReceive(Object message) {
-        bufferedOutput.append(getStringFromCommandLineInput(message) + "\n");
+        bufferedOutput.append(getStringFromCommandLineInput(message)).append('\n');
     }
 
     @Override
@@ -24,10 +26,28 @@ public class BufferedCommandLineOutputReceiver implements Receiver {
             return "";
         } else if (message instanceof byte[]) {
             output = new String((byte[]) message);
+        } else if (message instanceof PooledByteBuffer) {
+            output = new String(((PooledByteBuffer) message).toByteArray());
         } else {
             output = "" + message;
         }
         return output;
     }
 
+    /**
+     * @param message
+     * @return a view on the bytes of the message, without copying byte arrays and pooled buffers
+     */
+    public static ByteBuffer getBytesFromCommandLineInput(Object message) {
+        if(message == null) {
+            return ByteBuffer.allocate(0);
+        } else if (message instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) message);
+        } else if (message instanceof PooledByteBuffer) {
+            return ((PooledByteBuffer) message).getBuffer();
+        } else {
+            return ByteBuffer.wrap(("" + message).getBytes());
+        }
+    }
+
 }
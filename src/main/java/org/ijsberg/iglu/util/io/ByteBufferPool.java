@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a number of equally sized byte buffers for reuse, so that forwarding
+ * large amounts of stream data does not create an array per read.
+ *
+ * @see PooledByteBuffer
+ */
+public class ByteBufferPool {
+
+	private final int bufferSize;
+	private final boolean direct;
+	private final ArrayBlockingQueue<ByteBuffer> freeBuffers;
+	private final AtomicInteger nrofBuffersCreated = new AtomicInteger();
+
+	/**
+	 * @param bufferSize size of each buffer in bytes
+	 * @param maxNrofPooledBuffers maximum number of idle buffers kept for reuse
+	 * @param direct true to allocate direct buffers, which can be read into by channels without copying
+	 */
+	public ByteBufferPool(int bufferSize, int maxNrofPooledBuffers, boolean direct) {
+		if (bufferSize <= 0 || maxNrofPooledBuffers <= 0) {
+			throw new IllegalArgumentException("buffer size and maximum number of pooled buffers must be greater than 0");
+		}
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+		this.freeBuffers = new ArrayBlockingQueue<ByteBuffer>(maxNrofPooledBuffers);
+	}
+
+	/**
+	 * Obtains an empty buffer, which is returned to the pool once all references are released.
+	 *
+	 * @return a buffer with a reference count of 1
+	 */
+	public PooledByteBuffer acquire() {
+		ByteBuffer buffer = freeBuffers.poll();
+		if (buffer == null) {
+			nrofBuffersCreated.incrementAndGet();
+			buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		}
+		buffer.clear();
+		return new PooledByteBuffer(this, buffer);
+	}
+
+	/**
+	 * Returns a buffer to the pool, or leaves it to the garbage collector if the pool is full.
+	 *
+	 * @param buffer
+	 */
+	void recycle(ByteBuffer buffer) {
+		freeBuffers.offer(buffer);
+	}
+
+	/**
+	 * @return size of each buffer in bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @return number of idle buffers
+	 */
+	public int getNrofPooledBuffers() {
+		return freeBuffers.size();
+	}
+
+	/**
+	 * @return number of buffers allocated since the pool was created
+	 */
+	public int getNrofBuffersCreated() {
+		return nrofBuffersCreated.get();
+	}
+}
@@ -207,7 +207,7 @@ public abstract class FileSupport {
 	 */
 	private static List<File> getContentsInDirectoryTree(File directory, FileFilterRuleSet ruleSet, boolean returnFiles, boolean returnDirs) {
 		ListTreeMap<String, File> sortedResult = getSortedContentsInDirectoryTree(directory, ruleSet, returnFiles, returnDirs);
-		return sortedResult.values();
+		return new ArrayList<>(sortedResult.values());
 	}
 
 	/**
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.ijsberg.iglu.util.execution.ThreadSupport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes messages through a chain of filters before they reach a receiver.
+ * <p/>
+ * Every stage runs its filter in a number of worker threads that take messages from a
+ * bounded hand-off queue. A full queue blocks the stage (or transmitter) in front of it,
+ * so a slow stage slows down the pipeline rather than filling up memory.
+ * An ordered stage passes on results in the order messages entered the stage;
+ * an unordered stage passes them on as soon as they are available.
+ * <p/>
+ * A filter that returns null, or throws a runtime exception, drops the message.
+ * Runtime exceptions thrown by filters or the receiver do not stop the pipeline,
+ * but are counted; see {@link #getNrofFailures()}.
+ * Note that the receiver is invoked concurrently if the last stage is unordered
+ * and has more than one worker.
+ */
+public class FilterPipeline implements Receiver {
+
+	public static final int DEFAULT_QUEUE_SIZE = 1024;
+	private static final Object END_OF_INPUT = new Object();
+	private static final Object DROPPED = new Object();
+
+	private final Receiver receiver;
+	private final List<Stage> stages = new ArrayList<Stage>();
+	private final List<Thread> workers = new ArrayList<Thread>();
+	//null means ThreadSupport's default
+	private ThreadFactory threadFactory;
+	private volatile boolean started;
+	private volatile boolean closed;
+	private final AtomicLong nrofFailures = new AtomicLong();
+	private volatile RuntimeException lastException;
+
+
+	/**
+	 * @param receiver receiver of the output of the last stage
+	 */
+	public FilterPipeline(Receiver receiver) {
+		if (receiver == null) {
+			throw new IllegalArgumentException("receiver may not be null");
+		}
+		this.receiver = receiver;
+	}
+
+
+	private static class Envelope {
+		private final long sequence;
+		private final Object message;
+
+		private Envelope(long sequence, Object message) {
+			this.sequence = sequence;
+			this.message = message;
+		}
+	}
+
+
+	private class Stage implements Runnable {
+		private final Filter<?> filter;
+		private final int parallelism;
+		private final boolean ordered;
+		private final int queueSize;
+		private final BlockingQueue<Object> input;
+		private final AtomicInteger nrofActiveWorkers;
+		private Stage next;
+		//guarded by this
+		private long nextInputSequence;
+		//guarded by pending
+		private final HashMap<Long, Object> pending = new HashMap<Long, Object>();
+		private long nextOutputSequence;
+
+		private Stage(Filter<?> filter, int parallelism, int queueSize, boolean ordered) {
+			this.filter = filter;
+			this.parallelism = parallelism;
+			this.queueSize = queueSize;
+			this.ordered = ordered;
+			this.input = new ArrayBlockingQueue<Object>(queueSize);
+			this.nrofActiveWorkers = new AtomicInteger(parallelism);
+		}
+
+		private synchronized void put(Object message) throws InterruptedException {
+			input.put(new Envelope(nextInputSequence++, message));
+		}
+
+		private synchronized void closeInput() throws InterruptedException {
+			for (int i = 0; i < parallelism; i++) {
+				input.put(END_OF_INPUT);
+			}
+		}
+
+		public void run() {
+			boolean stopped = false;
+			try {
+				Object element;
+				while ((element = input.take()) != END_OF_INPUT) {
+					Envelope envelope = (Envelope) element;
+					Object output = null;
+					try {
+						output = applyFilter(filter, envelope.message);
+					}
+					catch (RuntimeException e) {
+						//a failing filter must not stop processing of subsequent messages
+						recordFailure(e);
+					}
+					if (ordered) {
+						complete(envelope.sequence, output);
+					}
+					else if (output != null) {
+						emit(output);
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				//pipeline is stopped
+				stopped = true;
+			}
+			finally {
+				//the last worker to finish passes on the close, even if it finished abnormally
+				if (nrofActiveWorkers.decrementAndGet() == 0 && !stopped) {
+					closeOutput();
+				}
+			}
+		}
+
+		private void closeOutput() {
+			try {
+				if (next != null) {
+					next.closeInput();
+				}
+				else {
+					receiver.onTransmissionClose();
+				}
+			}
+			catch (InterruptedException e) {
+				//pipeline is stopped
+			}
+			catch (RuntimeException e) {
+				recordFailure(e);
+			}
+		}
+
+		/**
+		 * Passes on output in order of input.
+		 * Workers that are too far ahead wait, which limits the number of pending results.
+		 */
+		private void complete(long sequence, Object output) throws InterruptedException {
+			synchronized (pending) {
+				while (sequence - nextOutputSequence >= queueSize) {
+					pending.wait();
+				}
+				if (sequence != nextOutputSequence) {
+					pending.put(sequence, output != null ? output : DROPPED);
+					return;
+				}
+				if (output != null) {
+					emit(output);
+				}
+				nextOutputSequence++;
+				while ((output = pending.remove(nextOutputSequence)) != null) {
+					if (output != DROPPED) {
+						emit(output);
+					}
+					nextOutputSequence++;
+				}
+				pending.notifyAll();
+			}
+		}
+
+		/**
+		 * A failing receiver must not stop the worker, or an ordered stage would never
+		 * pass on subsequent output.
+		 */
+		private void emit(Object output) throws InterruptedException {
+			try {
+				if (next != null) {
+					next.put(output);
+				}
+				else {
+					receiver.onReceive(output);
+				}
+			}
+			catch (RuntimeException e) {
+				recordFailure(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Messages of a stage are the output of the previous stage, so their type is only known to the caller.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Object applyFilter(Filter<T> filter, Object message) {
+		return filter.filter((T) message);
+	}
+
+
+	private void recordFailure(RuntimeException e) {
+		lastException = e;
+		nrofFailures.incrementAndGet();
+	}
+
+
+	/**
+	 * Adds an ordered stage with a hand-off queue of default size.
+	 *
+	 * @param filter
+	 * @param parallelism number of worker threads
+	 * @return this pipeline for convenience
+	 */
+	public FilterPipeline addStage(Filter<?> filter, int parallelism) {
+		return addStage(filter, parallelism, DEFAULT_QUEUE_SIZE, true);
+	}
+
+
+	/**
+	 * Adds a stage to the end of the pipeline.
+	 *
+	 * @param filter
+	 * @param parallelism number of worker threads
+	 * @param queueSize maximum number of messages waiting to be filtered by this stage
+	 * @param ordered true if output must be passed on in order of input
+	 * @return this pipeline for convenience
+	 */
+	public FilterPipeline addStage(Filter<?> filter, int parallelism, int queueSize, boolean ordered) {
+		if (filter == null) {
+			throw new IllegalArgumentException("filter may not be null");
+		}
+		if (parallelism < 1 || queueSize < 1) {
+			throw new IllegalArgumentException("parallelism (" + parallelism + ") and queue size (" + queueSize + ") must be positive");
+		}
+		if (started) {
+			throw new IllegalStateException("pipeline is already started");
+		}
+		Stage stage = new Stage(filter, parallelism, queueSize, ordered);
+		if (!stages.isEmpty()) {
+			stages.get(stages.size() - 1).next = stage;
+		}
+		stages.add(stage);
+		return this;
+	}
+
+
+	/**
+	 * @param threadFactory
+	 * @see ThreadSupport#getDefaultThreadFactory()
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
+
+	/**
+	 * Starts the workers of all stages.
+	 */
+	public synchronized void start() {
+		if (started) {
+			throw new IllegalStateException("pipeline is already started");
+		}
+		ThreadFactory factory = threadFactory != null ? threadFactory : ThreadSupport.getDefaultThreadFactory();
+		for (Stage stage : stages) {
+			for (int i = 0; i < stage.parallelism; i++) {
+				Thread worker = factory.newThread(stage);
+				workers.add(worker);
+				worker.start();
+			}
+		}
+		started = true;
+	}
+
+
+	/**
+	 * Passes a message to the first stage.
+	 * Blocks if the first stage can not keep up.
+	 *
+	 * @param message
+	 * @throws TransmissionRejectedException if interrupted while waiting
+	 */
+	public void onReceive(Object message) {
+		if (!started) {
+			throw new IllegalStateException("pipeline is not started");
+		}
+		if (closed) {
+			throw new IllegalStateException("pipeline is closed");
+		}
+		if (stages.isEmpty()) {
+			receiver.onReceive(message);
+			return;
+		}
+		try {
+			stages.get(0).put(message);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TransmissionRejectedException("interrupted while waiting for pipeline to accept message");
+		}
+	}
+
+
+	/**
+	 * Lets all stages finish processing pending messages.
+	 * The receiver's transmission is closed after the last message has passed the last stage.
+	 */
+	public void onTransmissionClose() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (stages.isEmpty()) {
+			receiver.onTransmissionClose();
+			return;
+		}
+		try {
+			stages.get(0).closeInput();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Waits for all workers to finish after transmission has been closed.
+	 *
+	 * @param timeout maximum time to wait in milliseconds
+	 * @return true if all workers have finished
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		for (Thread worker : workers) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining > 0) {
+				worker.join(remaining);
+			}
+			if (worker.isAlive()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Interrupts all workers. Pending messages are discarded.
+	 */
+	public void stop() {
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+
+	/**
+	 * @return the number of messages waiting to be filtered
+	 */
+	public int getNrofQueuedMessages() {
+		int result = 0;
+		for (Stage stage : stages) {
+			result += stage.input.size();
+		}
+		return result;
+	}
+
+
+	/**
+	 * @return the number of runtime exceptions thrown by filters or the receiver
+	 */
+	public long getNrofFailures() {
+		return nrofFailures.get();
+	}
+
+
+	/**
+	 * @return the most recent runtime exception thrown by a filter or the receiver, or null
+	 */
+	public RuntimeException getLastException() {
+		return lastException;
+	}
+
+
+	/**
+	 * @return the number of stages
+	 */
+	public int getNrofStages() {
+		return stages.size();
+	}
+}
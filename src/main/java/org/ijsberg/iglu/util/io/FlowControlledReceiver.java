@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+/**
+ * Receiver that signals whether it is able to keep up with incoming messages,
+ * so that transmitters can slow down instead of overloading it.
+ *
+ * @see BackpressurePolicy
+ */
+public interface FlowControlledReceiver extends Receiver {
+	/**
+	 * @return true if the receiver is ready to accept more messages
+	 */
+	boolean hasDemand();
+
+	/**
+	 * Waits until the receiver is ready to accept more messages.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return true if the receiver accepts messages, false if the timeout expired
+	 * @throws InterruptedException
+	 */
+	boolean awaitDemand(long timeout) throws InterruptedException;
+}
@@ -21,13 +21,18 @@ package org.ijsberg.iglu.util.io;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
 
 /**
  * Forwards received messages to a transmitter.
  */
-public class Forwarder implements Receiver {
+public class Forwarder implements BatchReceiver {
 	private OutputStream outputStream;
 	private Transmitter outputTransmitter;
+	//created on first pooled buffer
+	private WritableByteChannel outputChannel;
 
 	public Forwarder(Transmitter outputTransmitter) {
 		this.outputTransmitter = outputTransmitter;
@@ -47,6 +52,12 @@ public class Forwarder implements Receiver {
 				if (message instanceof byte[]) {
 					outputStream.write((byte[]) message);
 				}
+				else if (message instanceof PooledByteBuffer) {
+					if (outputChannel == null) {
+						outputChannel = Channels.newChannel(outputStream);
+					}
+					((PooledByteBuffer) message).writeTo(outputChannel);
+				}
 				else {
 					outputStream.write(message.toString().getBytes());
 				}
@@ -57,6 +68,17 @@ public class Forwarder implements Receiver {
 		}
 	}
 
+	public void onReceiveBatch(List<?> messages) {
+		if (outputTransmitter instanceof BatchTransmitter) {
+			((BatchTransmitter) outputTransmitter).transmitBatch(messages);
+		}
+		else {
+			for (Object message : messages) {
+				onReceive(message);
+			}
+		}
+	}
+
 	public void onTransmissionClose() {
 		try {
 			outputStream.close();
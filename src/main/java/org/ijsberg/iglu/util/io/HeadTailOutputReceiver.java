@@ -0,0 +1,127 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Captures output in a fixed amount of memory by keeping only its first and last bytes.
+ * <p/>
+ * The head is filled first; subsequent output goes into a ring buffer that holds the tail.
+ * Output received as byte arrays or pooled buffers is copied directly, without decoding.
+ */
+public class HeadTailOutputReceiver implements Receiver {
+
+	private final byte[] head;
+	private int headLength;
+	private final byte[] tail;
+	//next write position in tail
+	private int tailPosition;
+	//total number of bytes that passed the tail
+	private long nrofTailBytes;
+	private long nrofBytesReceived;
+
+	/**
+	 * @param headSize number of bytes kept of the start of the output
+	 * @param tailSize number of bytes kept of the end of the output
+	 */
+	public HeadTailOutputReceiver(int headSize, int tailSize) {
+		if (headSize < 0 || tailSize < 0) {
+			throw new IllegalArgumentException("head size (" + headSize + ") and tail size (" + tailSize + ") may not be negative");
+		}
+		this.head = new byte[headSize];
+		this.tail = new byte[tailSize];
+	}
+
+	/**
+	 * @param message byte array, pooled buffer or object of which the string representation is captured
+	 */
+	public synchronized void onReceive(Object message) {
+		ByteBuffer data = BufferedCommandLineOutputReceiver.getBytesFromCommandLineInput(message);
+		nrofBytesReceived += data.remaining();
+
+		int count = Math.min(head.length - headLength, data.remaining());
+		data.get(head, headLength, count);
+		headLength += count;
+
+		if (data.remaining() > tail.length) {
+			//skip what would be overwritten anyway
+			int skipped = data.remaining() - tail.length;
+			data.position(data.position() + skipped);
+			nrofTailBytes += skipped;
+		}
+		while (data.hasRemaining()) {
+			count = Math.min(tail.length - tailPosition, data.remaining());
+			data.get(tail, tailPosition, count);
+			tailPosition = (tailPosition + count) % tail.length;
+			nrofTailBytes += count;
+		}
+	}
+
+	public void onTransmissionClose() {
+	}
+
+	/**
+	 * @return the first bytes received
+	 */
+	public synchronized byte[] getHead() {
+		return Arrays.copyOf(head, headLength);
+	}
+
+	/**
+	 * @return the last bytes received that are not part of the head
+	 */
+	public synchronized byte[] getTail() {
+		if (nrofTailBytes < tail.length) {
+			return Arrays.copyOf(tail, (int) nrofTailBytes);
+		}
+		byte[] result = new byte[tail.length];
+		System.arraycopy(tail, tailPosition, result, 0, tail.length - tailPosition);
+		System.arraycopy(tail, 0, result, tail.length - tailPosition, tailPosition);
+		return result;
+	}
+
+	/**
+	 * @return the total number of bytes received
+	 */
+	public synchronized long getNrofBytesReceived() {
+		return nrofBytesReceived;
+	}
+
+	/**
+	 * @return the number of bytes received that are neither in head nor tail
+	 */
+	public synchronized long getNrofBytesOmitted() {
+		return nrofTailBytes - Math.min(nrofTailBytes, tail.length);
+	}
+
+	/**
+	 * @return head and tail, separated by a notice if output has been omitted
+	 */
+	public synchronized String getOutput() {
+		long nrofBytesOmitted = getNrofBytesOmitted();
+		return new String(getHead()) + (nrofBytesOmitted > 0 ? "\n[... " + nrofBytesOmitted + " bytes omitted ...]\n" : "") + new String(getTail());
+	}
+
+	public String toString() {
+		return getOutput();
+	}
+}
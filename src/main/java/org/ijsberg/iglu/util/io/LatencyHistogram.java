@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations in buckets of increasing powers of 2 nanoseconds.
+ * Recording is cheap and does not contend between threads; percentiles are
+ * approximated by the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+
+	private static final int NROF_BUCKETS = 64;
+
+	private final LongAdder[] buckets = new LongAdder[NROF_BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 *
+	 */
+	public LatencyHistogram() {
+		for (int i = 0; i < NROF_BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @param nanos duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		//bucket i holds durations up to 2^i - 1 ns
+		buckets[Math.min(NROF_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	/**
+	 * @return number of recorded durations
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return average duration in nanoseconds
+	 */
+	public long getMeanNanos() {
+		long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / n;
+	}
+
+	/**
+	 * @return longest recorded duration in nanoseconds
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * @param percentile a value between 0 and 100
+	 * @return approximate duration in nanoseconds below which the given percentage of durations fall
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] counts = new long[NROF_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < NROF_BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long threshold = (long) Math.ceil(total * percentile / 100.0);
+		long cumulative = 0;
+		for (int i = 0; i < NROF_BUCKETS; i++) {
+			cumulative += counts[i];
+			if (cumulative >= threshold && counts[i] > 0) {
+				return Math.min(i == 0 ? 0 : (1L << i) - 1, getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+	/**
+	 * Clears all recorded durations.
+	 */
+	public void reset() {
+		for (LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+	}
+}
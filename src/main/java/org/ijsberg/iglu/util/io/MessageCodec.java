@@ -0,0 +1,41 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.io.IOException;
+
+/**
+ * Converts messages to and from bytes, for instance to store them outside the heap.
+ */
+public interface MessageCodec {
+	/**
+	 * @param message
+	 * @return serialized message
+	 * @throws IOException if the message can not be serialized
+	 */
+	byte[] encode(Object message) throws IOException;
+
+	/**
+	 * @param bytes
+	 * @return the message
+	 * @throws IOException if the bytes can not be deserialized
+	 */
+	Object decode(byte[] bytes) throws IOException;
+}
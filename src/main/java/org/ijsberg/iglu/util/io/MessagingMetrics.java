@@ -0,0 +1,203 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects throughput, drop, depth and latency figures of channels, pipes, queues and transponders.
+ * <p/>
+ * Counters are striped, so that instrumenting a component shared by many threads
+ * does not introduce contention. One instance may be shared by several components
+ * to obtain aggregated figures.
+ *
+ * @see BasicChannel#setMetrics(MessagingMetrics)
+ * @see ReceiverQueue#setMetrics(MessagingMetrics)
+ */
+public class MessagingMetrics implements MessagingMetricsMBean {
+
+	private final LongAdder messagesIn = new LongAdder();
+	private final LongAdder messagesOut = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder drops = new LongAdder();
+	private final LongAccumulator highWaterMark = new LongAccumulator(Math::max, 0);
+	private volatile int queueDepth;
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * @param message
+	 */
+	public void recordIn(Object message) {
+		messagesIn.increment();
+		long size = sizeOf(message);
+		if (size > 0) {
+			bytesIn.add(size);
+		}
+	}
+
+	/**
+	 * @param message
+	 */
+	public void recordOut(Object message) {
+		messagesOut.increment();
+		long size = sizeOf(message);
+		if (size > 0) {
+			bytesOut.add(size);
+		}
+	}
+
+	/**
+	 * Records a discarded or rejected message.
+	 */
+	public void recordDrop() {
+		drops.increment();
+	}
+
+	/**
+	 * @param depth current number of queued messages
+	 */
+	public void recordDepth(int depth) {
+		queueDepth = depth;
+		highWaterMark.accumulate(depth);
+	}
+
+	/**
+	 * @param nanos time between enqueueing and dequeueing a message
+	 */
+	public void recordLatency(long nanos) {
+		latency.record(nanos);
+	}
+
+	private static long sizeOf(Object message) {
+		if (message instanceof byte[]) {
+			return ((byte[]) message).length;
+		}
+		if (message instanceof PooledByteBuffer) {
+			return ((PooledByteBuffer) message).size();
+		}
+		return 0;
+	}
+
+	public long getMessagesIn() {
+		return messagesIn.sum();
+	}
+
+	public long getMessagesOut() {
+		return messagesOut.sum();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+
+	public long getDrops() {
+		return drops.sum();
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public int getHighWaterMark() {
+		return (int) highWaterMark.get();
+	}
+
+	/**
+	 * @return enqueue-to-dequeue latencies
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public long getLatencyCount() {
+		return latency.getCount();
+	}
+
+	public long getLatencyMeanMicros() {
+		return latency.getMeanNanos() / 1000;
+	}
+
+	public long getLatencyP50Micros() {
+		return latency.getPercentileNanos(50) / 1000;
+	}
+
+	public long getLatencyP99Micros() {
+		return latency.getPercentileNanos(99) / 1000;
+	}
+
+	public long getLatencyP999Micros() {
+		return latency.getPercentileNanos(99.9) / 1000;
+	}
+
+	public long getLatencyMaxMicros() {
+		return latency.getMaxNanos() / 1000;
+	}
+
+	/**
+	 * Clears all figures.
+	 */
+	public void reset() {
+		messagesIn.reset();
+		messagesOut.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+		drops.reset();
+		highWaterMark.reset();
+		latency.reset();
+	}
+
+	/**
+	 * Exposes these metrics through the platform MBean server.
+	 *
+	 * @param name object name, e.g. "org.ijsberg.iglu:type=Channel,name=events"
+	 * @return the registered object name
+	 * @throws JMException
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(name);
+		server.registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * @param objectName
+	 * @throws JMException
+	 */
+	public static void unregisterMBean(ObjectName objectName) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+	}
+
+	public String toString() {
+		return "in: " + getMessagesIn() + " (" + getBytesIn() + " bytes), out: " + getMessagesOut() + " (" + getBytesOut() +
+				" bytes), dropped: " + getDrops() + ", depth: " + getQueueDepth() + " (max " + getHighWaterMark() +
+				"), latency p50/p99/max: " + getLatencyP50Micros() + "/" + getLatencyP99Micros() + "/" + getLatencyMaxMicros() + " us";
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.util.Arrays;
+
+/**
+ * Replaces "\r\n", "\r" and "\n" in a byte stream by a single line separator.
+ * <p/>
+ * Bytes are normalized as they are, without decoding them to characters, which is correct for
+ * ASCII-compatible encodings such as UTF-8 and ISO-8859-x.
+ * The normalizer keeps state across chunks, so a "\r\n" pair that is split over two
+ * chunks is recognized as one line separator. An instance must therefore only be used for one
+ * stream at a time and is not thread-safe.
+ *
+ * @see NewLineNormalizingOutputStream
+ */
+public class NewLineNormalizer implements Filter<byte[]> {
+
+	public static final byte[] CRLF = {'\r', '\n'};
+	public static final byte[] LF = {'\n'};
+
+	private final byte[] lineSeparator;
+	private final boolean crlf;
+	private final boolean lf;
+	//reused for all chunks, grows if needed
+	private byte[] buffer = new byte[0];
+	//true if the last byte processed was a CR
+	private boolean afterCarriageReturn;
+
+	/**
+	 * Creates a normalizer that produces "\r\n".
+	 */
+	public NewLineNormalizer() {
+		this(CRLF);
+	}
+
+	/**
+	 * @param lineSeparator bytes that replace every line separator found
+	 */
+	public NewLineNormalizer(byte[] lineSeparator) {
+		if (lineSeparator == null || lineSeparator.length == 0) {
+			throw new IllegalArgumentException("line separator may not be empty");
+		}
+		this.lineSeparator = lineSeparator.clone();
+		this.crlf = Arrays.equals(lineSeparator, CRLF);
+		this.lf = Arrays.equals(lineSeparator, LF);
+	}
+
+	/**
+	 * @param input chunk of a stream
+	 * @return the input itself if it needs no normalization, otherwise a normalized copy
+	 */
+	public byte[] filter(byte[] input) {
+		if (isNormalized(input)) {
+			if (input.length > 0) {
+				afterCarriageReturn = false;
+			}
+			return input;
+		}
+		int length = normalize(input, 0, input.length);
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Normalizes a chunk of a stream into an internal buffer, which is reused by subsequent invocations.
+	 *
+	 * @param input
+	 * @param offset
+	 * @param length
+	 * @return the number of normalized bytes available in {@link #getBuffer()}
+	 */
+	public int normalize(byte[] input, int offset, int length) {
+		int maxLength = length * lineSeparator.length;
+		if (buffer.length < maxLength) {
+			buffer = new byte[Math.max(maxLength, buffer.length * 2)];
+		}
+		int count = 0;
+		for (int i = offset; i < offset + length; i++) {
+			byte b = input[i];
+			if (b == '\r') {
+				count = appendLineSeparator(count);
+				afterCarriageReturn = true;
+			}
+			else {
+				if (b == '\n') {
+					if (!afterCarriageReturn) {
+						count = appendLineSeparator(count);
+					}
+				}
+				else {
+					buffer[count++] = b;
+				}
+				afterCarriageReturn = false;
+			}
+		}
+		return count;
+	}
+
+	private int appendLineSeparator(int count) {
+		for (byte b : lineSeparator) {
+			buffer[count++] = b;
+		}
+		return count;
+	}
+
+	/**
+	 * Checks if a chunk already contains nothing but the desired line separators.
+	 */
+	private boolean isNormalized(byte[] input) {
+		if (input.length == 0) {
+			return true;
+		}
+		if (afterCarriageReturn && input[0] == '\n') {
+			//must be skipped, the separator has been produced already
+			return false;
+		}
+		for (int i = 0; i < input.length; i++) {
+			byte b = input[i];
+			if (b == '\r') {
+				if (!crlf || i + 1 == input.length || input[i + 1] != '\n') {
+					return false;
+				}
+				i++;
+			}
+			else if (b == '\n' && !lf) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return buffer containing the output of the last invocation of {@link #normalize(byte[], int, int)}
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Forgets state of a previous stream.
+	 */
+	public void reset() {
+		afterCarriageReturn = false;
+	}
+}
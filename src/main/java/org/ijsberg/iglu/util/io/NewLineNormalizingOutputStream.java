@@ -0,0 +1,65 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Replaces "\r\n", "\r" and "\n" by a single line separator while writing.
+ *
+ * @see NewLineNormalizer
+ */
+public class NewLineNormalizingOutputStream extends FilterOutputStream {
+
+	private final NewLineNormalizer normalizer;
+	private final byte[] singleByte = new byte[1];
+
+	/**
+	 * Creates a stream that produces "\r\n".
+	 *
+	 * @param out
+	 */
+	public NewLineNormalizingOutputStream(OutputStream out) {
+		this(out, NewLineNormalizer.CRLF);
+	}
+
+	/**
+	 * @param out
+	 * @param lineSeparator bytes that replace every line separator found
+	 */
+	public NewLineNormalizingOutputStream(OutputStream out, byte[] lineSeparator) {
+		super(out);
+		this.normalizer = new NewLineNormalizer(lineSeparator);
+	}
+
+	public void write(int b) throws IOException {
+		singleByte[0] = (byte) b;
+		write(singleByte, 0, 1);
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		int count = normalizer.normalize(b, off, len);
+		if (count > 0) {
+			out.write(normalizer.getBuffer(), 0, count);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+/**
+ * Determines what a bounded queue does with a message that arrives while it is full.
+ */
+public enum OverflowPolicy {
+	/**
+	 * The oldest queued message is discarded to make room.
+	 */
+	DROP_OLDEST,
+	/**
+	 * The arriving message is discarded.
+	 */
+	DROP_NEWEST,
+	/**
+	 * The producer waits until room becomes available or the queue is closed.
+	 */
+	BLOCK,
+	/**
+	 * An IllegalStateException is thrown to the producer.
+	 */
+	FAIL
+}
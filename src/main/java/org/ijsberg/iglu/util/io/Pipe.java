@@ -19,13 +19,23 @@
 
 package org.ijsberg.iglu.util.io;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Transmits objects to a specific receiver.
+ * <p/>
+ * A filter receives a {@link PooledByteBuffer} as a copy in a byte array, since filters
+ * work on plain data and the buffer is released after transmission.
  */
-public class Pipe implements Transmitter {
+public class Pipe implements BatchTransmitter {
 	private Receiver receiver;
 	private Filter<Object> filter;
 	private boolean isClosed;
+	private BackpressurePolicy backpressurePolicy = BackpressurePolicy.IGNORE;
+	private long backpressureTimeout;
+	//instrumentation is disabled by default
+	private MessagingMetrics metrics;
 
 
 	/**
@@ -56,21 +66,113 @@ public class Pipe implements Transmitter {
 		this.filter = (Filter<Object>)filter;
 	}
 
+	/**
+	 * Determines how transmission deals with a receiver that can not keep up.
+	 * By default, demand signalled by a {@link FlowControlledReceiver} is ignored.
+	 *
+	 * @param policy
+	 * @param timeout maximum time in milliseconds to wait for demand if the policy is BLOCK, 0 means wait indefinitely
+	 */
+	public void setBackpressurePolicy(BackpressurePolicy policy, long timeout) {
+		if (policy == null) {
+			throw new IllegalArgumentException("backpressure policy may not be null");
+		}
+		this.backpressurePolicy = policy;
+		this.backpressureTimeout = timeout;
+	}
+
 	/**
 	 * @param object
+	 * @throws TransmissionRejectedException if the receiver can not keep up and the backpressure policy does not allow waiting
 	 */
 	public void transmit(Object object) {
 		if (isClosed) {
 			throw new IllegalStateException("pipe is closed");
 		}
+		if (metrics != null) {
+			metrics.recordIn(object);
+		}
+		awaitDemand();
+		Object output = filter != null ? applyFilter(object) : object;
+		receiver.onReceive(output);
+		if (metrics != null) {
+			metrics.recordOut(output);
+		}
+	}
+
+	/**
+	 * Transmits objects to the receiver in one call if the receiver supports it.
+	 *
+	 * @param objects
+	 */
+	public void transmitBatch(List<?> objects) {
+		if (isClosed) {
+			throw new IllegalStateException("pipe is closed");
+		}
+		if (metrics != null) {
+			for (Object object : objects) {
+				metrics.recordIn(object);
+			}
+		}
+		awaitDemand();
+		List<?> output = objects;
 		if (filter != null) {
-			receiver.onReceive(filter.filter(object));
+			List<Object> filtered = new ArrayList<Object>(objects.size());
+			for (Object object : objects) {
+				filtered.add(applyFilter(object));
+			}
+			output = filtered;
+		}
+		if (receiver instanceof BatchReceiver) {
+			((BatchReceiver) receiver).onReceiveBatch(output);
 		}
 		else {
-			receiver.onReceive(object);
+			for (Object object : output) {
+				receiver.onReceive(object);
+			}
+		}
+		if (metrics != null) {
+			for (Object object : output) {
+				metrics.recordOut(object);
+			}
+		}
+	}
+
+	private Object applyFilter(Object object) {
+		if (object instanceof PooledByteBuffer) {
+			object = ((PooledByteBuffer) object).toByteArray();
+		}
+		return filter.filter(object);
+	}
+
+	private void awaitDemand() {
+		try {
+			backpressurePolicy.awaitDemand(receiver, backpressureTimeout);
+		}
+		catch (TransmissionRejectedException e) {
+			if (metrics != null) {
+				metrics.recordDrop();
+			}
+			throw e;
 		}
 	}
 
+	/**
+	 * Enables instrumentation of this pipe.
+	 *
+	 * @param metrics metrics to update or null to disable instrumentation
+	 */
+	public void setMetrics(MessagingMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return metrics or null if instrumentation is disabled
+	 */
+	public MessagingMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * @param receiver
 	 */
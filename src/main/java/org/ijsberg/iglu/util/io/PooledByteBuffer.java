@@ -0,0 +1,159 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted chunk of bytes borrowed from a {@link ByteBufferPool}.
+ * <p/>
+ * A transmitter releases its reference once a message has been delivered.
+ * Receivers that hold on to the message beyond the call to onReceive, for instance by queueing it,
+ * must invoke retain() and release it when done.
+ * <p/>
+ * The queues in this package do so. A reader that takes a buffer from a queue takes over
+ * the queue's reference and should release it when done. A buffer that is never released
+ * is left to the garbage collector instead of being reused.
+ */
+public class PooledByteBuffer {
+
+	private final ByteBufferPool pool;
+	private final ByteBuffer buffer;
+	private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+	PooledByteBuffer(ByteBufferPool pool, ByteBuffer buffer) {
+		this.pool = pool;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return the underlying buffer for filling by the owner
+	 */
+	ByteBuffer getWritableBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return a view on the contents with its own position and limit
+	 */
+	public ByteBuffer getBuffer() {
+		checkReferenced();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return number of bytes contained
+	 */
+	public int size() {
+		return buffer.remaining();
+	}
+
+	/**
+	 * Copies the contents.
+	 *
+	 * @return a new array containing the contents
+	 */
+	public byte[] toByteArray() {
+		byte[] result = new byte[size()];
+		getBuffer().get(result);
+		return result;
+	}
+
+	/**
+	 * Writes the contents without changing the state of this buffer.
+	 *
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer view = getBuffer();
+		while (view.hasRemaining()) {
+			channel.write(view);
+		}
+	}
+
+	/**
+	 * Adds a reference.
+	 *
+	 * @return this buffer for convenience
+	 */
+	public PooledByteBuffer retain() {
+		while (true) {
+			int count = referenceCount.get();
+			if (count <= 0) {
+				throw new IllegalStateException("buffer has already been released");
+			}
+			if (referenceCount.compareAndSet(count, count + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/**
+	 * Removes a reference. The buffer returns to its pool once the last reference is released.
+	 */
+	public void release() {
+		int count = referenceCount.decrementAndGet();
+		if (count == 0) {
+			pool.recycle(buffer);
+		}
+		else if (count < 0) {
+			throw new IllegalStateException("buffer has already been released");
+		}
+	}
+
+	/**
+	 * @return current number of references
+	 */
+	public int getReferenceCount() {
+		return referenceCount.get();
+	}
+
+	/**
+	 * Adds a reference if the message is a pooled buffer.
+	 *
+	 * @param message message that is about to be kept beyond the call to onReceive
+	 */
+	static void retainIfPooled(Object message) {
+		if (message instanceof PooledByteBuffer) {
+			((PooledByteBuffer) message).retain();
+		}
+	}
+
+	/**
+	 * Removes a reference if the message is a pooled buffer.
+	 *
+	 * @param message message that is no longer kept
+	 */
+	static void releaseIfPooled(Object message) {
+		if (message instanceof PooledByteBuffer) {
+			((PooledByteBuffer) message).release();
+		}
+	}
+
+	private void checkReferenced() {
+		if (referenceCount.get() <= 0) {
+			throw new IllegalStateException("buffer has already been released");
+		}
+	}
+}
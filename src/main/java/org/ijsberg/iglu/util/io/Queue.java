@@ -19,6 +19,8 @@
 
 package org.ijsberg.iglu.util.io;
 
+import java.util.Collection;
+
 /**
  * Object queue.
  */
@@ -30,6 +32,24 @@ public interface Queue {
 	 */
 	Object read();
 
+	/**
+	 * Reads (and removes) a number of objects at once.
+	 * Implementations should override this to avoid reading objects one by one.
+	 *
+	 * @param target collection the objects are added to
+	 * @param maxNrofObjects maximum number of objects to read
+	 * @return the number of objects read
+	 */
+	default int drainTo(Collection<Object> target, int maxNrofObjects) {
+		int count = 0;
+		Object object;
+		while (count < maxNrofObjects && (object = read()) != null) {
+			target.add(object);
+			count++;
+		}
+		return count;
+	}
+
 	/**
 	 * @return the number of objects queued
 	 */
@@ -19,17 +19,29 @@
 
 package org.ijsberg.iglu.util.io;
 
+import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * A message queue which receives objects from a transmitter.
  *
  * @see BasicChannel
  */
-public class ReceiverQueue implements Receiver, Queue {
+public class ReceiverQueue implements BatchReceiver, FlowControlledReceiver, AwaitableQueue {
 	private LinkedList queue = new LinkedList();
 	private int limit;//unlimited queue size by default
-	private boolean closed;
+	private volatile boolean closed;
+	//backpressure is disabled by default
+	private int highWatermark;
+	private int lowWatermark;
+	private WatermarkListener watermarkListener;
+	//true between reaching the high watermark and dropping back to the low watermark
+	private boolean saturated;
+	//instrumentation is disabled by default
+	private MessagingMetrics metrics;
+	//enqueue times of queued objects, maintained if metrics are enabled
+	private TimestampQueue enqueueTimes;
 
 	/**
 	 * Constructs a receiver with an unlimited queue size.
@@ -47,6 +59,26 @@ public class ReceiverQueue implements Receiver, Queue {
 		this.limit = limit;
 	}
 
+	/**
+	 * Enables backpressure: the queue stops signalling demand once it holds
+	 * <emph>highWatermark</emph> objects and resumes when it has been read down to
+	 * <emph>lowWatermark</emph> objects.
+	 *
+	 * @param lowWatermark
+	 * @param highWatermark
+	 * @param listener optional listener that is notified when watermarks are crossed
+	 */
+	public void setWatermarks(int lowWatermark, int highWatermark, WatermarkListener listener) {
+		if (highWatermark <= 0 || lowWatermark < 0 || lowWatermark >= highWatermark) {
+			throw new IllegalArgumentException("watermarks must satisfy 0 <= low < high");
+		}
+		synchronized (queue) {
+			this.lowWatermark = lowWatermark;
+			this.highWatermark = highWatermark;
+			this.watermarkListener = listener;
+		}
+	}
+
 	/**
 	 * Receives an object from a channel.
 	 *
@@ -54,11 +86,178 @@ public class ReceiverQueue implements Receiver, Queue {
 	 */
 	public void onReceive(Object object) {
 		if (!closed && object != null) {
+			boolean highWatermarkReached;
 			synchronized (queue) {
-				queue.addLast(object);
+				append(object);
 				if (limit > 0 && queue.size() > limit && !queue.isEmpty()) {
-					queue.removeFirst();
+					dropFirst();
+				}
+				if (metrics != null) {
+					metrics.recordDepth(queue.size());
 				}
+				highWatermarkReached = checkHighWatermark();
+				queue.notifyAll();
+			}
+			if (highWatermarkReached) {
+				watermarkListener.onHighWatermark(this);
+			}
+		}
+	}
+
+	/**
+	 * Enables instrumentation of this queue.
+	 *
+	 * @param metrics metrics to update or null to disable instrumentation
+	 */
+	public void setMetrics(MessagingMetrics metrics) {
+		synchronized (queue) {
+			this.metrics = metrics;
+			if (metrics != null) {
+				enqueueTimes = new TimestampQueue();
+				long now = System.nanoTime();
+				for (int i = 0; i < queue.size(); i++) {
+					enqueueTimes.add(now);
+				}
+				metrics.recordDepth(queue.size());
+			}
+			else {
+				enqueueTimes = null;
+			}
+		}
+	}
+
+	/**
+	 * @return metrics or null if instrumentation is disabled
+	 */
+	public MessagingMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Must be invoked while holding the queue lock.
+	 */
+	private void append(Object object) {
+		PooledByteBuffer.retainIfPooled(object);
+		queue.addLast(object);
+		if (metrics != null) {
+			enqueueTimes.add(System.nanoTime());
+			metrics.recordIn(object);
+		}
+	}
+
+	/**
+	 * Must be invoked while holding the queue lock.
+	 */
+	private Object takeFirst() {
+		Object object = queue.removeFirst();
+		if (metrics != null) {
+			metrics.recordLatency(System.nanoTime() - enqueueTimes.removeFirst());
+			metrics.recordOut(object);
+			metrics.recordDepth(queue.size());
+		}
+		return object;
+	}
+
+	/**
+	 * Must be invoked while holding the queue lock.
+	 */
+	private void dropFirst() {
+		PooledByteBuffer.releaseIfPooled(queue.removeFirst());
+		if (metrics != null) {
+			enqueueTimes.removeFirst();
+			metrics.recordDrop();
+		}
+	}
+
+	/**
+	 * Must be invoked while holding the queue lock.
+	 *
+	 * @return true if a listener must be notified of reaching the high watermark
+	 */
+	private boolean checkHighWatermark() {
+		if (highWatermark > 0 && !saturated && queue.size() >= highWatermark) {
+			saturated = true;
+			return watermarkListener != null;
+		}
+		return false;
+	}
+
+	/**
+	 * Must be invoked while holding the queue lock.
+	 *
+	 * @return true if a listener must be notified of reaching the low watermark
+	 */
+	private boolean checkLowWatermark() {
+		if (saturated && queue.size() <= lowWatermark) {
+			saturated = false;
+			//wake up waiting producers
+			queue.notifyAll();
+			return watermarkListener != null;
+		}
+		return false;
+	}
+
+	/**
+	 * @return false if the queue holds more objects than the high watermark allows
+	 */
+	public boolean hasDemand() {
+		synchronized (queue) {
+			return !saturated || closed;
+		}
+	}
+
+	/**
+	 * Waits until the queue has been read down to its low watermark.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return true if the queue accepts objects again
+	 * @throws InterruptedException
+	 */
+	public boolean awaitDemand(long timeout) throws InterruptedException {
+		synchronized (queue) {
+			long deadline = System.currentTimeMillis() + timeout;
+			while (saturated && !closed) {
+				if (timeout <= 0) {
+					queue.wait();
+				}
+				else {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						break;
+					}
+					queue.wait(remaining);
+				}
+			}
+			return !saturated || closed;
+		}
+	}
+
+
+	/**
+	 * Receives a number of objects from a channel at once.
+	 *
+	 * @param objects
+	 */
+	public void onReceiveBatch(List<?> objects) {
+		if (!closed) {
+			boolean highWatermarkReached;
+			synchronized (queue) {
+				for (Object object : objects) {
+					if (object != null) {
+						append(object);
+					}
+				}
+				while (limit > 0 && queue.size() > limit) {
+					dropFirst();
+				}
+				if (metrics != null) {
+					metrics.recordDepth(queue.size());
+				}
+				highWatermarkReached = checkHighWatermark();
+				queue.notifyAll();
+			}
+			if (highWatermarkReached) {
+				watermarkListener.onHighWatermark(this);
 			}
 		}
 	}
@@ -70,12 +269,93 @@ public class ReceiverQueue implements Receiver, Queue {
 	 * @return the first object from the queue.
 	 */
 	public Object read() {
+		Object object = null;
+		boolean lowWatermarkReached = false;
 		synchronized (queue) {
 			if (!queue.isEmpty()) {
-				return queue.removeFirst();
+				object = takeFirst();
+				lowWatermarkReached = checkLowWatermark();
+			}
+		}
+		if (lowWatermarkReached) {
+			watermarkListener.onLowWatermark(this);
+		}
+		return object;
+	}
+
+
+	/**
+	 * Retrieves and removes a number of objects from the queue in one go.
+	 *
+	 * @param target collection the objects are added to
+	 * @param maxNrofObjects maximum number of objects to read
+	 * @return the number of objects read
+	 */
+	public int drainTo(Collection<Object> target, int maxNrofObjects) {
+		int count = 0;
+		boolean lowWatermarkReached;
+		synchronized (queue) {
+			while (count < maxNrofObjects && !queue.isEmpty()) {
+				target.add(takeFirst());
+				count++;
+			}
+			lowWatermarkReached = checkLowWatermark();
+		}
+		if (lowWatermarkReached) {
+			watermarkListener.onLowWatermark(this);
+		}
+		return count;
+	}
+
+
+	/**
+	 * Waits until objects are available or the queue is closed.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return true if objects are available
+	 * @throws InterruptedException
+	 */
+	public boolean awaitAvailable(long timeout) throws InterruptedException {
+		synchronized (queue) {
+			long deadline = System.currentTimeMillis() + timeout;
+			while (queue.isEmpty() && !closed) {
+				if (timeout <= 0) {
+					queue.wait();
+				}
+				else {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						break;
+					}
+					queue.wait(remaining);
+				}
+			}
+			return !queue.isEmpty();
+		}
+	}
+
+
+	/**
+	 * Retrieves and removes the first object from the queue, waiting if necessary.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return the first object from the queue or null if the timeout expired or the queue is closed
+	 * @throws InterruptedException
+	 */
+	public Object read(long timeout) throws InterruptedException {
+		Object object;
+		boolean lowWatermarkReached;
+		synchronized (queue) {
+			if (!awaitAvailable(timeout)) {
+				return null;
 			}
+			object = takeFirst();
+			lowWatermarkReached = checkLowWatermark();
 		}
-		return null;
+		if (lowWatermarkReached) {
+			watermarkListener.onLowWatermark(this);
+		}
+		return object;
 	}
 
 
@@ -92,6 +372,10 @@ public class ReceiverQueue implements Receiver, Queue {
 	 */
 	public void close() {
 		closed = true;
+		//wake up waiting readers and producers
+		synchronized (queue) {
+			queue.notifyAll();
+		}
 		//the receiver will eventually be removed from the channel
 	}
 
@@ -114,8 +398,20 @@ public class ReceiverQueue implements Receiver, Queue {
 	 * Clears the queue.
 	 */
 	public void clear() {
+		boolean lowWatermarkReached;
 		synchronized (queue) {
+			for (Object object : queue) {
+				PooledByteBuffer.releaseIfPooled(object);
+			}
 			queue.clear();
+			if (enqueueTimes != null) {
+				enqueueTimes.clear();
+				metrics.recordDepth(0);
+			}
+			lowWatermarkReached = checkLowWatermark();
+		}
+		if (lowWatermarkReached) {
+			watermarkListener.onLowWatermark(this);
 		}
 	}
 
@@ -141,4 +437,38 @@ public class ReceiverQueue implements Receiver, Queue {
 	public int getLimit() {
 		return limit;
 	}
+
+	/**
+	 * Growable circular array of timestamps, which avoids boxing.
+	 */
+	private static class TimestampQueue {
+		private long[] timestamps = new long[16];
+		private int head;
+		private int size;
+
+		void add(long timestamp) {
+			if (size == timestamps.length) {
+				long[] grown = new long[size * 2];
+				for (int i = 0; i < size; i++) {
+					grown[i] = timestamps[(head + i) % timestamps.length];
+				}
+				timestamps = grown;
+				head = 0;
+			}
+			timestamps[(head + size) % timestamps.length] = timestamp;
+			size++;
+		}
+
+		long removeFirst() {
+			long timestamp = timestamps[head];
+			head = (head + 1) % timestamps.length;
+			size--;
+			return timestamp;
+		}
+
+		void clear() {
+			head = 0;
+			size = 0;
+		}
+	}
 }
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded message queue which receives objects from a transmitter without taking locks.
+ * <p/>
+ * Slots are allocated once at construction, so queueing and reading messages
+ * does not create garbage. Many threads may transmit to the queue concurrently,
+ * while it is meant to be read by a single consumer.
+ * The behaviour in case the queue is full is determined by an {@link OverflowPolicy}.
+ *
+ * @see ReceiverQueue
+ * @see BasicChannel
+ */
+public class RingBufferReceiverQueue implements BatchReceiver, AwaitableQueue {
+
+	public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_OLDEST;
+	private static final long BLOCK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final AtomicReferenceArray<Object> slots;
+	//a slot is writable for position p if its sequence equals 2p, readable if it equals 2p + 1
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private volatile boolean closed;
+	private volatile Thread waitingReader;
+	//instrumentation is disabled by default
+	private volatile MessagingMetrics metrics;
+	//enqueue time per slot, maintained if metrics are enabled
+	private volatile long[] enqueueTimes;
+
+	/**
+	 * Constructs a queue that discards the oldest message if capacity is exceeded.
+	 *
+	 * @param capacity maximum queue size
+	 */
+	public RingBufferReceiverQueue(int capacity) {
+		this(capacity, DEFAULT_OVERFLOW_POLICY);
+	}
+
+	/**
+	 * @param capacity maximum queue size
+	 * @param overflowPolicy determines what happens if a message arrives while the queue is full
+	 */
+	public RingBufferReceiverQueue(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be greater than 0");
+		}
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("overflow policy may not be null");
+		}
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.slots = new AtomicReferenceArray<Object>(capacity);
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, 2L * i);
+		}
+	}
+
+	/**
+	 * Receives an object from a channel.
+	 *
+	 * @param object
+	 * @throws IllegalStateException if the queue is full and the overflow policy is FAIL
+	 */
+	public void onReceive(Object object) {
+		if (closed || object == null) {
+			return;
+		}
+		MessagingMetrics metrics = this.metrics;
+		PooledByteBuffer.retainIfPooled(object);
+		while (!offer(object)) {
+			switch (overflowPolicy) {
+				case DROP_OLDEST:
+					PooledByteBuffer.releaseIfPooled(poll(true));
+					break;
+				case DROP_NEWEST:
+					PooledByteBuffer.releaseIfPooled(object);
+					if (metrics != null) {
+						metrics.recordDrop();
+					}
+					return;
+				case FAIL:
+					PooledByteBuffer.releaseIfPooled(object);
+					if (metrics != null) {
+						metrics.recordDrop();
+					}
+					throw new IllegalStateException("queue is full (" + capacity + ")");
+				case BLOCK:
+					LockSupport.parkNanos(this, BLOCK_WAIT_NANOS);
+					if (closed || Thread.currentThread().isInterrupted()) {
+						PooledByteBuffer.releaseIfPooled(object);
+						return;
+					}
+					break;
+			}
+		}
+		if (metrics != null) {
+			metrics.recordIn(object);
+			metrics.recordDepth(available());
+		}
+		wakeUpReader();
+	}
+
+	/**
+	 * Enables instrumentation of this queue.
+	 *
+	 * @param metrics metrics to update or null to disable instrumentation
+	 */
+	public void setMetrics(MessagingMetrics metrics) {
+		if (metrics != null) {
+			long[] times = new long[capacity];
+			Arrays.fill(times, System.nanoTime());
+			enqueueTimes = times;
+		}
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return metrics or null if instrumentation is disabled
+	 */
+	public MessagingMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Receives a number of objects from a channel at once.
+	 *
+	 * @param objects
+	 * @throws IllegalStateException if the queue is full and the overflow policy is FAIL
+	 */
+	public void onReceiveBatch(List<?> objects) {
+		for (Object object : objects) {
+			onReceive(object);
+		}
+	}
+
+	private void wakeUpReader() {
+		Thread reader = waitingReader;
+		if (reader != null) {
+			LockSupport.unpark(reader);
+		}
+	}
+
+	/**
+	 * @param object
+	 * @return false if the queue is full
+	 */
+	private boolean offer(Object object) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) (position % capacity);
+			long difference = sequences.get(index) - 2 * position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					long[] times = enqueueTimes;
+					if (times != null) {
+						times[index] = System.nanoTime();
+					}
+					slots.set(index, object);
+					sequences.set(index, 2 * position + 1);
+					return true;
+				}
+			}
+			else if (difference < 0) {
+				return false;
+			}
+			//else another producer claimed the slot: retry
+		}
+	}
+
+	/**
+	 * @param discard true if the object is removed to make room rather than read
+	 * @return the first object or null if the queue is empty
+	 */
+	private Object poll(boolean discard) {
+		while (true) {
+			long position = head.get();
+			int index = (int) (position % capacity);
+			long difference = sequences.get(index) - (2 * position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					Object object = slots.get(index);
+					MessagingMetrics metrics = this.metrics;
+					if (metrics != null) {
+						if (discard) {
+							metrics.recordDrop();
+						}
+						else {
+							metrics.recordLatency(System.nanoTime() - enqueueTimes[index]);
+							metrics.recordOut(object);
+						}
+					}
+					slots.set(index, null);
+					sequences.set(index, 2 * (position + capacity));
+					return object;
+				}
+			}
+			else if (difference < 0) {
+				return null;
+			}
+			//else the slot was taken by a producer dropping the oldest message: retry
+		}
+	}
+
+	/**
+	 * Retrieves and removes the first object from the queue.
+	 *
+	 * @return the first object from the queue or null if the queue is empty
+	 */
+	public Object read() {
+		return poll(false);
+	}
+
+	/**
+	 * Retrieves and removes a number of objects from the queue in one go.
+	 *
+	 * @param target collection the objects are added to
+	 * @param maxNrofObjects maximum number of objects to read
+	 * @return the number of objects read
+	 */
+	public int drainTo(Collection<Object> target, int maxNrofObjects) {
+		int count = 0;
+		Object object;
+		while (count < maxNrofObjects && (object = poll(false)) != null) {
+			target.add(object);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Waits until objects are available or the queue is closed.
+	 * Only one reader is supposed to wait at a time.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return true if objects are available
+	 * @throws InterruptedException
+	 */
+	public boolean awaitAvailable(long timeout) throws InterruptedException {
+		if (available() > 0) {
+			return true;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		waitingReader = Thread.currentThread();
+		try {
+			while (available() == 0 && !closed) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				if (timeout <= 0) {
+					LockSupport.park(this);
+				}
+				else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						break;
+					}
+					LockSupport.parkNanos(this, remaining);
+				}
+			}
+		}
+		finally {
+			waitingReader = null;
+		}
+		return available() > 0;
+	}
+
+	/**
+	 * Retrieves and removes the first object from the queue, waiting if necessary.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return the first object from the queue or null if the timeout expired or the queue is closed
+	 * @throws InterruptedException
+	 */
+	public Object read(long timeout) throws InterruptedException {
+		if (awaitAvailable(timeout)) {
+			return poll(false);
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if there are more objects waiting on the queue.
+	 */
+	public boolean hasNext() {
+		return available() > 0;
+	}
+
+	/**
+	 * Closes the receiver (for incoming messages) but does <em>not</em> clear the queue.
+	 */
+	public void close() {
+		closed = true;
+		wakeUpReader();
+	}
+
+	/**
+	 * Queue is closed when transmission closes.
+	 */
+	public void onTransmissionClose() {
+		close();
+	}
+
+	/**
+	 * @return true if the receiver is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Clears the queue.
+	 */
+	public void clear() {
+		Object object;
+		while ((object = poll(true)) != null) {
+			PooledByteBuffer.releaseIfPooled(object);
+		}
+	}
+
+	/**
+	 * @return queue size
+	 */
+	public int getNrofQueuedMessages() {
+		return available();
+	}
+
+	/**
+	 * Slots claimed by a producer count only once the message is written,
+	 * so a single consumer that finds available() > 0 will read a message.
+	 *
+	 * @return queue size
+	 */
+	public int available() {
+		//read head first, so that a concurrent read can not make the result negative
+		long currentHead = head.get();
+		if (sequences.get((int) (currentHead % capacity)) != 2 * currentHead + 1) {
+			//empty, or the first slot is claimed but not yet published
+			return 0;
+		}
+		long size = tail.get() - currentHead;
+		return (int) Math.max(0, Math.min(size, capacity));
+	}
+
+	/**
+	 * @return maximum number of queued messages
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the behaviour in case the queue is full
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+}
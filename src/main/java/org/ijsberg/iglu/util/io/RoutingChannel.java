@@ -0,0 +1,410 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.ijsberg.iglu.util.logic.Expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Transmits messages to receivers that subscribed with an expression matching the tags of a message.
+ * <p/>
+ * Subscriptions are indexed by the statements that trigger their expression
+ * (see {@link Expression#getTriggerStatements()}), so that a transmission only evaluates subscriptions
+ * that may match one of its tags. Subscriptions that can not be indexed, such as "!debug",
+ * are evaluated for every message.
+ * <p/>
+ * The index is immutable and replaced whenever a subscription is added or removed.
+ * Messages can therefore be transmitted concurrently without locking.
+ */
+public class RoutingChannel implements Channel, Transmitter {
+	private static final String[] NO_TAGS = new String[0];
+	private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+	private volatile Index index = new Index(new HashMap<String, Subscription[]>(), NO_SUBSCRIPTIONS);
+	private final Object registryLock = new Object();
+	private long nextSubscriptionId;
+	//set if a transmission encountered a closed receiver
+	private volatile boolean cleanupRequired;
+	private String name;
+	private volatile boolean closed;
+
+
+	/**
+	 * Constructs a channel with a certain name.
+	 *
+	 * @param name name
+	 */
+	public RoutingChannel(String name) {
+		this.name = name;
+	}
+
+
+	/**
+	 * Messages that implement this interface are routed by their tags
+	 * if transmitted by {@link RoutingChannel#transmit(Object)}.
+	 */
+	public interface Tagged {
+		/**
+		 * @return tags that are matched against subscription expressions
+		 */
+		String[] getTags();
+	}
+
+
+	private static class Subscription {
+		private final long id;
+		private final Receiver receiver;
+		//null means match all
+		private final Expression expression;
+		//set if the receiver has more than one subscription
+		private volatile boolean shared;
+
+		private Subscription(long id, Receiver receiver, Expression expression) {
+			this.id = id;
+			this.receiver = receiver;
+			this.expression = expression;
+		}
+
+		private boolean matches(String[] tags) {
+			return expression == null || expression.match(tags);
+		}
+	}
+
+
+	private static class Index {
+		private final Map<String, Subscription[]> subscriptionsByStatement;
+		//subscriptions that are evaluated for every message
+		private final Subscription[] unindexed;
+
+		private Index(Map<String, Subscription[]> subscriptionsByStatement, Subscription[] unindexed) {
+			this.subscriptionsByStatement = subscriptionsByStatement;
+			this.unindexed = unindexed;
+		}
+	}
+
+
+	/**
+	 * Subscribes a receiver to all messages transmitted via this channel.
+	 *
+	 * @param receiver
+	 * @return the registered receiver for convenience or null if the channel is closed
+	 */
+	public Receiver registerReceiver(Receiver receiver) {
+		return subscribe(receiver, (Expression) null);
+	}
+
+
+	/**
+	 * Subscribes a receiver to messages of which the tags match a logical expression.
+	 *
+	 * @param receiver
+	 * @param expression expression such as "orders&(eu|us)"
+	 * @return the registered receiver for convenience or null if the channel is closed
+	 * @see Expression
+	 */
+	public Receiver subscribe(Receiver receiver, String expression) {
+		return subscribe(receiver, new Expression(expression));
+	}
+
+
+	/**
+	 * Subscribes a receiver to messages of which the tags match a logical expression.
+	 * A receiver may subscribe more than once; it receives a message once if any of its subscriptions match.
+	 *
+	 * @param receiver
+	 * @param expression expression or null to subscribe to all messages
+	 * @return the registered receiver for convenience or null if the channel is closed
+	 */
+	public Receiver subscribe(Receiver receiver, Expression expression) {
+		if (receiver == null) {
+			throw new IllegalArgumentException("receiver may not be null");
+		}
+		synchronized (registryLock) {
+			if (cleanupRequired) {
+				removeClosedReceivers();
+			}
+			if (closed) {
+				return null;
+			}
+			Subscription subscription = new Subscription(nextSubscriptionId++, receiver, expression);
+			Index current = index;
+			markShared(current, subscription);
+			Set<String> triggers = expression != null ? expression.getTriggerStatements() : null;
+			if (triggers == null) {
+				index = new Index(current.subscriptionsByStatement, append(current.unindexed, subscription));
+			}
+			else {
+				Map<String, Subscription[]> subscriptionsByStatement = new HashMap<String, Subscription[]>(current.subscriptionsByStatement);
+				for (String statement : triggers) {
+					Subscription[] subscriptions = subscriptionsByStatement.get(statement);
+					subscriptionsByStatement.put(statement, append(subscriptions != null ? subscriptions : NO_SUBSCRIPTIONS, subscription));
+				}
+				index = new Index(subscriptionsByStatement, current.unindexed);
+			}
+			return receiver;
+		}
+	}
+
+
+	private static void markShared(Index index, Subscription subscription) {
+		for (Subscription[] subscriptions : index.subscriptionsByStatement.values()) {
+			markShared(subscriptions, subscription);
+		}
+		markShared(index.unindexed, subscription);
+	}
+
+
+	private static void markShared(Subscription[] subscriptions, Subscription subscription) {
+		for (Subscription existing : subscriptions) {
+			if (existing.receiver == subscription.receiver) {
+				existing.shared = true;
+				subscription.shared = true;
+			}
+		}
+	}
+
+
+	private static Subscription[] append(Subscription[] subscriptions, Subscription subscription) {
+		Subscription[] extended = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+		extended[subscriptions.length] = subscription;
+		return extended;
+	}
+
+
+	/**
+	 * Removes all subscriptions of a receiver.
+	 *
+	 * @param receiver
+	 * @return true if the receiver was subscribed
+	 */
+	public boolean removeReceiver(Receiver receiver) {
+		synchronized (registryLock) {
+			return removeSubscriptions(receiver);
+		}
+	}
+
+
+	/**
+	 * Removes subscriptions of receivers that have been closed since they subscribed.
+	 */
+	public void removeClosedReceivers() {
+		synchronized (registryLock) {
+			cleanupRequired = false;
+			removeSubscriptions(null);
+		}
+	}
+
+
+	/**
+	 * @param receiver receiver to remove or null to remove closed receivers
+	 */
+	private boolean removeSubscriptions(Receiver receiver) {
+		Index current = index;
+		boolean removed = false;
+		Map<String, Subscription[]> subscriptionsByStatement = new HashMap<String, Subscription[]>();
+		for (Map.Entry<String, Subscription[]> entry : current.subscriptionsByStatement.entrySet()) {
+			Subscription[] remaining = retain(entry.getValue(), receiver);
+			removed |= remaining != entry.getValue();
+			if (remaining.length > 0) {
+				subscriptionsByStatement.put(entry.getKey(), remaining);
+			}
+		}
+		Subscription[] unindexed = retain(current.unindexed, receiver);
+		removed |= unindexed != current.unindexed;
+		if (removed) {
+			index = new Index(subscriptionsByStatement, unindexed);
+		}
+		return removed;
+	}
+
+
+	/**
+	 * @return the same array if nothing is removed
+	 */
+	private static Subscription[] retain(Subscription[] subscriptions, Receiver removedReceiver) {
+		ArrayList<Subscription> remaining = new ArrayList<Subscription>(subscriptions.length);
+		for (Subscription subscription : subscriptions) {
+			if (removedReceiver != null ? subscription.receiver != removedReceiver : !isClosed(subscription.receiver)) {
+				remaining.add(subscription);
+			}
+		}
+		if (remaining.size() == subscriptions.length) {
+			return subscriptions;
+		}
+		return remaining.toArray(NO_SUBSCRIPTIONS);
+	}
+
+
+	private static boolean isClosed(Receiver receiver) {
+		return receiver instanceof Queue && ((Queue) receiver).isClosed();
+	}
+
+
+	/**
+	 * Routes a message by its tags if it implements {@link Tagged}.
+	 * Otherwise, the message only reaches subscriptions that match in absence of tags.
+	 *
+	 * @param message
+	 */
+	public void transmit(Object message) {
+		transmit(message, message instanceof Tagged ? ((Tagged) message).getTags() : NO_TAGS);
+	}
+
+
+	/**
+	 * Delivers a message to every receiver with a subscription that matches the given tags.
+	 * Receivers receive messages in order of subscription.
+	 *
+	 * @param message
+	 * @param tags statements that are matched against subscription expressions
+	 * @return the number of receivers the message was delivered to
+	 */
+	public int transmit(Object message, String... tags) {
+		if (closed) {
+			return 0;
+		}
+		Index index = this.index;
+		Subscription[] candidates = index.unindexed;
+		for (String tag : tags) {
+			Subscription[] subscriptions = index.subscriptionsByStatement.get(tag);
+			if (subscriptions != null) {
+				candidates = candidates.length == 0 ? subscriptions : merge(candidates, subscriptions);
+			}
+		}
+		int nrofDeliveries = 0;
+		ArrayList<Receiver> delivered = null;
+		for (Subscription subscription : candidates) {
+			Receiver receiver = subscription.receiver;
+			if (!subscription.matches(tags)) {
+				continue;
+			}
+			if (isClosed(receiver)) {
+				cleanupRequired = true;
+				continue;
+			}
+			if (subscription.shared) {
+				//receivers with multiple subscriptions must not receive a message twice
+				if (delivered == null) {
+					delivered = new ArrayList<Receiver>(2);
+				}
+				else if (delivered.contains(receiver)) {
+					continue;
+				}
+				delivered.add(receiver);
+			}
+			receiver.onReceive(message);
+			nrofDeliveries++;
+		}
+		return nrofDeliveries;
+	}
+
+
+	/**
+	 * Merges two arrays ordered by subscription id, leaving out duplicates.
+	 */
+	private static Subscription[] merge(Subscription[] a, Subscription[] b) {
+		Subscription[] result = new Subscription[a.length + b.length];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i].id < b[j].id) {
+				result[k++] = a[i++];
+			}
+			else if (a[i].id > b[j].id) {
+				result[k++] = b[j++];
+			}
+			else {
+				result[k++] = a[i++];
+				j++;
+			}
+		}
+		while (i < a.length) {
+			result[k++] = a[i++];
+		}
+		while (j < b.length) {
+			result[k++] = b[j++];
+		}
+		return k == result.length ? result : Arrays.copyOf(result, k);
+	}
+
+
+	/**
+	 * @return the number of subscriptions that are evaluated for every message
+	 */
+	public int getNrofUnindexedSubscriptions() {
+		return index.unindexed.length;
+	}
+
+
+	/**
+	 * Closes the channel and all receivers.
+	 */
+	public void close() {
+		synchronized (registryLock) {
+			closed = true;
+			Index current = index;
+			ArrayList<Receiver> receivers = new ArrayList<Receiver>();
+			for (Subscription[] subscriptions : current.subscriptionsByStatement.values()) {
+				for (Subscription subscription : subscriptions) {
+					if (!receivers.contains(subscription.receiver)) {
+						receivers.add(subscription.receiver);
+					}
+				}
+			}
+			for (Subscription subscription : current.unindexed) {
+				if (!receivers.contains(subscription.receiver)) {
+					receivers.add(subscription.receiver);
+				}
+			}
+			for (Receiver r : receivers) {
+				r.onTransmissionClose();
+			}
+			index = new Index(new HashMap<String, Subscription[]>(), NO_SUBSCRIPTIONS);
+		}
+	}
+
+
+	/**
+	 * @return true if the channel is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+
+	/**
+	 * @return the name of the channel
+	 */
+	public String getName() {
+		return name;
+	}
+
+
+	public String toString() {
+		Index index = this.index;
+		return "RoutingChannel: " + name + " (" + index.subscriptionsByStatement.size() + " indexed statements, "
+				+ index.unindexed.length + " unindexed subscriptions)";
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Captures output in memory up to a limit and in a temporary file beyond that.
+ * <p/>
+ * The start position of every {@link #LINES_PER_INDEX_ENTRY}th line is indexed while output is received,
+ * so that any line can be read back by scanning only a few preceding lines.
+ * The index takes far less memory than the output, which matters for output that is spilled.
+ * Lines are separated by "\n"; a preceding "\r" is not part of a line.
+ * The temporary file is deleted by {@link #delete()} or on exit.
+ */
+public class SpillingOutputReceiver implements Receiver {
+
+	public static final int DEFAULT_MEMORY_LIMIT = 1024 * 1024;
+	public static final int LINES_PER_INDEX_ENTRY = 128;
+	private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+
+	private final int memoryLimit;
+	private final File spillDirectory;
+	//null once output is spilled
+	private byte[] memory = new byte[1024];
+	private File spillFile;
+	private FileChannel spillChannel;
+	private long size;
+	//start positions of every LINES_PER_INDEX_ENTRY-th line
+	private long[] lineOffsets = new long[64];
+	//number of lines started so far, including an empty last line
+	private int nrofLineStarts = 1;
+	private long lastLineStart;
+
+	/**
+	 * Spills to the default temporary directory beyond {@link #DEFAULT_MEMORY_LIMIT} bytes.
+	 */
+	public SpillingOutputReceiver() {
+		this(DEFAULT_MEMORY_LIMIT, null);
+	}
+
+	/**
+	 * @param memoryLimit maximum number of bytes kept in memory
+	 * @param spillDirectory directory for the temporary file or null for the default temporary directory
+	 */
+	public SpillingOutputReceiver(int memoryLimit, File spillDirectory) {
+		if (memoryLimit < 0) {
+			throw new IllegalArgumentException("memory limit (" + memoryLimit + ") may not be negative");
+		}
+		this.memoryLimit = memoryLimit;
+		this.spillDirectory = spillDirectory;
+	}
+
+	/**
+	 * @param message byte array, pooled buffer or object of which the string representation is captured
+	 */
+	public synchronized void onReceive(Object message) {
+		ByteBuffer data = BufferedCommandLineOutputReceiver.getBytesFromCommandLineInput(message);
+		indexLines(data);
+		int length = data.remaining();
+		try {
+			if (memory != null && size + length > memoryLimit) {
+				spill();
+			}
+			if (memory != null) {
+				if (size + length > memory.length) {
+					memory = Arrays.copyOf(memory, (int) Math.min(memoryLimit, Math.max(size + length, memory.length * 2L)));
+				}
+				data.get(memory, (int) size, length);
+			}
+			else {
+				while (data.hasRemaining()) {
+					spillChannel.write(data, size + length - data.remaining());
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("can not capture output in " + spillFile, e);
+		}
+		size += length;
+	}
+
+	private void indexLines(ByteBuffer data) {
+		for (int i = data.position(); i < data.limit(); i++) {
+			if (data.get(i) == '\n') {
+				lastLineStart = size + (i - data.position()) + 1;
+				if (nrofLineStarts % LINES_PER_INDEX_ENTRY == 0) {
+					int index = nrofLineStarts / LINES_PER_INDEX_ENTRY;
+					if (index == lineOffsets.length) {
+						lineOffsets = Arrays.copyOf(lineOffsets, lineOffsets.length * 2);
+					}
+					lineOffsets[index] = lastLineStart;
+				}
+				nrofLineStarts++;
+			}
+		}
+	}
+
+	private void spill() throws IOException {
+		spillFile = File.createTempFile("output", ".log", spillDirectory);
+		spillFile.deleteOnExit();
+		spillChannel = new RandomAccessFile(spillFile, "rw").getChannel();
+		ByteBuffer captured = ByteBuffer.wrap(memory, 0, (int) size);
+		while (captured.hasRemaining()) {
+			spillChannel.write(captured, captured.position());
+		}
+		memory = null;
+	}
+
+	public void onTransmissionClose() {
+	}
+
+	/**
+	 * @return the number of bytes captured
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return true if output exceeded the memory limit
+	 */
+	public synchronized boolean isSpilled() {
+		return memory == null;
+	}
+
+	/**
+	 * @return the number of lines captured, including an incomplete last line
+	 */
+	public synchronized int getNrofLines() {
+		return lastLineStart == size ? nrofLineStarts - 1 : nrofLineStarts;
+	}
+
+	/**
+	 * @param lineNr index of the line, starting at 0
+	 * @return line without separator
+	 */
+	public synchronized String getLine(int lineNr) {
+		if (lineNr < 0 || lineNr >= getNrofLines()) {
+			throw new IndexOutOfBoundsException("line " + lineNr + " does not exist, number of lines is " + getNrofLines());
+		}
+		long start = getLineStart(lineNr);
+		return readLine(start, findLineEnd(start));
+	}
+
+	private long getLineStart(int lineNr) {
+		long position = lineOffsets[lineNr / LINES_PER_INDEX_ENTRY];
+		for (int i = 0; i < lineNr % LINES_PER_INDEX_ENTRY; i++) {
+			position = findLineEnd(position) + 1;
+		}
+		return position;
+	}
+
+	/**
+	 * @return position of the line separator that ends the line or the size if the line is incomplete
+	 */
+	private long findLineEnd(long position) {
+		if (memory != null) {
+			while (position < size && memory[(int) position] != '\n') {
+				position++;
+			}
+			return position;
+		}
+		while (position < size) {
+			byte[] chunk = read(position, (int) Math.min(SCAN_BUFFER_SIZE, size - position));
+			for (int i = 0; i < chunk.length; i++) {
+				if (chunk[i] == '\n') {
+					return position + i;
+				}
+			}
+			position += chunk.length;
+		}
+		return size;
+	}
+
+	private String readLine(long start, long end) {
+		byte[] line = read(start, (int) (end - start));
+		int length = line.length > 0 && line[line.length - 1] == '\r' ? line.length - 1 : line.length;
+		return new String(line, 0, length);
+	}
+
+	/**
+	 * @param firstLineNr index of the first line, starting at 0
+	 * @param maxNrofLines
+	 * @return lines without separators
+	 */
+	public synchronized List<String> getLines(int firstLineNr, int maxNrofLines) {
+		int lastLineNr = Math.min(getNrofLines(), firstLineNr + maxNrofLines);
+		List<String> result = new ArrayList<String>(Math.max(0, lastLineNr - firstLineNr));
+		if (firstLineNr < 0 || firstLineNr >= lastLineNr) {
+			return result;
+		}
+		long start = getLineStart(firstLineNr);
+		for (int i = firstLineNr; i < lastLineNr; i++) {
+			long end = findLineEnd(start);
+			result.add(readLine(start, end));
+			start = end + 1;
+		}
+		return result;
+	}
+
+	private byte[] read(long position, int length) {
+		byte[] result = new byte[length];
+		if (memory != null) {
+			System.arraycopy(memory, (int) position, result, 0, length);
+			return result;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(result);
+		try {
+			while (buffer.hasRemaining()) {
+				if (spillChannel.read(buffer, position + buffer.position()) < 0) {
+					throw new IOException("unexpected end of file");
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException("can not read captured output from " + spillFile, e);
+		}
+		return result;
+	}
+
+	/**
+	 * @return stream reading all output captured so far
+	 * @throws IOException
+	 */
+	public synchronized InputStream getInputStream() throws IOException {
+		if (memory != null) {
+			return new ByteArrayInputStream(memory, 0, (int) size);
+		}
+		return new FileInputStream(spillFile);
+	}
+
+	/**
+	 * @return the temporary file or null if output has not been spilled
+	 */
+	public synchronized File getSpillFile() {
+		return spillFile;
+	}
+
+	/**
+	 * Discards captured output and deletes the temporary file.
+	 */
+	public synchronized void delete() {
+		if (spillChannel != null) {
+			try {
+				spillChannel.close();
+			}
+			catch (IOException e) {
+				//file is deleted anyway
+			}
+			spillFile.delete();
+			spillChannel = null;
+			spillFile = null;
+		}
+		memory = new byte[1024];
+		size = 0;
+		nrofLineStarts = 1;
+		lastLineStart = 0;
+	}
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2011-2014 Jeroen Meetsma - IJsberg Automatisering BV
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A message queue that keeps a bounded number of messages on the heap and
+ * stores the overflow in memory-mapped segment files.
+ * <p/>
+ * Byte arrays are stored as is; other messages are serialized by a {@link MessageCodec},
+ * which by default uses Java serialization. A {@link PooledByteBuffer} is retained while it is
+ * kept on the heap; once spilled, its contents are stored and read back as a byte array.
+ * Spilled messages are read back in FIFO order; a few segment files are kept for reuse
+ * once they have been read, the others are unmapped and deleted.
+ * <p/>
+ * This allows a consumer to fall behind temporarily without exhausting the heap or losing messages.
+ */
+public class SpillingReceiverQueue implements BatchReceiver, AwaitableQueue {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	//maximum number of read segments kept mapped for reuse
+	private static final int MAX_NROF_SPARE_SEGMENTS = 2;
+
+	private static final byte TYPE_BYTES = 0;
+	private static final byte TYPE_ENCODED = 1;
+	//length and type
+	private static final int RECORD_HEADER_SIZE = 5;
+
+	private final ArrayDeque<Object> memory = new ArrayDeque<Object>();
+	private final int memoryCapacity;
+	private final File spillDirectory;
+	private final int segmentSize;
+	private final MessageCodec codec;
+	//oldest segment first
+	private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+	private final ArrayDeque<Segment> spareSegments = new ArrayDeque<Segment>();
+	private long nrofSpilledMessages;
+	private long nrofSegmentsCreated;
+	//true if the queue created the spill directory, which is then deleted on exit
+	private boolean temporary;
+	private volatile boolean closed;
+
+	/**
+	 * Constructs a queue that spills to a temporary directory using Java serialization for objects other than byte arrays.
+	 *
+	 * @param memoryCapacity maximum number of messages kept on the heap
+	 * @throws IOException if no temporary directory can be created
+	 */
+	public SpillingReceiverQueue(int memoryCapacity) throws IOException {
+		this(memoryCapacity, Files.createTempDirectory("iglu-spill").toFile(), DEFAULT_SEGMENT_SIZE, new SerializingCodec());
+		spillDirectory.deleteOnExit();
+		temporary = true;
+	}
+
+	/**
+	 * @param memoryCapacity maximum number of messages kept on the heap
+	 * @param spillDirectory directory segment files are created in
+	 * @param segmentSize size of a segment file in bytes
+	 * @param codec converts messages other than byte arrays
+	 */
+	public SpillingReceiverQueue(int memoryCapacity, File spillDirectory, int segmentSize, MessageCodec codec) {
+		if (memoryCapacity <= 0 || segmentSize <= 0) {
+			throw new IllegalArgumentException("memory capacity and segment size must be greater than 0");
+		}
+		if (codec == null) {
+			throw new IllegalArgumentException("codec may not be null");
+		}
+		FileSupport.assertDirExistsFallbackCreate(spillDirectory);
+		this.memoryCapacity = memoryCapacity;
+		this.spillDirectory = spillDirectory;
+		this.segmentSize = segmentSize;
+		this.codec = codec;
+	}
+
+	/**
+	 * Receives an object from a channel.
+	 *
+	 * @param object
+	 * @throws RuntimeException if the object can not be spilled to disk
+	 */
+	public void onReceive(Object object) {
+		if (!closed && object != null) {
+			synchronized (memory) {
+				append(object);
+				memory.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Receives a number of objects from a channel at once.
+	 *
+	 * @param objects
+	 * @throws RuntimeException if an object can not be spilled to disk
+	 */
+	public void onReceiveBatch(List<?> objects) {
+		if (!closed) {
+			synchronized (memory) {
+				for (Object object : objects) {
+					if (object != null) {
+						append(object);
+					}
+				}
+				memory.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Must be invoked while holding the lock.
+	 */
+	private void append(Object object) {
+		//once spilling has started, objects must queue up behind the spilled ones
+		if (nrofSpilledMessages == 0 && memory.size() < memoryCapacity) {
+			PooledByteBuffer.retainIfPooled(object);
+			memory.addLast(object);
+		}
+		else {
+			try {
+				spill(object);
+			}
+			catch (IOException e) {
+				throw new RuntimeException("unable to spill message to " + spillDirectory, e);
+			}
+		}
+	}
+
+	private void spill(Object object) throws IOException {
+		if (object instanceof PooledByteBuffer) {
+			//the buffer returns to its pool, so its contents are copied
+			object = ((PooledByteBuffer) object).toByteArray();
+		}
+		byte type = object instanceof byte[] ? TYPE_BYTES : TYPE_ENCODED;
+		byte[] payload = type == TYPE_BYTES ? (byte[]) object : codec.encode(object);
+		int recordSize = RECORD_HEADER_SIZE + payload.length;
+		Segment segment = segments.peekLast();
+		if (segment == null || segment.buffer.capacity() - segment.writePosition < recordSize) {
+			segment = spareSegments.peekFirst();
+			if (segment != null && segment.buffer.capacity() >= recordSize) {
+				spareSegments.removeFirst();
+			}
+			else {
+				File file = new File(spillDirectory, "segment-" + (nrofSegmentsCreated++) + ".dat");
+				if (temporary) {
+					//files are deleted before the directory that was registered earlier
+					file.deleteOnExit();
+				}
+				segment = new Segment(file, Math.max(segmentSize, recordSize));
+			}
+			segments.addLast(segment);
+		}
+		segment.write(type, payload);
+		nrofSpilledMessages++;
+	}
+
+	private Object unspill() throws IOException {
+		Segment segment = segments.peekFirst();
+		while (!segment.hasMoreRecords()) {
+			recycle(segments.removeFirst());
+			segment = segments.peekFirst();
+		}
+		Object object = segment.read(codec);
+		nrofSpilledMessages--;
+		if (!segment.hasMoreRecords()) {
+			if (segments.size() > 1) {
+				recycle(segments.removeFirst());
+			}
+			else {
+				//reuse the mapping
+				segment.reset();
+			}
+		}
+		return object;
+	}
+
+	/**
+	 * Keeps a read segment for reuse, or releases its mapping and file
+	 * if enough segments are kept already.
+	 */
+	private void recycle(Segment segment) {
+		if (spareSegments.size() < MAX_NROF_SPARE_SEGMENTS && segment.buffer.capacity() == segmentSize) {
+			segment.reset();
+			spareSegments.addLast(segment);
+		}
+		else {
+			segment.delete();
+		}
+	}
+
+	/**
+	 * Must be invoked while holding the lock.
+	 *
+	 * @return the first object or null
+	 */
+	private Object poll() {
+		if (memory.isEmpty() && nrofSpilledMessages > 0) {
+			try {
+				while (memory.size() < memoryCapacity && nrofSpilledMessages > 0) {
+					memory.addLast(unspill());
+				}
+			}
+			catch (IOException e) {
+				throw new RuntimeException("unable to read spilled message from " + spillDirectory, e);
+			}
+		}
+		return memory.pollFirst();
+	}
+
+	/**
+	 * Retrieves and removes the first object from the queue.
+	 *
+	 * @return the first object from the queue or null if the queue is empty
+	 * @throws RuntimeException if a spilled object can not be read
+	 */
+	public Object read() {
+		synchronized (memory) {
+			return poll();
+		}
+	}
+
+	/**
+	 * Retrieves and removes a number of objects from the queue in one go.
+	 *
+	 * @param target collection the objects are added to
+	 * @param maxNrofObjects maximum number of objects to read
+	 * @return the number of objects read
+	 */
+	public int drainTo(Collection<Object> target, int maxNrofObjects) {
+		int count = 0;
+		synchronized (memory) {
+			Object object;
+			while (count < maxNrofObjects && (object = poll()) != null) {
+				target.add(object);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Waits until objects are available or the queue is closed.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return true if objects are available
+	 * @throws InterruptedException
+	 */
+	public boolean awaitAvailable(long timeout) throws InterruptedException {
+		synchronized (memory) {
+			long deadline = System.currentTimeMillis() + timeout;
+			while (isEmpty() && !closed) {
+				if (timeout <= 0) {
+					memory.wait();
+				}
+				else {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						break;
+					}
+					memory.wait(remaining);
+				}
+			}
+			return !isEmpty();
+		}
+	}
+
+	/**
+	 * Retrieves and removes the first object from the queue, waiting if necessary.
+	 *
+	 * @param timeout maximum time to wait in milliseconds, 0 means wait indefinitely
+	 * @return the first object from the queue or null if the timeout expired or the queue is closed
+	 * @throws InterruptedException
+	 */
+	public Object read(long timeout) throws InterruptedException {
+		synchronized (memory) {
+			if (awaitAvailable(timeout)) {
+				return poll();
+			}
+		}
+		return null;
+	}
+
+	private boolean isEmpty() {
+		return memory.isEmpty() && nrofSpilledMessages == 0;
+	}
+
+	/**
+	 * @return number of queued objects, both on the heap and on disk
+	 */
+	public int available() {
+		synchronized (memory) {
+			return (int) Math.min(Integer.MAX_VALUE, memory.size() + nrofSpilledMessages);
+		}
+	}
+
+	/**
+	 * @return number of objects stored on disk
+	 */
+	public long getNrofSpilledMessages() {
+		synchronized (memory) {
+			return nrofSpilledMessages;
+		}
+	}
+
+	/**
+	 * @return number of segment files currently in use
+	 */
+	public int getNrofSegments() {
+		synchronized (memory) {
+			return segments.size();
+		}
+	}
+
+	/**
+	 * @return number of read segment files kept for reuse
+	 */
+	public int getNrofSpareSegments() {
+		synchronized (memory) {
+			return spareSegments.size();
+		}
+	}
+
+	/**
+	 * Closes the receiver (for incoming messages) but does <em>not</em> clear the queue.
+	 */
+	public void close() {
+		closed = true;
+		synchronized (memory) {
+			memory.notifyAll();
+		}
+	}
+
+	/**
+	 * Queue is closed when transmission closes.
+	 */
+	public void onTransmissionClose() {
+		close();
+	}
+
+	/**
+	 * @return true if the receiver is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Clears the queue and deletes all segment files, including spare ones.
+	 */
+	public void clear() {
+		synchronized (memory) {
+			for (Object object : memory) {
+				PooledByteBuffer.releaseIfPooled(object);
+			}
+			memory.clear();
+			while (!segments.isEmpty()) {
+				segments.removeFirst().delete();
+			}
+			while (!spareSegments.isEmpty()) {
+				spareSegments.removeFirst().delete();
+			}
+			nrofSpilledMessages = 0;
+		}
+	}
+
+	/**
+	 * Memory-mapped file holding spilled records.
+	 * A record consists of its payload length, its type and the payload.
+	 */
+	private static class Segment {
+		//obtained by reflection, since unmapping is not part of the public API
+		private static final Object UNSAFE = lookUpUnsafe();
+		private static final Method INVOKE_CLEANER = lookUpInvokeCleaner();
+
+		private final File file;
+		private final MappedByteBuffer buffer;
+		private int writePosition;
+		private int readPosition;
+
+		Segment(File file, int size) throws IOException {
+			this.file = file;
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				//the mapping stays valid after the file is closed
+				buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+			finally {
+				randomAccessFile.close();
+			}
+		}
+
+		void write(byte type, byte[] payload) {
+			buffer.putInt(writePosition, payload.length);
+			buffer.put(writePosition + 4, type);
+			buffer.put(writePosition + RECORD_HEADER_SIZE, payload, 0, payload.length);
+			writePosition += RECORD_HEADER_SIZE + payload.length;
+		}
+
+		void reset() {
+			readPosition = 0;
+			writePosition = 0;
+		}
+
+		boolean hasMoreRecords() {
+			return readPosition < writePosition;
+		}
+
+		Object read(MessageCodec codec) throws IOException {
+			int length = buffer.getInt(readPosition);
+			byte type = buffer.get(readPosition + 4);
+			byte[] payload = new byte[length];
+			buffer.get(readPosition + RECORD_HEADER_SIZE, payload, 0, length);
+			readPosition += RECORD_HEADER_SIZE + length;
+			return type == TYPE_BYTES ? payload : codec.decode(payload);
+		}
+
+		/**
+		 * Releases the mapping right away instead of waiting for garbage collection,
+		 * which also allows the file to be deleted on all platforms.
+		 * The segment must not be used afterwards.
+		 */
+		void delete() {
+			unmap();
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+
+		private void unmap() {
+			if (INVOKE_CLEANER != null) {
+				try {
+					INVOKE_CLEANER.invoke(UNSAFE, buffer);
+				}
+				catch (Exception e) {
+					//the mapping is released when the buffer is garbage collected
+				}
+			}
+		}
+
+		private static Object lookUpUnsafe() {
+			try {
+				Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				return field.get(null);
+			}
+			catch (Exception e) {
+				return null;
+			}
+		}
+
+		private static Method lookUpInvokeCleaner() {
+			try {
+				return UNSAFE != null ? UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class) : null;
+			}
+			catch (Exception e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Encodes messages by means of Java serialization.
+	 */
+	public static class SerializingCodec implements MessageCodec {
+
+		public byte[] encode(Object message) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			try {
+				out.writeObject(message);
+			}
+			finally {
+				out.close();
+			}
+			return bytes.toByteArray();
+		}
+
+		public Object decode(byte[] bytes) throws IOException {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return in.readObject();
+			}
+			catch (ClassNotFoundException e) {
+				throw new IOException("unable to deserialize message", e);
+			}
+			finally {
+				in.close();
+			}
+		}
+	}
+}
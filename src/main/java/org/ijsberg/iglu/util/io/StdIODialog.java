@@ -19,10 +19,13 @@
 
 package org.ijsberg.iglu.util.io;
 
+import org.ijsberg.iglu.util.execution.ThreadSupport;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PushbackInputStream;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Takes a configured In- and OutputStream such as System.in and System.out
@@ -53,8 +56,17 @@ public class StdIODialog implements Receiver, Runnable {
 	 * Starts communicating in a separate thread.
 	 */
 	public void openAsync() throws IOException {
+		openAsync(ThreadSupport.getDefaultThreadFactory());
+	}
+
+	/**
+	 * Starts communicating in a thread created by the given factory.
+	 *
+	 * @param threadFactory
+	 */
+	public void openAsync(ThreadFactory threadFactory) throws IOException {
 		transceiver.open(this);
-		new Thread(this).start();
+		threadFactory.newThread(this).start();
 	}
 
 	/**
@@ -124,7 +136,12 @@ public class StdIODialog implements Receiver, Runnable {
 	 */
 	public void onReceive(Object o) {
 		try {
-			stdOut.write((byte[]) o);
+			if (o instanceof PooledByteBuffer) {
+				stdOut.write(((PooledByteBuffer) o).toByteArray());
+			}
+			else {
+				stdOut.write((byte[]) o);
+			}
 		}
 		catch (IOException ioe) {
 			close();
@@ -19,25 +19,51 @@
 
 package org.ijsberg.iglu.util.io;
 
+import org.ijsberg.iglu.util.execution.ThreadSupport;
+
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Receives and retransmits objects asynchronously.
  */
-public class Transponder implements Receiver {
+public class Transponder implements BatchReceiver, FlowControlledReceiver {
 	private Transmitter outputTransmitter;
 	private InputStream inputStream;
+	private ReadableByteChannel inputChannel;
 	public static final long DEFAULT_POLLING_INTERVAL = 10;
 	private long pollingInterval = DEFAULT_POLLING_INTERVAL;
+	//wait for input instead of polling if the queue supports it
+	public static final boolean DEFAULT_BLOCKING = true;
+	private boolean blocking = DEFAULT_BLOCKING;
 	public static final int DEFAULT_QUEUE_SIZE = 0;//unlimited
 	private int queueSize = DEFAULT_QUEUE_SIZE;
 	public static final int DEFAULT_BUFFER_SIZE = 80;
 	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	//pooled buffers for forwarding streams and channels, sized to what a single read usually yields
+	public static final int DEFAULT_POOLED_BUFFER_SIZE = 8 * 1024;
+	public static final int DEFAULT_POOLED_FILE_BUFFER_SIZE = 64 * 1024;
+	private static final ByteBufferPool STREAM_BUFFER_POOL = new ByteBufferPool(DEFAULT_POOLED_BUFFER_SIZE, 256, true);
+	private static final ByteBufferPool FILE_BUFFER_POOL = new ByteBufferPool(DEFAULT_POOLED_FILE_BUFFER_SIZE, 32, true);
+	private ByteBufferPool bufferPool;
+	//instrumentation is disabled by default
+	private volatile MessagingMetrics metrics;
+	//maximum number of queued objects forwarded in one call
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+	private int batchSize = DEFAULT_BATCH_SIZE;
 	private ReceiverQueue receiverQueue;
 	private Queue queue;
-	private boolean haltRequest;
+	private volatile boolean haltRequest;
 	protected Thread forwarderThread;
+	//null means ThreadSupport's default
+	private ThreadFactory threadFactory;
 	private Forwarder forwarder;
 
 
@@ -55,7 +81,6 @@ public class Transponder implements Receiver {
 		receiverQueue = new ReceiverQueue(queueSize);
 		this.queue = receiverQueue;
 		this.forwarder = new Forwarder();
-		forwarderThread = new Thread(forwarder);
 	}
 
 	/**
@@ -74,7 +99,6 @@ public class Transponder implements Receiver {
 		this.outputTransmitter = outputTransmitter;
 		this.queue = queue;
 		this.forwarder = new Forwarder();
-		forwarderThread = new Thread(forwarder);
 	}
 
 	/**
@@ -95,7 +119,6 @@ public class Transponder implements Receiver {
 		this.queue = receiverQueue;
 		channel.registerReceiver(receiverQueue);
 		this.forwarder = new Forwarder();
-		forwarderThread = new Thread(forwarder);
 	}
 
 
@@ -118,11 +141,31 @@ public class Transponder implements Receiver {
 		this.inputStream = inputStream;
 		this.outputTransmitter = outputTransmitter;
 		this.forwarder = new Forwarder();
-		forwarderThread = new Thread(forwarder);
 	}
 
 	/**
-	 * Polls the queue for new objects and retransmits them.
+	 * Constructs a transponder that reads from a channel into pooled buffers,
+	 * which are forwarded as {@link PooledByteBuffer}s.
+	 * The transponder releases each buffer after it has been transmitted.
+	 *
+	 * @param inputChannel
+	 * @param outputTransmitter
+	 */
+	public Transponder(ReadableByteChannel inputChannel, Transmitter outputTransmitter) {
+		if (inputChannel == null) {
+			throw new IllegalArgumentException("input channel may not be null");
+		}
+		if (outputTransmitter == null) {
+			throw new IllegalArgumentException("transmitter may not be null");
+		}
+		this.inputChannel = inputChannel;
+		this.outputTransmitter = outputTransmitter;
+		this.bufferPool = inputChannel instanceof FileChannel ? FILE_BUFFER_POOL : STREAM_BUFFER_POOL;
+		this.forwarder = new Forwarder();
+	}
+
+	/**
+	 * Waits for or polls the queue for new objects and retransmits them.
 	 */
 	private class Forwarder implements Runnable {
 		/**
@@ -130,29 +173,43 @@ public class Transponder implements Receiver {
 		 */
 		public void run() {
 //			System.out.println("starting thread " + Thread.currentThread() + " for Transponder");
-			while (!haltRequest) {
-				processInput();
-				try {
-					Thread.sleep(pollingInterval);
-				}
-				catch (InterruptedException ie) {
-					stop();
+			try {
+				while (!haltRequest) {
+					processInput();
+					try {
+						if (isWaitingForInput()) {
+							((AwaitableQueue) queue).awaitAvailable(0);
+						}
+						else {
+							Thread.sleep(pollingInterval);
+						}
+					}
+					catch (InterruptedException ie) {
+						stop();
+					}
 				}
 			}
-			if (queue != null && !queue.isClosed()) {
-				queue.close();
-			}
-			if (receiverQueue != null && !receiverQueue.isClosed()) {
-				receiverQueue.close();
-			}
-			if (outputTransmitter != null && !outputTransmitter.isClosed()) {
-				outputTransmitter.close();
+			finally {
+				//also clean up if transmission failed
+				haltRequest = true;
+				if (queue != null && !queue.isClosed()) {
+					queue.close();
+				}
+				if (receiverQueue != null && !receiverQueue.isClosed()) {
+					receiverQueue.close();
+				}
+				if (outputTransmitter != null && !outputTransmitter.isClosed()) {
+					outputTransmitter.close();
+				}
 			}
 //			System.out.println("stopping thread " + Thread.currentThread() + " for Transponder");
 		}
 
 		private void processInput() {
-			if (inputStream != null) {
+			if (bufferPool != null) {
+				forwardPooledBuffers();
+			}
+			else if (inputStream != null) {
 				try {
 					byte[] buffer = new byte[bufferSize];
 					int count = 0;
@@ -162,7 +219,9 @@ public class Transponder implements Receiver {
 						if (count > 0) {
 							byte[] message = new byte[count];
 							System.arraycopy(buffer, 0, message, 0, count);
+							recordIn(message);
 							outputTransmitter.transmit(message);//deliver to transmitter
+							recordOut(message);
 						}
 						if (outputTransmitter.isClosed()) {
 							stop();
@@ -178,8 +237,32 @@ public class Transponder implements Receiver {
 				}
 			}
 			else {
-				while (queue.available() > 0) {
-					outputTransmitter.transmit(queue.read());
+				if (outputTransmitter instanceof BatchTransmitter) {
+					List<Object> batch = new ArrayList<Object>();
+					while (queue.drainTo(batch, batchSize) > 0) {
+						try {
+							((BatchTransmitter) outputTransmitter).transmitBatch(batch);
+						}
+						finally {
+							//release the references the queue took
+							for (Object message : batch) {
+								PooledByteBuffer.releaseIfPooled(message);
+							}
+							batch.clear();
+						}
+					}
+				}
+				else {
+					Object message;
+					//a message may be taken by a competing reader between available() and read()
+					while (queue.available() > 0 && (message = queue.read()) != null) {
+						try {
+							outputTransmitter.transmit(message);
+						}
+						finally {
+							PooledByteBuffer.releaseIfPooled(message);
+						}
+					}
 				}
 				if (queue.isClosed()) {
 					stop();
@@ -191,10 +274,161 @@ public class Transponder implements Receiver {
 		}
 	}
 
+	/**
+	 * Reads input into pooled buffers and transmits them.
+	 * A buffer returns to the pool as soon as all receivers are done with it.
+	 */
+	private void forwardPooledBuffers() {
+		try {
+			int count = 0;
+			while (count >= 0) {
+				PooledByteBuffer message = bufferPool.acquire();
+				try {
+					count = inputChannel.read(message.getWritableBuffer());
+					if (count > 0) {
+						message.getWritableBuffer().flip();
+						recordIn(message);
+						outputTransmitter.transmit(message);//deliver to transmitter
+						recordOut(message);
+					}
+				}
+				finally {
+					message.release();
+				}
+				if (outputTransmitter.isClosed()) {
+					stop();
+				}
+			}
+			//loop is broken when count == -1 (input closed)
+			stop();
+		}
+		catch (IOException e) {
+			//abnormal termination
+			outputTransmitter.transmit("stream can no longer be forwarded...".getBytes());
+			stop();
+		}
+	}
+
+	private void recordIn(Object message) {
+		MessagingMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.recordIn(message);
+		}
+	}
+
+	private void recordOut(Object message) {
+		MessagingMetrics metrics = this.metrics;
+		if (metrics != null) {
+			metrics.recordOut(message);
+		}
+	}
+
+	/**
+	 * Enables instrumentation of this transponder.
+	 * For queued input the metrics are maintained by the internal queue, which includes
+	 * queue depth and latency; for stream input the transponder counts what it reads and forwards.
+	 *
+	 * @param metrics metrics to update or null to disable instrumentation
+	 */
+	public void setMetrics(MessagingMetrics metrics) {
+		this.metrics = metrics;
+		if (receiverQueue != null) {
+			receiverQueue.setMetrics(metrics);
+		}
+	}
+
+	/**
+	 * @return metrics or null if instrumentation is disabled
+	 */
+	public MessagingMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Lets a transponder that reads from an input stream forward {@link PooledByteBuffer}s
+	 * instead of byte arrays. The buffer size is chosen to match the stream.
+	 * Must be invoked before the transponder is started.
+	 */
+	public void usePooledBuffers() {
+		setBufferPool(inputStream instanceof FileInputStream ? FILE_BUFFER_POOL : STREAM_BUFFER_POOL);
+	}
+
+	/**
+	 * Lets a transponder that reads from an input stream forward {@link PooledByteBuffer}s
+	 * obtained from the given pool instead of byte arrays.
+	 * Must be invoked before the transponder is started.
+	 *
+	 * @param bufferPool
+	 */
+	public void setBufferPool(ByteBufferPool bufferPool) {
+		if (inputStream == null && inputChannel == null) {
+			throw new IllegalStateException("transponder does not read from a stream");
+		}
+		if (inputChannel == null) {
+			inputChannel = inputStream instanceof FileInputStream ?
+					((FileInputStream) inputStream).getChannel() : Channels.newChannel(inputStream);
+		}
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * @param bufferSize size of the buffer used to read from an input stream if buffers are not pooled
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @return true if the forwarder waits until input arrives instead of polling
+	 */
+	private boolean isWaitingForInput() {
+		return blocking && inputStream == null && inputChannel == null && queue instanceof AwaitableQueue;
+	}
+
+	/**
+	 * Determines whether the transponder waits for input to arrive or polls for it.
+	 * Waiting only applies to queues that implement {@link AwaitableQueue}.
+	 * Must be invoked before the transponder is started.
+	 *
+	 * @param blocking true to wait for input, false to poll
+	 */
+	public void setBlocking(boolean blocking) {
+		this.blocking = blocking;
+	}
+
+	/**
+	 * @param pollingInterval interval in ms at which the queue is polled in non-blocking mode
+	 */
+	public void setPollingInterval(long pollingInterval) {
+		this.pollingInterval = pollingInterval;
+	}
+
+	/**
+	 * @param batchSize maximum number of queued objects forwarded in one call to a {@link BatchTransmitter}
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Determines how the forwarding thread is created.
+	 * Must be invoked before the transponder is started.
+	 *
+	 * @param threadFactory
+	 * @see ThreadSupport#getDefaultThreadFactory()
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
 	/**
 	 * Starts forwarding objects.
 	 */
 	public void start() {
+		if (forwarderThread != null) {
+			throw new IllegalStateException("transponder already started");
+		}
+		forwarderThread = (threadFactory != null ? threadFactory : ThreadSupport.getDefaultThreadFactory()).newThread(forwarder);
 		forwarderThread.start();
 	}
 
@@ -206,6 +440,11 @@ public class Transponder implements Receiver {
 			haltRequest = true;
 			//process possible remainder of input
 			forwarder.processInput();
+			if (isWaitingForInput() && Thread.currentThread() != forwarderThread) {
+				//wake up forwarder by closing the queue, which unlike an interrupt
+				//can not disturb a transmission in progress
+				queue.close();
+			}
 		}
 	}
 
@@ -219,6 +458,47 @@ public class Transponder implements Receiver {
 		receiverQueue.onReceive(message);
 	}
 
+	/**
+	 * @param messages
+	 */
+	public void onReceiveBatch(List<?> messages) {
+		if (receiverQueue == null) {
+			throw new IllegalStateException("transponder is configured to retransmit messages from alternate source only");
+		}
+		receiverQueue.onReceiveBatch(messages);
+	}
+
+	/**
+	 * Enables backpressure on the internal queue.
+	 *
+	 * @param lowWatermark
+	 * @param highWatermark
+	 * @param listener optional listener that is notified when watermarks are crossed
+	 * @see ReceiverQueue#setWatermarks(int, int, WatermarkListener)
+	 */
+	public void setWatermarks(int lowWatermark, int highWatermark, WatermarkListener listener) {
+		if (receiverQueue == null) {
+			throw new IllegalStateException("transponder is configured to retransmit messages from alternate source only");
+		}
+		receiverQueue.setWatermarks(lowWatermark, highWatermark, listener);
+	}
+
+	/**
+	 * @return false if the internal queue has reached its high watermark
+	 */
+	public boolean hasDemand() {
+		return receiverQueue == null || receiverQueue.hasDemand();
+	}
+
+	/**
+	 * @param timeout
+	 * @return true if the internal queue accepts messages again
+	 * @throws InterruptedException
+	 */
+	public boolean awaitDemand(long timeout) throws InterruptedException {
+		return receiverQueue == null || receiverQueue.awaitDemand(timeout);
+	}
+
 	/**
 	 *
 	 */
@@ -22,6 +22,8 @@ package org.ijsberg.iglu.util.logic;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Logical expression, composed of statements and subexpressions that may be evaluated.
@@ -370,6 +372,50 @@ public class Expression extends Predicate {
 	}
 
 
+	/**
+	 * Determines a minimal set of statements of which at least one must be present for
+	 * the expression to match. An AND contributes the smallest set of one of its elements,
+	 * an OR the union of the sets of all its elements.
+	 * Negated elements may match in absence of statements and can not be indexed.
+	 *
+	 * @return statements that trigger evaluation of this expression,
+	 *         or null if it may match in absence of any statement
+	 */
+	public Set<String> getTriggerStatements() {
+		if (elementsArray.length == 0) {
+			return null;
+		}
+		if (operator == null) {
+			return ((Predicate) elementsArray[0]).getTriggerStatements();
+		}
+		switch (operator.getType()) {
+			case AND: {
+				Set<String> result = null;
+				for (int i = 0; i < elementsArray.length; i++) {
+					Set<String> triggers = ((Predicate) elementsArray[i]).getTriggerStatements();
+					if (triggers != null && (result == null || triggers.size() < result.size())) {
+						result = triggers;
+					}
+				}
+				return result;
+			}
+			case OR: {
+				Set<String> result = new HashSet<String>();
+				for (int i = 0; i < elementsArray.length; i++) {
+					Set<String> triggers = ((Predicate) elementsArray[i]).getTriggerStatements();
+					if (triggers == null) {
+						return null;
+					}
+					result.addAll(triggers);
+				}
+				return result;
+			}
+		}
+		//NOT
+		return null;
+	}
+
+
 	/**
 	 * @return a representation of the parsed expression tree
 	 */
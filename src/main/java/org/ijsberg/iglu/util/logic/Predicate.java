@@ -19,6 +19,9 @@
 
 package org.ijsberg.iglu.util.logic;
 
+import java.util.Collections;
+import java.util.Set;
+
 /**
  * May be evaluated as being 'true' or 'false'
  * but it may also be some string of which its presence may be tested.
@@ -46,6 +49,17 @@ public class Predicate extends LogicalElement {
 		return statement;
 	}
 
+	/**
+	 * Supports indexing of predicates: a predicate can not match a set of
+	 * statements that contains none of the trigger statements.
+	 *
+	 * @return statements of which at least one must be present for this predicate to match,
+	 *         or null if it may match in absence of any statement
+	 */
+	public Set<String> getTriggerStatements() {
+		return Collections.singleton(statement);
+	}
+
 	/**
 	 * @return
 	 */
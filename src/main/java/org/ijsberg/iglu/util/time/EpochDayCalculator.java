@@ -0,0 +1,211 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.time;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Computes local days and weeks from times in millis without allocating objects.
+ * <p/>
+ * The UTC offset transitions of a time zone are precomputed up to the year 2100,
+ * so that the offset of a time is found by a binary search. A day key is the number of days
+ * since 1970-01-01 in local time; a week key is the number of weeks since the start of
+ * the week 1970-01-01 is in. Keys can be compared to determine order.
+ */
+public final class EpochDayCalculator {
+
+	//2100-01-01T00:00Z
+	private static final long TABLE_END = 4102444800000L;
+
+	private static volatile EpochDayCalculator defaultCalculator;
+
+	private final ZoneId zone;
+	private final ZoneRules zoneRules;
+	private final DayOfWeek firstDayOfWeek;
+	//days from the first day of the week to Thursday 1970-01-01
+	private final int weekShift;
+	//times of transitions in millis
+	private final long[] transitions;
+	//offsets in millis, offsets[i] applies before transitions[i]
+	private final long[] offsets;
+	//times from here on are beyond the table
+	private final long tableEnd;
+
+
+	/**
+	 * @param zone time zone
+	 * @param firstDayOfWeek first day of the week, see {@link Calendar#getFirstDayOfWeek()}
+	 */
+	public EpochDayCalculator(ZoneId zone, DayOfWeek firstDayOfWeek) {
+		if (zone == null || firstDayOfWeek == null) {
+			throw new IllegalArgumentException("zone and first day of week may not be null");
+		}
+		this.zone = zone;
+		this.zoneRules = zone.getRules();
+		this.firstDayOfWeek = firstDayOfWeek;
+		this.weekShift = (DayOfWeek.THURSDAY.getValue() - firstDayOfWeek.getValue() + 7) % 7;
+
+		List<ZoneOffsetTransition> zoneTransitions = new ArrayList<ZoneOffsetTransition>(zoneRules.getTransitions());
+		if (!zoneRules.getTransitionRules().isEmpty()) {
+			Instant lastTransition = zoneTransitions.isEmpty() ? Instant.ofEpochMilli(0) : zoneTransitions.get(zoneTransitions.size() - 1).getInstant();
+			ZoneOffsetTransition transition;
+			while ((transition = zoneRules.nextTransition(lastTransition)) != null && transition.toEpochSecond() * 1000 < TABLE_END) {
+				zoneTransitions.add(transition);
+				lastTransition = transition.getInstant();
+			}
+		}
+		transitions = new long[zoneTransitions.size()];
+		offsets = new long[zoneTransitions.size() + 1];
+		offsets[0] = (zoneTransitions.isEmpty() ? zoneRules.getOffset(Instant.ofEpochMilli(0)) : zoneTransitions.get(0).getOffsetBefore()).getTotalSeconds() * 1000L;
+		for (int i = 0; i < transitions.length; i++) {
+			transitions[i] = zoneTransitions.get(i).toEpochSecond() * 1000;
+			offsets[i + 1] = zoneTransitions.get(i).getOffsetAfter().getTotalSeconds() * 1000L;
+		}
+		tableEnd = zoneRules.getTransitionRules().isEmpty() ? Long.MAX_VALUE : TABLE_END;
+	}
+
+
+	/**
+	 * @param zone time zone
+	 */
+	public EpochDayCalculator(ZoneId zone) {
+		this(zone, getDefaultFirstDayOfWeek());
+	}
+
+
+	private static DayOfWeek getDefaultFirstDayOfWeek() {
+		//Calendar.SUNDAY is 1
+		return DayOfWeek.SUNDAY.plus(Calendar.getInstance().getFirstDayOfWeek() - 1);
+	}
+
+
+	/**
+	 * @return calculator for the default time zone and the first day of the week of the default locale
+	 */
+	public static EpochDayCalculator getDefault() {
+		EpochDayCalculator calculator = defaultCalculator;
+		if (calculator == null) {
+			calculator = new EpochDayCalculator(ZoneId.systemDefault());
+			defaultCalculator = calculator;
+		}
+		return calculator;
+	}
+
+
+	/**
+	 * Makes {@link #getDefault()} pick up a changed default time zone or locale.
+	 */
+	public static void resetDefault() {
+		defaultCalculator = null;
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @return offset from UTC in millis
+	 */
+	public long getUtcOffset(long time) {
+		if (time >= tableEnd) {
+			return zoneRules.getOffset(Instant.ofEpochMilli(time)).getTotalSeconds() * 1000L;
+		}
+		int index = Arrays.binarySearch(transitions, time);
+		//a transition applies from its own time
+		return offsets[index >= 0 ? index + 1 : -index - 1];
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @return number of days since 1970-01-01 in local time
+	 */
+	public long getEpochDay(long time) {
+		return Math.floorDiv(time + getUtcOffset(time), TimeSupport.DAY_IN_MS);
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @return number of weeks since the week 1970-01-01 is in
+	 */
+	public long getEpochWeek(long time) {
+		return Math.floorDiv(getEpochDay(time) + weekShift, 7);
+	}
+
+
+	/**
+	 * @param time1 time in millis
+	 * @param time2 time in millis
+	 * @return true if the two specified times are part of the same day
+	 */
+	public boolean isSameDay(long time1, long time2) {
+		return getEpochDay(time1) == getEpochDay(time2);
+	}
+
+
+	/**
+	 * @param time1 time in millis
+	 * @param time2 time in millis
+	 * @return true if the two specified times are part of the same week
+	 */
+	public boolean isSameWeek(long time1, long time2) {
+		return getEpochWeek(time1) == getEpochWeek(time2);
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @return the time the day starts in millis, which is midnight unless a transition occurs at midnight
+	 */
+	public long getStartOfDay(long time) {
+		long start = getEpochDay(time) * TimeSupport.DAY_IN_MS - getUtcOffset(time);
+		if (start + TimeSupport.DAY_IN_MS < tableEnd &&
+				Arrays.binarySearch(transitions, start - TimeSupport.DAY_IN_MS) == Arrays.binarySearch(transitions, start + TimeSupport.DAY_IN_MS)) {
+			//no transitions near the start of the day
+			return start;
+		}
+		Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone(zone));
+		calendar.setTimeInMillis(time);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTimeInMillis();
+	}
+
+
+	public ZoneId getZone() {
+		return zone;
+	}
+
+
+	public DayOfWeek getFirstDayOfWeek() {
+		return firstDayOfWeek;
+	}
+}
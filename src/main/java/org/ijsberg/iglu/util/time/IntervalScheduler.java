@@ -0,0 +1,375 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.time;
+
+import org.ijsberg.iglu.util.execution.ThreadSupport;
+import org.ijsberg.iglu.util.execution.TimeoutWatchdog;
+import org.ijsberg.iglu.util.io.Receiver;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks at the start of intervals, as computed by {@link SchedulingSupport}.
+ * <p/>
+ * Each registration keeps a single timeout in a {@link TimeoutWatchdog}, so that thousands of
+ * tasks are served by the watchdog thread and an executor. Each fire is scheduled for the next
+ * boundary in wall clock time, so fires do not drift the way sleep loops do.
+ * A timeout that expires before the boundary is rescheduled for the remainder.
+ * <p/>
+ * Fires that are late or skipped are reported as {@link Irregularity} to an optional receiver.
+ * A fire is skipped if the previous run of the task has not finished yet, or if several boundaries
+ * passed at once, for instance after the system was suspended; in that case the task runs once.
+ */
+public class IntervalScheduler {
+
+	public static final long DEFAULT_LATENESS_TOLERANCE = 100;
+
+	private final TimeoutWatchdog watchdog;
+	private final Executor executor;
+	private final Set<Registration> registrations = ConcurrentHashMap.newKeySet();
+	private volatile Receiver irregularityReceiver;
+	private volatile long latenessTolerance = DEFAULT_LATENESS_TOLERANCE;
+	private volatile boolean stopped;
+
+
+	/**
+	 * Creates a scheduler that uses the shared timeout watchdog and executor.
+	 */
+	public IntervalScheduler() {
+		this(ThreadSupport.getSharedTimeoutWatchdog(), ThreadSupport.getSharedExecutor());
+	}
+
+
+	/**
+	 * @param watchdog watchdog that keeps track of the next fire of every task
+	 * @param executor executor that runs the tasks
+	 */
+	public IntervalScheduler(TimeoutWatchdog watchdog, Executor executor) {
+		if (watchdog == null || executor == null) {
+			throw new IllegalArgumentException("watchdog and executor may not be null");
+		}
+		this.watchdog = watchdog;
+		this.executor = executor;
+	}
+
+
+	/**
+	 * Report of a fire that was late or that replaced skipped fires.
+	 */
+	public static final class Irregularity {
+		private final Registration registration;
+		private final long scheduledTime;
+		private final long actualTime;
+		private final int nrofSkippedFires;
+
+		private Irregularity(Registration registration, long scheduledTime, long actualTime, int nrofSkippedFires) {
+			this.registration = registration;
+			this.scheduledTime = scheduledTime;
+			this.actualTime = actualTime;
+			this.nrofSkippedFires = nrofSkippedFires;
+		}
+
+		public Registration getRegistration() {
+			return registration;
+		}
+
+		/**
+		 * @return start of the interval in millis
+		 */
+		public long getScheduledTime() {
+			return scheduledTime;
+		}
+
+		/**
+		 * @return time the task started or was skipped in millis
+		 */
+		public long getActualTime() {
+			return actualTime;
+		}
+
+		public long getLateness() {
+			return actualTime - scheduledTime;
+		}
+
+		public int getNrofSkippedFires() {
+			return nrofSkippedFires;
+		}
+
+		public String toString() {
+			return "fire of " + registration + " scheduled at " + TimeSupport.getTimeStampExcel(scheduledTime) +
+					" late " + getLateness() + "ms, skipped " + nrofSkippedFires;
+		}
+	}
+
+
+	/**
+	 * Handle to a task registered with the scheduler.
+	 */
+	public final class Registration {
+		private final Runnable task;
+		private final int intervalInMinutes;
+		private final int offsetInMinutes;
+		private final AtomicBoolean running = new AtomicBoolean();
+		private final AtomicLong nrofFires = new AtomicLong();
+		private final AtomicLong nrofLateFires = new AtomicLong();
+		private final AtomicLong nrofSkippedFires = new AtomicLong();
+		//guarded by this
+		private long nextFireTime;
+		private TimeoutWatchdog.Timeout timeout;
+		private boolean cancelled;
+		private volatile Throwable lastException;
+
+		private Registration(Runnable task, int intervalInMinutes, int offsetInMinutes) {
+			this.task = task;
+			this.intervalInMinutes = intervalInMinutes;
+			this.offsetInMinutes = offsetInMinutes;
+		}
+
+		private synchronized void scheduleNext(long now) {
+			if (!cancelled) {
+				timeout = watchdog.schedule(new Runnable() {
+					public void run() {
+						onTimeout();
+					}
+				}, nextFireTime - now);
+			}
+		}
+
+		private void onTimeout() {
+			long now = currentTimeMillis();
+			long scheduledTime;
+			long next;
+			synchronized (this) {
+				if (cancelled) {
+					return;
+				}
+				scheduledTime = nextFireTime;
+				if (now >= scheduledTime) {
+					nextFireTime = SchedulingSupport.getNextIntervalStart(now, intervalInMinutes, offsetInMinutes);
+				}
+				next = nextFireTime;
+				scheduleNext(now);
+			}
+			if (now < scheduledTime) {
+				//the watchdog clock ran ahead of the wall clock
+				return;
+			}
+			int nrofPassedBoundaries = countIntervalStarts(scheduledTime, next);
+			if (!running.compareAndSet(false, true)) {
+				nrofSkippedFires.addAndGet(nrofPassedBoundaries);
+				report(new Irregularity(this, scheduledTime, now, nrofPassedBoundaries));
+				return;
+			}
+			fire(SchedulingSupport.getPreviousIntervalStart(now, intervalInMinutes, offsetInMinutes), nrofPassedBoundaries - 1);
+		}
+
+		/**
+		 * Intervals are not of equal length on days with an offset transition, so interval starts are counted one by one.
+		 *
+		 * @return number of interval starts from <emph>start</emph> up to, but not including, <emph>end</emph>
+		 */
+		private int countIntervalStarts(long start, long end) {
+			int nrofIntervalStarts = 0;
+			for (long intervalStart = start; intervalStart < end; intervalStart = SchedulingSupport.getNextIntervalStart(intervalStart, intervalInMinutes, offsetInMinutes)) {
+				nrofIntervalStarts++;
+			}
+			return nrofIntervalStarts;
+		}
+
+		private void fire(final long scheduledTime, final int nrofSkipped) {
+			executor.execute(new Runnable() {
+				public void run() {
+					long actualTime = currentTimeMillis();
+					nrofFires.incrementAndGet();
+					nrofSkippedFires.addAndGet(nrofSkipped);
+					boolean late = actualTime - scheduledTime > latenessTolerance;
+					if (late) {
+						nrofLateFires.incrementAndGet();
+					}
+					if (late || nrofSkipped > 0) {
+						report(new Irregularity(Registration.this, scheduledTime, actualTime, nrofSkipped));
+					}
+					try {
+						task.run();
+					}
+					catch (Throwable t) {
+						lastException = t;
+					}
+					finally {
+						running.set(false);
+					}
+				}
+			});
+		}
+
+		/**
+		 * Stops future fires. A run in progress is not interrupted.
+		 */
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				if (timeout != null) {
+					timeout.cancel();
+				}
+			}
+			registrations.remove(this);
+		}
+
+		public synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		public int getIntervalInMinutes() {
+			return intervalInMinutes;
+		}
+
+		public int getOffsetInMinutes() {
+			return offsetInMinutes;
+		}
+
+		/**
+		 * @return time of the next fire in millis
+		 */
+		public synchronized long getNextFireTime() {
+			return nextFireTime;
+		}
+
+		public long getNrofFires() {
+			return nrofFires.get();
+		}
+
+		/**
+		 * @return number of fires that started later than the lateness tolerance
+		 */
+		public long getNrofLateFires() {
+			return nrofLateFires.get();
+		}
+
+		public long getNrofSkippedFires() {
+			return nrofSkippedFires.get();
+		}
+
+		/**
+		 * @return exception thrown by the last failing run, or null
+		 */
+		public Throwable getLastException() {
+			return lastException;
+		}
+
+		public String toString() {
+			return task + " every " + intervalInMinutes + " minutes, offset " + offsetInMinutes;
+		}
+	}
+
+
+	/**
+	 * Registers a task that runs at the start of every interval.
+	 *
+	 * @param task task to run on the executor
+	 * @param intervalInMinutes should be > 0; see {@link SchedulingSupport#isIntervalRegularDaily(int)}
+	 * @param offsetInMinutes offset of interval starts
+	 * @return handle to cancel the task
+	 */
+	public Registration schedule(Runnable task, int intervalInMinutes, int offsetInMinutes) {
+		if (task == null) {
+			throw new IllegalArgumentException("task may not be null");
+		}
+		if (intervalInMinutes <= 0) {
+			throw new IllegalArgumentException("interval (" + intervalInMinutes + ") must be positive");
+		}
+		if (stopped) {
+			throw new IllegalStateException("scheduler is stopped");
+		}
+		Registration registration = new Registration(task, intervalInMinutes, offsetInMinutes);
+		registrations.add(registration);
+		long now = currentTimeMillis();
+		synchronized (registration) {
+			registration.nextFireTime = SchedulingSupport.getNextIntervalStart(now, intervalInMinutes, offsetInMinutes);
+			registration.scheduleNext(now);
+		}
+		return registration;
+	}
+
+
+	/**
+	 * @param task task to run on the executor
+	 * @param intervalInMinutes should be > 0
+	 * @return handle to cancel the task
+	 */
+	public Registration schedule(Runnable task, int intervalInMinutes) {
+		return schedule(task, intervalInMinutes, 0);
+	}
+
+
+	/**
+	 * @param irregularityReceiver receives an {@link Irregularity} for every late or skipped fire,
+	 * on the watchdog thread or the executor, so it should not block
+	 */
+	public void setIrregularityReceiver(Receiver irregularityReceiver) {
+		this.irregularityReceiver = irregularityReceiver;
+	}
+
+
+	/**
+	 * @param latenessTolerance time in milliseconds a task may start after the interval start without being reported
+	 */
+	public void setLatenessTolerance(long latenessTolerance) {
+		if (latenessTolerance < 0) {
+			throw new IllegalArgumentException("lateness tolerance (" + latenessTolerance + ") may not be negative");
+		}
+		this.latenessTolerance = latenessTolerance;
+	}
+
+
+	private void report(Irregularity irregularity) {
+		Receiver receiver = irregularityReceiver;
+		if (receiver != null) {
+			receiver.onReceive(irregularity);
+		}
+	}
+
+
+	/**
+	 * @return the current wall clock time in millis
+	 */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+
+	public int getNrofRegistrations() {
+		return registrations.size();
+	}
+
+
+	/**
+	 * Cancels all registrations. The watchdog and executor are left running.
+	 */
+	public void stop() {
+		stopped = true;
+		for (Registration registration : registrations) {
+			registration.cancel();
+		}
+	}
+}
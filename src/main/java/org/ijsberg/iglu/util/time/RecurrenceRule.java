@@ -0,0 +1,393 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.time;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Cron-like recurrence rule, compiled into bitsets.
+ * <p/>
+ * An expression consists of 5 fields: minute, hour, day of month, month and day of week
+ * (0 or 7 is Sunday). A field is a comma separated list of elements: <code>*</code>, a value,
+ * a range <code>a-b</code>, or either followed by a step <code>/s</code>. <code>a/s</code> means
+ * every <code>s</code> starting at <code>a</code>, so <code>5/15</code> in the minute field fires at
+ * 5, 20, 35 and 50 minutes past the hour. Months and days of week may be given by their first
+ * 3 letters. As in cron, if both day of month and day of week are restricted, a day matches if
+ * either matches.
+ * <p/>
+ * Minutes and hours are combined into one set of minutes of the day, so that intervals such as
+ * every 90 minutes can be expressed as well; see {@link #forInterval(int, int)}.
+ * Next and previous fire times take at most a few bitset lookups per month passed.
+ * <p/>
+ * A fire time that falls in a daylight saving gap fires as the gap ends.
+ * A fire time in a repeated hour fires once, at the first occurrence.
+ */
+public final class RecurrenceRule {
+
+	private static final String[] MONTH_NAMES = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+	private static final String[] DAY_NAMES = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+	//a matching day of month is found within 8 years, Feb 29 being the worst case
+	private static final int MAX_NROF_MONTHS_SEARCHED = 12 * 9;
+
+	private final String expression;
+	private final BitSet minutesOfDay;
+	//bit 1 to 31
+	private final int daysOfMonth;
+	//bit 1 to 12
+	private final int months;
+	//bit 0 to 6, 0 being Sunday
+	private final int daysOfWeek;
+	private final boolean daysOfMonthRestricted;
+	private final boolean daysOfWeekRestricted;
+	private final ZoneId zone;
+	private final ZoneRules zoneRules;
+
+
+	private RecurrenceRule(String expression, BitSet minutesOfDay, int daysOfMonth, int months, int daysOfWeek,
+						   boolean daysOfMonthRestricted, boolean daysOfWeekRestricted, ZoneId zone) {
+		if (minutesOfDay.isEmpty()) {
+			throw new IllegalArgumentException("rule '" + expression + "' has no minutes of the day");
+		}
+		this.expression = expression;
+		this.minutesOfDay = minutesOfDay;
+		this.daysOfMonth = daysOfMonth;
+		this.months = months;
+		this.daysOfWeek = daysOfWeek;
+		this.daysOfMonthRestricted = daysOfMonthRestricted;
+		this.daysOfWeekRestricted = daysOfWeekRestricted;
+		this.zone = zone;
+		this.zoneRules = zone.getRules();
+		if (!canMatch()) {
+			throw new IllegalArgumentException("rule '" + expression + "' never fires");
+		}
+	}
+
+
+	/**
+	 * @param expression cron-like expression such as "0/15 8-17 * * MON-FRI"
+	 * @return rule in the default time zone
+	 */
+	public static RecurrenceRule compile(String expression) {
+		return compile(expression, ZoneId.systemDefault());
+	}
+
+
+	/**
+	 * @param expression cron-like expression such as "0/15 8-17 * * MON-FRI"
+	 * @param zone time zone the expression applies to
+	 * @return compiled rule
+	 */
+	public static RecurrenceRule compile(String expression, ZoneId zone) {
+		if (expression == null) {
+			throw new IllegalArgumentException("expression may not be null");
+		}
+		String[] fields = expression.trim().split("\\s+");
+		if (fields.length != 5) {
+			throw new IllegalArgumentException("expression '" + expression + "' must consist of 5 fields");
+		}
+		long minutes = parseField(fields[0], 0, 59, null, expression);
+		long hours = parseField(fields[1], 0, 23, null, expression);
+		long daysOfMonth = parseField(fields[2], 1, 31, null, expression);
+		long months = parseField(fields[3], 1, 12, MONTH_NAMES, expression);
+		long daysOfWeek = parseField(fields[4], 0, 7, DAY_NAMES, expression);
+		if ((daysOfWeek & (1 << 7)) != 0) {
+			daysOfWeek = (daysOfWeek | 1) & 0x7F;
+		}
+		BitSet minutesOfDay = new BitSet(TimeSupport.DAY_IN_MINS);
+		for (int hour = 0; hour < 24; hour++) {
+			if ((hours & (1L << hour)) != 0) {
+				for (int minute = 0; minute < 60; minute++) {
+					if ((minutes & (1L << minute)) != 0) {
+						minutesOfDay.set(hour * 60 + minute);
+					}
+				}
+			}
+		}
+		return new RecurrenceRule(expression, minutesOfDay, (int) daysOfMonth, (int) months, (int) daysOfWeek,
+				!isWildcard(fields[2]), !isWildcard(fields[4]), zone);
+	}
+
+
+	/**
+	 * Creates a rule that fires at the starts of {@link SchedulingSupport} intervals, except in a
+	 * repeated hour: the rule fires once, at the first occurrence, whereas intervals also start
+	 * in the second occurrence.
+	 *
+	 * @param intervalInMinutes interval that divides a day in a round number of intervals
+	 * @param offsetInMinutes offset of interval starts
+	 * @return rule in the default time zone
+	 */
+	public static RecurrenceRule forInterval(int intervalInMinutes, int offsetInMinutes) {
+		return forInterval(intervalInMinutes, offsetInMinutes, ZoneId.systemDefault());
+	}
+
+
+	/**
+	 * @param intervalInMinutes interval that divides a day in a round number of intervals
+	 * @param offsetInMinutes offset of interval starts
+	 * @param zone time zone the intervals apply to
+	 * @return compiled rule
+	 */
+	public static RecurrenceRule forInterval(int intervalInMinutes, int offsetInMinutes, ZoneId zone) {
+		if (intervalInMinutes <= 0 || !SchedulingSupport.isIntervalRegularDaily(intervalInMinutes)) {
+			throw new IllegalArgumentException("interval (" + intervalInMinutes + ") must divide a day in a round number of intervals");
+		}
+		int offset = (int) (SchedulingSupport.calculateOffsetInMs(intervalInMinutes, offsetInMinutes) / TimeSupport.MINUTE_IN_MS) % intervalInMinutes;
+		BitSet minutesOfDay = new BitSet(TimeSupport.DAY_IN_MINS);
+		for (int minute = offset; minute < TimeSupport.DAY_IN_MINS; minute += intervalInMinutes) {
+			minutesOfDay.set(minute);
+		}
+		return new RecurrenceRule("every " + intervalInMinutes + " minutes, offset " + offsetInMinutes, minutesOfDay,
+				0xFFFFFFFE, 0x1FFE, 0x7F, false, false, zone);
+	}
+
+
+	private static boolean isWildcard(String field) {
+		return "*".equals(field) || "?".equals(field);
+	}
+
+
+	private static long parseField(String field, int min, int max, String[] names, String expression) {
+		long bits = 0;
+		for (String element : field.split(",")) {
+			int step = 1;
+			int slash = element.indexOf('/');
+			if (slash >= 0) {
+				step = parseValue(element.substring(slash + 1), 1, max - min + 1, null, expression);
+				element = element.substring(0, slash);
+			}
+			int from;
+			int to;
+			if (isWildcard(element)) {
+				from = min;
+				to = max;
+			}
+			else {
+				int dash = element.indexOf('-');
+				if (dash > 0) {
+					from = parseValue(element.substring(0, dash), min, max, names, expression);
+					to = parseValue(element.substring(dash + 1), min, max, names, expression);
+					if (to < from) {
+						throw new IllegalArgumentException("range '" + element + "' in expression '" + expression + "' is descending");
+					}
+				}
+				else {
+					from = parseValue(element, min, max, names, expression);
+					to = slash >= 0 ? max : from;
+				}
+			}
+			for (int value = from; value <= to; value += step) {
+				bits |= 1L << value;
+			}
+		}
+		return bits;
+	}
+
+
+	private static int parseValue(String value, int min, int max, String[] names, String expression) {
+		if (names != null) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equalsIgnoreCase(value)) {
+					//months start at 1, days of week at 0
+					return i + min;
+				}
+			}
+		}
+		int result;
+		try {
+			result = Integer.parseInt(value);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("value '" + value + "' in expression '" + expression + "' is not a number", e);
+		}
+		if (result < min || result > max) {
+			throw new IllegalArgumentException("value " + result + " in expression '" + expression + "' must be in range " + min + "-" + max);
+		}
+		return result;
+	}
+
+
+	private boolean canMatch() {
+		if (!daysOfMonthRestricted || daysOfWeekRestricted) {
+			//every week has a matching day
+			return true;
+		}
+		for (int month = 1; month <= 12; month++) {
+			if ((months & (1 << month)) != 0 && (daysOfMonth & ((1 << (maxDayOfMonth(month) + 1)) - 2)) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	private static int maxDayOfMonth(int month) {
+		return month == 2 ? 29 : month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+	}
+
+
+	private boolean isDayMatching(LocalDate date) {
+		boolean dayOfMonthMatches = (daysOfMonth & (1 << date.getDayOfMonth())) != 0;
+		boolean dayOfWeekMatches = (daysOfWeek & (1 << (date.getDayOfWeek().getValue() % 7))) != 0;
+		if (daysOfMonthRestricted && daysOfWeekRestricted) {
+			return dayOfMonthMatches || dayOfWeekMatches;
+		}
+		return dayOfMonthMatches && dayOfWeekMatches;
+	}
+
+
+	private boolean isMonthMatching(LocalDate date) {
+		return (months & (1 << date.getMonthValue())) != 0;
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @return the first fire time after the given time in millis
+	 */
+	public long getNextFireTime(long time) {
+		long fireTime = time;
+		do {
+			//start searching in the minute after the last candidate
+			LocalDateTime start = toLocalDateTime(Math.floorDiv(fireTime, TimeSupport.MINUTE_IN_MS) * TimeSupport.MINUTE_IN_MS).plusMinutes(1);
+			fireTime = toEpochMillis(findNext(start.toLocalDate(), start.getHour() * 60 + start.getMinute()));
+		}
+		while (fireTime <= time);
+		return fireTime;
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @return the last fire time before the given time in millis
+	 */
+	public long getPreviousFireTime(long time) {
+		long fireTime = time;
+		do {
+			//start searching in the minute before the last candidate, unless it is within that minute
+			long floor = Math.floorDiv(fireTime, TimeSupport.MINUTE_IN_MS) * TimeSupport.MINUTE_IN_MS;
+			long startTime = floor == fireTime ? floor - TimeSupport.MINUTE_IN_MS : floor;
+			LocalDateTime start = toLocalDateTime(startTime);
+			List<ZoneOffset> offsets = zoneRules.getValidOffsets(start);
+			if (offsets.size() > 1 && !offsets.get(0).equals(zoneRules.getOffset(Instant.ofEpochMilli(startTime)))) {
+				//in the second occurrence of a repeated hour, all of which fired in the first occurrence
+				start = zoneRules.getTransition(start).getDateTimeBefore().minusMinutes(1);
+			}
+			fireTime = toEpochMillis(findPrevious(start.toLocalDate(), start.getHour() * 60 + start.getMinute()));
+		}
+		while (fireTime >= time);
+		return fireTime;
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @return true if the rule fires in the minute the given time is in
+	 */
+	public boolean matches(long time) {
+		LocalDateTime localTime = toLocalDateTime(time);
+		LocalDate date = localTime.toLocalDate();
+		return isMonthMatching(date) && isDayMatching(date) && minutesOfDay.get(localTime.getHour() * 60 + localTime.getMinute());
+	}
+
+
+	private LocalDateTime findNext(LocalDate date, int minuteOfDay) {
+		for (int i = 0; i < MAX_NROF_MONTHS_SEARCHED; i++) {
+			if (isMonthMatching(date)) {
+				int lengthOfMonth = date.lengthOfMonth();
+				for (int day = date.getDayOfMonth(); day <= lengthOfMonth; day++) {
+					LocalDate candidate = date.withDayOfMonth(day);
+					if (isDayMatching(candidate)) {
+						int minute = minutesOfDay.nextSetBit(minuteOfDay);
+						if (minute >= 0) {
+							return candidate.atTime(minute / 60, minute % 60);
+						}
+					}
+					minuteOfDay = 0;
+				}
+			}
+			date = date.withDayOfMonth(1).plusMonths(1);
+			minuteOfDay = 0;
+		}
+		throw new IllegalStateException("rule '" + expression + "' does not fire within " + MAX_NROF_MONTHS_SEARCHED + " months");
+	}
+
+
+	private LocalDateTime findPrevious(LocalDate date, int minuteOfDay) {
+		for (int i = 0; i < MAX_NROF_MONTHS_SEARCHED; i++) {
+			if (isMonthMatching(date)) {
+				for (int day = date.getDayOfMonth(); day >= 1; day--) {
+					LocalDate candidate = date.withDayOfMonth(day);
+					if (isDayMatching(candidate)) {
+						int minute = minutesOfDay.previousSetBit(minuteOfDay);
+						if (minute >= 0) {
+							return candidate.atTime(minute / 60, minute % 60);
+						}
+					}
+					minuteOfDay = TimeSupport.DAY_IN_MINS - 1;
+				}
+			}
+			date = date.withDayOfMonth(1).minusDays(1);
+			minuteOfDay = TimeSupport.DAY_IN_MINS - 1;
+		}
+		throw new IllegalStateException("rule '" + expression + "' did not fire within " + MAX_NROF_MONTHS_SEARCHED + " months");
+	}
+
+
+	private LocalDateTime toLocalDateTime(long time) {
+		long seconds = Math.floorDiv(time, 1000);
+		ZoneOffset offset = zoneRules.getOffset(Instant.ofEpochSecond(seconds));
+		return LocalDateTime.ofEpochSecond(seconds, 0, offset);
+	}
+
+
+	private long toEpochMillis(LocalDateTime localTime) {
+		List<ZoneOffset> offsets = zoneRules.getValidOffsets(localTime);
+		if (offsets.isEmpty()) {
+			//daylight saving gap
+			ZoneOffsetTransition transition = zoneRules.getTransition(localTime);
+			return transition.getInstant().toEpochMilli();
+		}
+		return localTime.toEpochSecond(offsets.get(0)) * 1000;
+	}
+
+
+	public ZoneId getZone() {
+		return zone;
+	}
+
+
+	public String getExpression() {
+		return expression;
+	}
+
+
+	public String toString() {
+		return expression + " (" + zone + ")";
+	}
+}
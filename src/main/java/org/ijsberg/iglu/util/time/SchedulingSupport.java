@@ -22,6 +22,9 @@ package org.ijsberg.iglu.util.time;
 /*
  * Support scheduling in a cron-like manner.
  * Intervals are assumed to divide a day in a round number of events.
+ * Interval starts are local times in the default time zone, at the UTC offset that applies to them.
+ * An interval start that falls in a daylight saving gap starts when the gap ends;
+ * one that falls in a repeated hour starts twice.
  */
 
 public class SchedulingSupport extends TimeSupport {
@@ -32,7 +35,7 @@ public class SchedulingSupport extends TimeSupport {
 	 * @return the number of passed intervals since midnight in local time zone
 	 */
 	public static int getIntervalsSinceMidnight(long time, int intervalInMinutes) {
-		time += LOCAL_UTC_OFFSET;
+		time += UtcOffsetProvider.getDefault().getUtcOffset(time);
 		return (int) (time - (DAY_IN_MS * ((time + HALF_MINUTE_IN_MS) / (DAY_IN_MS)))) / (MINUTE_IN_MS * intervalInMinutes);
 	}
 
@@ -86,8 +89,26 @@ public class SchedulingSupport extends TimeSupport {
 	public static long getPreviousIntervalStart(long time, int intervalInMinutes, int offsetInMinutes) {
 		long interval = MINUTE_IN_MS * intervalInMinutes;
 		long offset = calculateOffsetInMs(intervalInMinutes, offsetInMinutes);
-		
-		return (interval * ((time + LOCAL_UTC_OFFSET - offset) / (interval))) + offset - LOCAL_UTC_OFFSET;
+		UtcOffsetProvider offsetProvider = UtcOffsetProvider.getDefault();
+		UtcOffsetProvider.Period period = offsetProvider.getPeriod(time);
+		long utcOffset = period.getUtcOffset();
+
+		long localStart = floorToInterval(time + utcOffset, interval, offset);
+		if (localStart - utcOffset >= period.getStart()) {
+			return localStart - utcOffset;
+		}
+		//the interval started before the last offset transition
+		long transition = period.getStart();
+		long previousUtcOffset = offsetProvider.getUtcOffset(transition - 1);
+		if (localStart >= transition + previousUtcOffset) {
+			//interval start in a gap
+			return transition;
+		}
+		return floorToInterval(transition - 1 + previousUtcOffset, interval, offset) - previousUtcOffset;
+	}
+
+	private static long floorToInterval(long localTime, long interval, long offset) {
+		return interval * Math.floorDiv(localTime - offset, interval) + offset;
 	}
 
 	/**
@@ -111,7 +132,24 @@ public class SchedulingSupport extends TimeSupport {
 	 */
 	public static long getNextIntervalStart(long time, int intervalInMinutes, int offsetInMinutes) {
 		long interval = MINUTE_IN_MS * intervalInMinutes;
-		return getPreviousIntervalStart(time, intervalInMinutes, offsetInMinutes) + interval;
+		long offset = calculateOffsetInMs(intervalInMinutes, offsetInMinutes);
+		UtcOffsetProvider offsetProvider = UtcOffsetProvider.getDefault();
+		UtcOffsetProvider.Period period = offsetProvider.getPeriod(time);
+		long utcOffset = period.getUtcOffset();
+
+		long localStart = floorToInterval(time + utcOffset, interval, offset) + interval;
+		if (localStart - utcOffset < period.getEnd()) {
+			return localStart - utcOffset;
+		}
+		//the next interval starts after the next offset transition
+		long transition = period.getEnd();
+		long nextUtcOffset = offsetProvider.getUtcOffset(transition);
+		if (localStart < transition + nextUtcOffset) {
+			//interval start in a gap
+			return transition;
+		}
+		//first interval start in local time after the transition, which may be repeated local time
+		return floorToInterval(transition - 1 + nextUtcOffset, interval, offset) + interval - nextUtcOffset;
 	}
 
 	/**
@@ -152,7 +190,7 @@ public class SchedulingSupport extends TimeSupport {
 	 */
 	public static boolean isWithinMinuteOfIntervalStart(long time, int intervalInMinutes, int offsetInMinutes) {
 	
-		time += LOCAL_UTC_OFFSET;
+		time += UtcOffsetProvider.getDefault().getUtcOffset(time);
 		long interval = MINUTE_IN_MS * intervalInMinutes;
 		long offset = calculateOffsetInMs(intervalInMinutes, offsetInMinutes);
 	
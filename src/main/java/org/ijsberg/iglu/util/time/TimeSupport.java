@@ -22,6 +22,7 @@ package org.ijsberg.iglu.util.time;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
@@ -50,33 +51,63 @@ public abstract class TimeSupport {
 	}
 
 	public static Date getTimeStampExcel(String timestampStr) throws ParseException {
+		long time = TimestampCodec.getDefault(TimestampCodec.Layout.EXCEL).parse(timestampStr, Long.MIN_VALUE);
+		if (isInCodecRange(time)) {
+			return new Date(time);
+		}
+		//lenient parsing
 		timestampStr = timestampStr.replaceAll("T"," ");
 		return new SimpleDateFormat(TIMESTAMP_FORMAT_EXCEL).parse(timestampStr);
 	}
 
 	public static String getTimeStampExcel(Date timestamp) {
-		return new SimpleDateFormat(TIMESTAMP_FORMAT_EXCEL).format(timestamp);
+		return getTimeStampExcel(timestamp.getTime());
 	}
 
 	public static String getTimeStampExcel(long timestamp) {
-		return getTimeStampExcel(new Date(timestamp));
+		return format(TimestampCodec.Layout.EXCEL, timestamp);
 	}
 
 	public static String getTimestampFormatIso8061(Date timestamp) {
-//		String timeStampExcel = TimeSupport.getTimeStampExcel(timestamp);
-		return new SimpleDateFormat(TIMESTAMP_FORMAT_ISO8061).format(timestamp);
+		return format(TimestampCodec.Layout.ISO_8601, timestamp.getTime());
 	}
 
 	public static Date getTimeStampIso8061(String timestampStr) throws ParseException {
+		long time = TimestampCodec.getDefault(TimestampCodec.Layout.ISO_8601).parse(timestampStr, Long.MIN_VALUE);
+		if (isInCodecRange(time)) {
+			return new Date(time);
+		}
+		//lenient parsing
 		return new SimpleDateFormat(TIMESTAMP_FORMAT_ISO8061).parse(timestampStr);
 	}
 
 	public static String getLocalDateFormatted(Instant timestamp, String simpleDateFormat) {
 		LocalDateTime localDateTime = LocalDateTime.ofInstant(timestamp, ZoneOffset.UTC);
 		Date date = Date.from(localDateTime.atZone(ZoneId.systemDefault()).toInstant());
+		TimestampCodec.Layout layout = TimestampCodec.Layout.forPattern(simpleDateFormat);
+		if (layout != null) {
+			return format(layout, date.getTime());
+		}
 		return new SimpleDateFormat(simpleDateFormat).format(date);
 	}
 
+	private static String format(TimestampCodec.Layout layout, long time) {
+		if (isInCodecRange(time)) {
+			return TimestampCodec.getDefault(layout).format(time);
+		}
+		return new SimpleDateFormat(layout.getPattern()).format(new Date(time));
+	}
+
+	/**
+	 * The codec handles years up to 9999 in the proleptic Gregorian calendar,
+	 * whereas SimpleDateFormat uses the Julian calendar before the Gregorian cutover.
+	 *
+	 * @return true if the codec formats and parses the time as SimpleDateFormat does
+	 */
+	private static boolean isInCodecRange(long time) {
+		return time >= CODEC_MIN_TIME && time < CODEC_MAX_TIME;
+	}
+
 
 	public static final int SECOND_IN_MS = 1000;
 	public static final int MINUTE_IN_MS = 60 * SECOND_IN_MS;
@@ -85,6 +116,10 @@ public abstract class TimeSupport {
 	public static final int DAY_IN_MS = 24 * HOUR_IN_MS;
 	public static final int DAY_IN_MINS = 24 * 60;
 
+	//a day of margin for any UTC offset
+	private static final long CODEC_MIN_TIME = new GregorianCalendar().getGregorianChange().getTime() + DAY_IN_MS;
+	private static final long CODEC_MAX_TIME = LocalDate.of(9999, 12, 31).toEpochDay() * DAY_IN_MS;
+
 	public static final long LOCAL_UTC_OFFSET = getLocalUtcOffset();
 	public static final long LOCAL_UTC_OFFSET_IN_MINUTES = LOCAL_UTC_OFFSET / MINUTE_IN_MS;
 
@@ -113,14 +148,7 @@ public abstract class TimeSupport {
 	 * @return true if the given date happens to be today
 	 */
 	public static boolean isToday(Date date) {
-		Calendar calInput = new GregorianCalendar();
-		calInput.setTime(date);
-
-		Calendar calToday = new GregorianCalendar();
-		calToday.setTime(new Date());
-
-		return calInput.get(Calendar.DAY_OF_YEAR) == calToday.get(Calendar.DAY_OF_YEAR) &&
-				calInput.get(Calendar.YEAR) == calToday.get(Calendar.YEAR);
+		return EpochDayCalculator.getDefault().isSameDay(date.getTime(), System.currentTimeMillis());
 	}
 
 	/**
@@ -128,14 +156,8 @@ public abstract class TimeSupport {
 	 * @return true if the given date is on a day earlier than today
 	 */
 	public static boolean isBeforeToday(Date date) {
-		Calendar calInput = new GregorianCalendar();
-		calInput.setTime(date);
-
-		Calendar calToday = new GregorianCalendar();
-		calToday.setTime(new Date());
-
-		//it doesn't matter if you multiply nr of years with 365.25 or 1000
-		return (calInput.get(Calendar.YEAR) * 1000 + calInput.get(Calendar.DAY_OF_YEAR)) < (calToday.get(Calendar.YEAR) * 1000 + calToday.get(Calendar.DAY_OF_YEAR));
+		EpochDayCalculator calculator = EpochDayCalculator.getDefault();
+		return calculator.getEpochDay(date.getTime()) < calculator.getEpochDay(System.currentTimeMillis());
 	}
 
 
@@ -144,14 +166,8 @@ public abstract class TimeSupport {
 	 * @return true if the given date is on a day later than today
 	 */
 	public static boolean isAfterToday(Date date) {
-		Calendar calInput = new GregorianCalendar();
-		calInput.setTime(date);
-
-		Calendar calToday = new GregorianCalendar();
-		calToday.setTime(new Date());
-
-		//it doesn't make any difference if you multiply nr of years with 365.25 or 1000
-		return (calInput.get(Calendar.YEAR) * 1000 + calInput.get(Calendar.DAY_OF_YEAR)) > (calToday.get(Calendar.YEAR) * 1000 + calToday.get(Calendar.DAY_OF_YEAR));
+		EpochDayCalculator calculator = EpochDayCalculator.getDefault();
+		return calculator.getEpochDay(date.getTime()) > calculator.getEpochDay(System.currentTimeMillis());
 	}
 
 
@@ -161,7 +177,7 @@ public abstract class TimeSupport {
 	 * @return true if the two specified times are part of the same day
 	 */
 	public static boolean isSameDay(long time1, long time2) {
-		return isSameDay(new Date(time1), new Date(time2));
+		return EpochDayCalculator.getDefault().isSameDay(time1, time2);
 	}
 
 	/**
@@ -170,13 +186,7 @@ public abstract class TimeSupport {
 	 * @return true if the two specified dates are part of the same day
 	 */
 	public static boolean isSameDay(Date date1, Date date2) {
-		GregorianCalendar cal1 = new GregorianCalendar();
-		cal1.setTime(date1);
-		GregorianCalendar cal2 = new GregorianCalendar();
-		cal2.setTime(date2);
-
-		return (cal1.get(Calendar.YEAR) == cal2.get(Calendar.YEAR) &&
-				cal1.get(Calendar.DAY_OF_YEAR) == cal2.get(Calendar.DAY_OF_YEAR));
+		return isSameDay(date1.getTime(), date2.getTime());
 	}
 
 	/**
@@ -185,12 +195,7 @@ public abstract class TimeSupport {
 	 * @return true if the two specified times are part of the same week
 	 */
 	public static boolean isSameWeek(long time1, long time2) {
-		GregorianCalendar cal1 = new GregorianCalendar();
-		cal1.setTime(new Date(time1));
-		GregorianCalendar cal2 = new GregorianCalendar();
-		cal2.setTime(new Date(time2));
-
-		return (cal1.get(Calendar.WEEK_OF_YEAR) == cal2.get(Calendar.WEEK_OF_YEAR));
+		return EpochDayCalculator.getDefault().isSameWeek(time1, time2);
 	}
 	
 	/**
@@ -225,13 +230,15 @@ public abstract class TimeSupport {
 	}
 
 	public static Date floorToMidnight(Date date) {
+		return new Date(floorToMidnight(date.getTime()));
+	}
 
-		Calendar calInput = new GregorianCalendar();
-		calInput.setTime(date);
-
-		Calendar calOutput = new GregorianCalendar(calInput.get(Calendar.YEAR), calInput.get(Calendar.MONTH), calInput.get(Calendar.DAY_OF_MONTH), 0, 0, 0);
-
-		return calOutput.getTime();
+	/**
+	 * @param time time in millis
+	 * @return the time the day starts in millis in the default time zone
+	 */
+	public static long floorToMidnight(long time) {
+		return EpochDayCalculator.getDefault().getStartOfDay(time);
 	}
 
 	public static List<Date> getDaysInBetween(Date periodStart, Date periodEnd) {
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.time;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe formatter and parser for fixed timestamp layouts.
+ * <p/>
+ * Digits are written directly into a char array or appended to an {@link Appendable}.
+ * The date and time up to the minute of the last formatted time are cached,
+ * since consecutive timestamps, such as in logs, tend to fall in the same minute.
+ * The cache is an immutable object in a volatile field, so no locks or thread locals are needed.
+ * <p/>
+ * Parsing is strict; {@link #parse(CharSequence, long)} reports a malformed timestamp
+ * without throwing an exception. Date and time must be separated as in the layout.
+ * Local times in a daylight saving gap or overlap resolve as in {@link java.util.GregorianCalendar}.
+ */
+public final class TimestampCodec {
+
+	/**
+	 * Supported layouts.
+	 */
+	public enum Layout {
+		EXCEL(TimeSupport.TIMESTAMP_FORMAT_EXCEL, ' ', 16),
+		ISO_8601(TimeSupport.TIMESTAMP_FORMAT_ISO8061, 'T', 16),
+		ISO_8601_SECONDS("yyyy-MM-dd'T'HH:mm:ss", 'T', 19),
+		ISO_8601_MILLIS("yyyy-MM-dd'T'HH:mm:ss.SSS", 'T', 23);
+
+		private final String pattern;
+		private final char separator;
+		private final int length;
+
+		Layout(String pattern, char separator, int length) {
+			this.pattern = pattern;
+			this.separator = separator;
+			this.length = length;
+		}
+
+		/**
+		 * @return equivalent SimpleDateFormat pattern
+		 */
+		public String getPattern() {
+			return pattern;
+		}
+
+		/**
+		 * @return number of characters of a timestamp
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * @param pattern SimpleDateFormat pattern
+		 * @return layout for the pattern or null if not supported
+		 */
+		public static Layout forPattern(String pattern) {
+			for (Layout layout : values()) {
+				if (layout.pattern.equals(pattern)) {
+					return layout;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final int MINUTE_LENGTH = 16;
+	private static final long INVALID = Long.MIN_VALUE;
+
+	private static final AtomicReferenceArray<TimestampCodec> defaultCodecs = new AtomicReferenceArray<TimestampCodec>(Layout.values().length);
+
+	private final Layout layout;
+	private final EpochDayCalculator calculator;
+	private volatile CachedMinute cachedMinute;
+
+
+	/**
+	 * Formatted date and time up to the minute.
+	 */
+	private static final class CachedMinute {
+		//minutes since 1970 UTC
+		private final long minute;
+		private final long utcOffset;
+		private final char[] chars;
+
+		private CachedMinute(long minute, long utcOffset, char[] chars) {
+			this.minute = minute;
+			this.utcOffset = utcOffset;
+			this.chars = chars;
+		}
+	}
+
+
+	/**
+	 * @param layout timestamp layout
+	 * @param zone time zone of timestamps
+	 */
+	public TimestampCodec(Layout layout, ZoneId zone) {
+		this(layout, new EpochDayCalculator(zone));
+	}
+
+
+	private TimestampCodec(Layout layout, EpochDayCalculator calculator) {
+		if (layout == null) {
+			throw new IllegalArgumentException("layout may not be null");
+		}
+		this.layout = layout;
+		this.calculator = calculator;
+	}
+
+
+	/**
+	 * @param layout timestamp layout
+	 * @return shared codec for the default time zone
+	 * @see EpochDayCalculator#getDefault()
+	 */
+	public static TimestampCodec getDefault(Layout layout) {
+		TimestampCodec codec = defaultCodecs.get(layout.ordinal());
+		if (codec == null || codec.calculator != EpochDayCalculator.getDefault()) {
+			codec = new TimestampCodec(layout, EpochDayCalculator.getDefault());
+			defaultCodecs.set(layout.ordinal(), codec);
+		}
+		return codec;
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @param buffer buffer that has room for {@link Layout#getLength()} characters from offset
+	 * @param offset position of the first character
+	 * @return position after the last character
+	 */
+	public int format(long time, char[] buffer, int offset) {
+		CachedMinute minute = getMinute(time);
+		System.arraycopy(minute.chars, 0, buffer, offset, MINUTE_LENGTH);
+		if (layout.length > MINUTE_LENGTH) {
+			int millisOfMinute = (int) Math.floorMod(time + minute.utcOffset, (long) TimeSupport.MINUTE_IN_MS);
+			buffer[offset + 16] = ':';
+			writeDigits(millisOfMinute / 1000, 2, buffer, offset + 17);
+			if (layout.length > 19) {
+				buffer[offset + 19] = '.';
+				writeDigits(millisOfMinute % 1000, 3, buffer, offset + 20);
+			}
+		}
+		return offset + layout.length;
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @param out destination of the timestamp
+	 * @throws IOException
+	 */
+	public void format(long time, Appendable out) throws IOException {
+		CachedMinute minute = getMinute(time);
+		for (char c : minute.chars) {
+			out.append(c);
+		}
+		if (layout.length > MINUTE_LENGTH) {
+			int millisOfMinute = (int) Math.floorMod(time + minute.utcOffset, (long) TimeSupport.MINUTE_IN_MS);
+			out.append(':');
+			appendDigits(millisOfMinute / 1000, 2, out);
+			if (layout.length > 19) {
+				out.append('.');
+				appendDigits(millisOfMinute % 1000, 3, out);
+			}
+		}
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @return timestamp
+	 */
+	public String format(long time) {
+		char[] buffer = new char[layout.length];
+		format(time, buffer, 0);
+		return new String(buffer);
+	}
+
+
+	private CachedMinute getMinute(long time) {
+		long minute = Math.floorDiv(time, TimeSupport.MINUTE_IN_MS);
+		CachedMinute cached = cachedMinute;
+		if (cached != null && cached.minute == minute) {
+			return cached;
+		}
+		long utcOffset = calculator.getUtcOffset(time);
+		long localTime = time + utcOffset;
+		long epochDay = Math.floorDiv(localTime, TimeSupport.DAY_IN_MS);
+		int minuteOfDay = (int) ((localTime - epochDay * TimeSupport.DAY_IN_MS) / TimeSupport.MINUTE_IN_MS);
+
+		//civil date from days since 1970-01-01, proleptic Gregorian calendar
+		long days = epochDay + 719468;
+		long era = Math.floorDiv(days, 146097);
+		long dayOfEra = days - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+		int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		if (year < 0 || year > 9999) {
+			throw new IllegalArgumentException("year " + year + " can not be formatted in 4 digits");
+		}
+
+		char[] chars = new char[MINUTE_LENGTH];
+		writeDigits((int) year, 4, chars, 0);
+		chars[4] = '-';
+		writeDigits(month, 2, chars, 5);
+		chars[7] = '-';
+		writeDigits(day, 2, chars, 8);
+		chars[10] = layout.separator;
+		writeDigits(minuteOfDay / 60, 2, chars, 11);
+		chars[13] = ':';
+		writeDigits(minuteOfDay % 60, 2, chars, 14);
+		cached = new CachedMinute(minute, utcOffset, chars);
+		//with offsets in seconds, as in historic local mean time, a local minute spans 2 UTC minutes
+		if (utcOffset % TimeSupport.MINUTE_IN_MS == 0) {
+			cachedMinute = cached;
+		}
+		return cached;
+	}
+
+
+	private static void writeDigits(int value, int nrofDigits, char[] buffer, int offset) {
+		for (int i = offset + nrofDigits - 1; i >= offset; i--) {
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+	}
+
+
+	private static void appendDigits(int value, int nrofDigits, Appendable out) throws IOException {
+		for (int divisor = nrofDigits == 3 ? 100 : 10; divisor > 0; divisor /= 10) {
+			out.append((char) ('0' + (value / divisor) % 10));
+		}
+	}
+
+
+	/**
+	 * @param text timestamp
+	 * @return time in millis
+	 * @throws ParseException if the text does not match the layout
+	 */
+	public long parse(CharSequence text) throws ParseException {
+		long time = parseTime(text);
+		if (time == INVALID) {
+			throw new ParseException("timestamp '" + text + "' does not match " + layout.pattern, 0);
+		}
+		return time;
+	}
+
+
+	/**
+	 * @param text timestamp
+	 * @param defaultValue value returned if the text does not match the layout
+	 * @return time in millis or default value
+	 */
+	public long parse(CharSequence text, long defaultValue) {
+		long time = parseTime(text);
+		return time == INVALID ? defaultValue : time;
+	}
+
+
+	private long parseTime(CharSequence text) {
+		if (text == null || text.length() != layout.length) {
+			return INVALID;
+		}
+		int year = parseDigits(text, 0, 4);
+		int month = parseDigits(text, 5, 2);
+		int day = parseDigits(text, 8, 2);
+		int hour = parseDigits(text, 11, 2);
+		int minute = parseDigits(text, 14, 2);
+		int second = 0;
+		int millis = 0;
+		char separator = text.charAt(10);
+		if (text.charAt(4) != '-' || text.charAt(7) != '-' || separator != layout.separator || text.charAt(13) != ':') {
+			return INVALID;
+		}
+		if (layout.length > MINUTE_LENGTH) {
+			if (text.charAt(16) != ':') {
+				return INVALID;
+			}
+			second = parseDigits(text, 17, 2);
+			if (layout.length > 19) {
+				if (text.charAt(19) != '.') {
+					return INVALID;
+				}
+				millis = parseDigits(text, 20, 3);
+			}
+		}
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > getLengthOfMonth(year, month) ||
+				hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+			return INVALID;
+		}
+
+		//days since 1970-01-01 from civil date, proleptic Gregorian calendar
+		long shiftedYear = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(shiftedYear, 400);
+		long yearOfEra = shiftedYear - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		long epochDay = era * 146097 + dayOfEra - 719468;
+
+		long localTime = epochDay * TimeSupport.DAY_IN_MS + hour * (long) TimeSupport.HOUR_IN_MS +
+				minute * (long) TimeSupport.MINUTE_IN_MS + second * 1000L + millis;
+		return localTime - getUtcOffsetOfLocalTime(localTime);
+	}
+
+
+	/**
+	 * Resolves a local time in a gap or overlap to the smaller offset, as GregorianCalendar does:
+	 * the offset before the gap and the offset after the overlap.
+	 */
+	private long getUtcOffsetOfLocalTime(long localTime) {
+		long offsetBefore = calculator.getUtcOffset(localTime - TimeSupport.DAY_IN_MS);
+		long offsetAfter = calculator.getUtcOffset(localTime + TimeSupport.DAY_IN_MS);
+		if (offsetBefore == offsetAfter) {
+			return offsetBefore;
+		}
+		boolean beforeValid = calculator.getUtcOffset(localTime - offsetBefore) == offsetBefore;
+		boolean afterValid = calculator.getUtcOffset(localTime - offsetAfter) == offsetAfter;
+		if (beforeValid != afterValid) {
+			return beforeValid ? offsetBefore : offsetAfter;
+		}
+		return Math.min(offsetBefore, offsetAfter);
+	}
+
+
+	/**
+	 * @return value of the digits or -1 if a character is not a digit
+	 */
+	private static int parseDigits(CharSequence text, int offset, int nrofDigits) {
+		int value = 0;
+		for (int i = offset; i < offset + nrofDigits; i++) {
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+
+	private static int getLengthOfMonth(int year, int month) {
+		if (month == 2) {
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		}
+		return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+	}
+
+
+	public Layout getLayout() {
+		return layout;
+	}
+
+
+	public ZoneId getZone() {
+		return calculator.getZone();
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.time;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Provides the UTC offset of a time zone at a given time.
+ * <p/>
+ * The period between the last and the next offset transition, such as a daylight saving
+ * switch, is cached in an immutable object. As long as times fall within the period,
+ * a lookup is a field read and two comparisons. Once time passes the next transition,
+ * the cache is replaced without locking.
+ * <p/>
+ * The last future period looked up, typically the one after the next transition, is cached
+ * separately, so that lookups ahead of time do not evict the current period.
+ */
+public final class UtcOffsetProvider {
+
+	private static volatile UtcOffsetProvider defaultProvider;
+
+	private final ZoneId zone;
+	private final ZoneRules zoneRules;
+	//period that contains the current time
+	private volatile Period currentPeriod;
+	//last period looked up that lies ahead of the current period, or null
+	private volatile Period futurePeriod;
+
+
+	/**
+	 * Period in which the UTC offset is constant.
+	 */
+	public static final class Period {
+		private final long start;
+		private final long end;
+		private final long utcOffset;
+
+		private Period(long start, long end, long utcOffset) {
+			this.start = start;
+			this.end = end;
+			this.utcOffset = utcOffset;
+		}
+
+		/**
+		 * @return time of the transition that starts the period in millis, or Long.MIN_VALUE
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * @return time of the next transition in millis, or Long.MAX_VALUE
+		 */
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * @return offset from UTC in millis
+		 */
+		public long getUtcOffset() {
+			return utcOffset;
+		}
+
+		public boolean contains(long time) {
+			return time >= start && time < end;
+		}
+
+		public String toString() {
+			return "offset " + utcOffset + "ms from " + start + " until " + end;
+		}
+	}
+
+
+	/**
+	 * @param zone time zone
+	 */
+	public UtcOffsetProvider(ZoneId zone) {
+		if (zone == null) {
+			throw new IllegalArgumentException("zone may not be null");
+		}
+		this.zone = zone;
+		this.zoneRules = zone.getRules();
+		this.currentPeriod = createPeriod(System.currentTimeMillis());
+	}
+
+
+	/**
+	 * @return provider for the default time zone
+	 */
+	public static UtcOffsetProvider getDefault() {
+		UtcOffsetProvider provider = defaultProvider;
+		if (provider == null) {
+			provider = new UtcOffsetProvider(ZoneId.systemDefault());
+			defaultProvider = provider;
+		}
+		return provider;
+	}
+
+
+	/**
+	 * Makes {@link #getDefault()} pick up a changed default time zone.
+	 */
+	public static void resetDefault() {
+		defaultProvider = null;
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @return period of constant offset the time is in
+	 */
+	public Period getPeriod(long time) {
+		Period period = currentPeriod;
+		if (period.contains(time)) {
+			return period;
+		}
+		Period future = futurePeriod;
+		if (future != null && future.contains(time)) {
+			return future;
+		}
+		period = createPeriod(time);
+		if (period.contains(System.currentTimeMillis())) {
+			currentPeriod = period;
+		}
+		else if (period.start >= currentPeriod.end) {
+			futurePeriod = period;
+		}
+		return period;
+	}
+
+
+	/**
+	 * @param time time in millis
+	 * @return offset from UTC in millis
+	 */
+	public long getUtcOffset(long time) {
+		return getPeriod(time).utcOffset;
+	}
+
+
+	/**
+	 * @return current offset from UTC in millis
+	 */
+	public long getUtcOffset() {
+		return getUtcOffset(System.currentTimeMillis());
+	}
+
+
+	private Period createPeriod(long time) {
+		Instant instant = Instant.ofEpochMilli(time);
+		//a transition at the given time starts the period
+		ZoneOffsetTransition previous = zoneRules.previousTransition(instant.plusMillis(1));
+		ZoneOffsetTransition next = zoneRules.nextTransition(instant);
+		return new Period(previous != null ? previous.toEpochSecond() * 1000 : Long.MIN_VALUE,
+				next != null ? next.toEpochSecond() * 1000 : Long.MAX_VALUE,
+				zoneRules.getOffset(instant).getTotalSeconds() * 1000L);
+	}
+
+
+	public ZoneId getZone() {
+		return zone;
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.collection;
+
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ListMapTest {
+
+	@Test
+	public void testSizeFollowsListModifications() throws Exception {
+		ListHashMap<String, Integer> map = new ListHashMap<>();
+		map.put("a", 1, 2, 3, 4);
+		map.put("b", 5);
+		assertEquals(5, map.size());
+
+		List<Integer> list = map.get("a");
+		list.subList(1, 3).clear();
+		assertEquals(3, map.size());
+		Iterator<Integer> iterator = list.iterator();
+		iterator.next();
+		iterator.remove();
+		assertEquals(2, map.size());
+		list.add(6);
+		list.addAll(Arrays.asList(7, 8));
+		list.removeIf(value -> value == 7);
+		assertEquals(4, map.size());
+		assertEquals(Arrays.asList(4, 6, 8), map.get("a"));
+
+		map.removeFirst("b");
+		assertEquals(3, map.size());
+		List<Integer> removed = map.removeAll("a");
+		assertEquals(0, map.size());
+		//detached list no longer counts
+		removed.add(9);
+		assertEquals(0, map.size());
+
+		map.put("c", 10);
+		map.clear();
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	public void testGetByIndex() throws Exception {
+		List<AbstractListMap<Integer, Integer>> maps = Arrays.<AbstractListMap<Integer, Integer>>asList(
+				new ListHashMap<Integer, Integer>(), new ListLinkedHashMap<Integer, Integer>(), new ListTreeMap<Integer, Integer>());
+		Random random = new Random(27);
+		for(AbstractListMap<Integer, Integer> map : maps) {
+			for(int i = 0; i < 500; i++) {
+				int key = random.nextInt(200);
+				if(random.nextInt(4) == 0) {
+					map.removeAll(key);
+				} else {
+					map.put(key, i);
+				}
+				if(i % 7 == 0) {
+					assertIndexMatchesKeySet(map);
+				}
+			}
+			assertIndexMatchesKeySet(map);
+		}
+	}
+
+	@Test
+	public void testRemoveManyKeysAfterGetByIndex() throws Exception {
+		ListHashMap<Integer, Integer> map = new ListHashMap<>();
+		for(int i = 0; i < 200000; i++) {
+			map.put(i, i);
+		}
+		assertEquals(Arrays.asList(0), map.getByIndex(0));
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < 20000; i++) {
+			map.removeAll(i * 10);
+		}
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(180000, map.size());
+		assertIndexMatchesKeySet(map);
+	}
+
+	private static void assertIndexMatchesKeySet(AbstractListMap<Integer, Integer> map) {
+		int index = 0;
+		for(Integer key : map.keySet()) {
+			assertSame(map.get(key), map.getByIndex(index++));
+		}
+	}
+
+	@Test
+	public void testGetByIndexOfSubMap() throws Exception {
+		ListTreeMap<String, Integer> map = new ListTreeMap<>();
+		map.put("apple", 1);
+		map.put("banana", 2);
+		map.put("berry", Arrays.asList(3, 4));
+		assertEquals(Arrays.asList(2), map.getByIndex(1));
+
+		ListTreeMap<String, Integer> subMap = map.subMap("b");
+		assertEquals(3, subMap.size());
+		assertEquals(Arrays.asList(3, 4), subMap.getByIndex(1));
+
+		subMap.put("blueberry", 5);
+		assertEquals(5, map.size());
+		assertEquals(Arrays.asList(5), map.getByIndex(3));
+		subMap.removeAll("banana");
+		assertEquals(4, map.size());
+		assertEquals(Arrays.asList(5), map.getByIndex(2));
+	}
+
+	@Test
+	public void testLiveViews() throws Exception {
+		ListLinkedHashMap<String, Integer> map = new ListLinkedHashMap<>();
+		List<Integer> values = map.values();
+		Set<String> keys = map.keySet();
+		assertTrue(values.isEmpty());
+
+		map.put("a", Arrays.asList(1, 2));
+		map.put("b", 3);
+		assertEquals(Arrays.asList(1, 2, 3), values);
+		assertEquals(3, values.size());
+		assertEquals(Integer.valueOf(3), values.get(2));
+		assertEquals(2, keys.size());
+
+		try {
+			values.add(4);
+			fail();
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			keys.remove("a");
+			fail();
+		} catch (UnsupportedOperationException expected) {
+		}
+	}
+
+	@Test
+	public void testEntryStream() throws Exception {
+		ListTreeMap<String, Integer> map = new ListTreeMap<>();
+		map.put("b", 3);
+		map.put("a", Arrays.asList(1, 2));
+		assertEquals(Arrays.asList("a=1", "a=2", "b=3"),
+				map.entryStream().map(Object::toString).collect(Collectors.toList()));
+	}
+}
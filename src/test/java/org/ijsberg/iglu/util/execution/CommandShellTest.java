@@ -19,6 +19,37 @@
 
 package org.ijsberg.iglu.util.execution;
 
+import org.ijsberg.iglu.util.io.Forwarder;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 public class CommandShellTest {
+
+	@Test
+	public void testExecuteWithThreadFactory() throws Exception {
+		if (CommandShell.guessOS() != CommandShell.GuessedOS.UNIX_FLAVOUR) {
+			return;
+		}
+		final AtomicInteger nrofThreads = new AtomicInteger();
+		ThreadFactory threadFactory = new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				nrofThreads.incrementAndGet();
+				return ThreadSupport.getDefaultThreadFactory().newThread(runnable);
+			}
+		};
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		int exitCode = CommandShell.execute(new String[]{"/bin/sh", "-c", "echo hello"}, null, new File("."), new Forwarder(output), threadFactory);
+
+		assertEquals(0, exitCode);
+		assertEquals(2, nrofThreads.get());
+		assertTrue(new String(output.toByteArray()).startsWith("hello"));
+	}
 }
 
@@ -19,9 +19,26 @@
 
 package org.ijsberg.iglu.util.execution;
 
+import org.ijsberg.iglu.util.io.Receiver;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
 import static junit.framework.Assert.*;
 
 /**
@@ -176,6 +193,89 @@ public class ExecutableTest {
 		assertTrue("executor aborted after 200 ms, so timeout must have occured", exec.getExecutionException() instanceof TimeOutException);
 	}
 
+	@Test
+	public void testExecuteAsyncOnNonDaemonThread() throws Throwable {
+		final Executable exec = new Executable() {
+			protected Object execute() throws Throwable {
+				return Thread.currentThread().isDaemon();
+			}
+		};
+		//started from a daemon thread, such as the thread of a scheduler
+		Thread daemon = new Thread(new Runnable() {
+			public void run() {
+				exec.executeAsync();
+			}
+		});
+		daemon.setDaemon(true);
+		daemon.start();
+		daemon.join();
+		assertEquals(Boolean.FALSE, exec.getResult().get(5, TimeUnit.SECONDS));
+	}
+
+
+	@Test
+	public void testExecuteTimedWithoutTimeout() throws Throwable {
+		Executable exec = new Executable() {
+			protected Object execute() throws Throwable {
+				return sleepAWhile(200);
+			}
+		};
+		//0 means no timeout
+		assertEquals("done", exec.executeTimed(0));
+	}
+
+
+	@Test
+	public void testExecuteAsyncReusesThreads() throws Throwable {
+		Set<Thread> threads = new HashSet<Thread>();
+		for (int i = 0; i < 200; i++) {
+			Executable exec = new Executable() {
+				protected Object execute() throws Throwable {
+					return Thread.currentThread();
+				}
+			};
+			threads.add((Thread) exec.executeAsync().get(5, TimeUnit.SECONDS));
+		}
+		assertTrue(threads.size() < 200);
+	}
+
+
+	@Test
+	public void testTimeoutCompletesOffWatchdogThread() throws Throwable {
+		final AtomicReference<Thread> watchdogThread = new AtomicReference<Thread>();
+		TimeoutWatchdog watchdog = new TimeoutWatchdog(10, 4, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = ThreadSupport.getPlatformThreadFactory().newThread(runnable);
+				watchdogThread.set(thread);
+				return thread;
+			}
+		});
+		try {
+			Executable exec = new Executable() {
+				protected Object execute() throws Throwable {
+					return sleepAWhile(5000);
+				}
+			};
+			exec.setTimeoutWatchdog(watchdog);
+			final AtomicReference<Thread> completingThread = new AtomicReference<Thread>();
+			final CountDownLatch completed = new CountDownLatch(1);
+			exec.executeAsyncTimed(100).whenComplete(new BiConsumer<Object, Throwable>() {
+				public void accept(Object value, Throwable t) {
+					completingThread.set(Thread.currentThread());
+					completed.countDown();
+				}
+			});
+			assertTrue(completed.await(5, TimeUnit.SECONDS));
+			assertTrue(exec.getExecutionException() instanceof TimeOutException);
+			assertNotNull(watchdogThread.get());
+			assertTrue(watchdogThread.get() != completingThread.get());
+		}
+		finally {
+			watchdog.stop();
+		}
+	}
+
+
 	public void testExecuteAsyncDelayed() throws Throwable {
 		Executable exec = new Executable() {
 			protected Object execute() throws Throwable {
@@ -189,4 +289,195 @@ public class ExecutableTest {
 		Thread.sleep(300);
 		assertEquals("done", exec.getReturnValue());
 	}
+
+	@Test
+	public void testExecuteAsyncResult() throws Throwable {
+		Executable exec = new Executable() {
+			protected Object execute() throws Throwable {
+				return doStuff();
+			}
+		};
+		assertEquals("done", exec.executeAsync().get(5, TimeUnit.SECONDS));
+		assertTrue(exec.isFinished());
+
+		exec = new Executable() {
+			protected Object execute() throws Throwable {
+				throw new IllegalArgumentException("failure");
+			}
+		};
+		try {
+			exec.executeAsync().get(5, TimeUnit.SECONDS);
+			fail("execution throws");
+		}
+		catch (ExecutionException expected) {
+			assertTrue(expected.getCause() instanceof IllegalArgumentException);
+		}
+		assertSame(exec.getResult().isCompletedExceptionally(), exec.getExecutionException() != null);
+	}
+
+	@Test
+	public void testExecuteAsyncTimedOnExecutor() throws Throwable {
+		final AtomicReference<Object> sleepResult = new AtomicReference<Object>();
+		ExecutorService executor = Executors.newFixedThreadPool(1);
+		Executable exec = new Executable(executor) {
+			protected Object execute() throws Throwable {
+				sleepResult.set(sleepAWhile(5000));
+				return "done";
+			}
+		};
+		CompletableFuture<Object> result = exec.executeAsyncTimed(100);
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail("execution should time out");
+		}
+		catch (ExecutionException expected) {
+			assertTrue(expected.getCause() instanceof TimeOutException);
+		}
+		assertTrue(exec.getExecutionException() instanceof TimeOutException);
+		exec.waitUntilFinished();
+		//the pooled thread is released
+		assertEquals("done", executor.submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				return "done";
+			}
+		}).get(5, TimeUnit.SECONDS));
+		assertEquals("interrupted", sleepResult.get());
+		assertNull(exec.getReturnValue());
+		executor.shutdown();
+	}
+
+	@Test
+	public void testManyDelayedExecutions() throws Throwable {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		final AtomicInteger nrofExecutions = new AtomicInteger();
+		List<CompletableFuture<Object>> results = new ArrayList<CompletableFuture<Object>>();
+		for (int i = 0; i < 1000; i++) {
+			Executable exec = new Executable(executor) {
+				protected Object execute() throws Throwable {
+					return nrofExecutions.incrementAndGet();
+				}
+			};
+			results.add(exec.executeAsyncDelayed(50));
+		}
+		assertEquals(0, nrofExecutions.get());
+		CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+		assertEquals(1000, nrofExecutions.get());
+		executor.shutdown();
+	}
+
+	@Test
+	public void testExecuteAsyncPeriodically() throws Throwable {
+		final AtomicInteger nrofExecutions = new AtomicInteger();
+		final CountDownLatch executed = new CountDownLatch(3);
+		Executable exec = new Executable() {
+			protected Object execute() throws Throwable {
+				executed.countDown();
+				return nrofExecutions.incrementAndGet();
+			}
+		};
+		CompletableFuture<Object> result = exec.executeAsyncPeriodically(10);
+		assertTrue(executed.await(5, TimeUnit.SECONDS));
+		exec.interrupt();
+		assertTrue(result.isCancelled());
+		int nrofExecutionsAfterInterrupt = nrofExecutions.get();
+		Thread.sleep(100);
+		assertTrue(nrofExecutions.get() <= nrofExecutionsAfterInterrupt + 1);
+
+		try {
+			exec.executeAsync();
+			fail("should not be able to call executor twice");
+		}
+		catch (IllegalStateException expected) {
+		}
+	}
+
+	@Test
+	public void testInvokeAll() throws Throwable {
+		final AtomicInteger nrofRunning = new AtomicInteger();
+		final AtomicInteger maxNrofRunning = new AtomicInteger();
+		List<Executable> executables = new ArrayList<Executable>();
+		for (int i = 0; i < 20; i++) {
+			final int value = i;
+			executables.add(new Executable() {
+				protected Object execute() throws Throwable {
+					int running = nrofRunning.incrementAndGet();
+					maxNrofRunning.accumulateAndGet(running, Math::max);
+					Thread.sleep(5);
+					nrofRunning.decrementAndGet();
+					if (value == 7) {
+						throw new IllegalArgumentException("seven");
+					}
+					return value;
+				}
+			});
+		}
+		final List<Object> completed = new ArrayList<Object>();
+		final AtomicInteger nrofCloses = new AtomicInteger();
+		List<CompletableFuture<Object>> results = Executable.invokeAll(executables, 3, 10000, new Receiver() {
+			public synchronized void onReceive(Object message) {
+				completed.add(message);
+			}
+
+			public void onTransmissionClose() {
+				nrofCloses.incrementAndGet();
+			}
+		});
+		assertEquals(20, results.size());
+		assertEquals(20, completed.size());
+		assertEquals(1, nrofCloses.get());
+		assertTrue(maxNrofRunning.get() <= 3);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(results.get(i).isDone());
+			if (i == 7) {
+				assertTrue(results.get(i).isCompletedExceptionally());
+				assertTrue(executables.get(i).getExecutionException() instanceof IllegalArgumentException);
+			}
+			else {
+				assertEquals(i, results.get(i).get());
+			}
+		}
+	}
+
+	@Test
+	public void testInvokeAllTimesOut() throws Throwable {
+		final CountDownLatch interrupted = new CountDownLatch(3);
+		final AtomicInteger nrofExecutions = new AtomicInteger();
+		List<Executable> executables = new ArrayList<Executable>();
+		executables.add(new Executable() {
+			protected Object execute() throws Throwable {
+				return "fast";
+			}
+		});
+		for (int i = 0; i < 4; i++) {
+			executables.add(new Executable() {
+				protected Object execute() throws Throwable {
+					nrofExecutions.incrementAndGet();
+					try {
+						Thread.sleep(10000);
+					}
+					catch (InterruptedException e) {
+						interrupted.countDown();
+					}
+					return "slow";
+				}
+			});
+		}
+		long start = System.currentTimeMillis();
+		List<CompletableFuture<Object>> results = Executable.invokeAll(executables, 3, 200);
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals("fast", results.get(0).get());
+		for (int i = 1; i < 5; i++) {
+			try {
+				results.get(i).get();
+				fail("straggler should time out");
+			}
+			catch (ExecutionException expected) {
+				assertTrue(expected.getCause() instanceof TimeOutException);
+			}
+		}
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		//the last slow executable never got a slot
+		Thread.sleep(50);
+		assertEquals(3, nrofExecutions.get());
+	}
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.execution;
+
+import org.ijsberg.iglu.util.io.ReceiverQueue;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ProcessPoolTest {
+
+	private static String[] sh(String command) {
+		return new String[]{"/bin/sh", "-c", command};
+	}
+
+	@Test
+	public void testSubmit() throws Exception {
+		if (CommandShell.guessOS() != CommandShell.GuessedOS.UNIX_FLAVOUR) {
+			return;
+		}
+		ProcessPool pool = new ProcessPool(2);
+		Future<ProcessPool.ProcessResult> hello = pool.submit(sh("echo hello"), null, new File("."));
+		Future<ProcessPool.ProcessResult> error = pool.submit(sh("echo oops >&2; exit 3"), null, new File("."));
+		Future<ProcessPool.ProcessResult> slow = pool.submit(sh("sleep 0.2; echo done"), null, new File("."));
+
+		assertEquals(0, hello.get().getExitCode());
+		assertEquals("hello\n", new String(hello.get().getOutput()));
+		assertEquals(3, error.get().getExitCode());
+		assertEquals("oops\n", new String(error.get().getOutput()));
+		assertEquals("done\n", new String(slow.get().getOutput()));
+		assertFalse(error.get().isSuccessful());
+		assertSame(error.get(), pool.getFailure());
+
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5000));
+		try {
+			pool.submit(sh("echo hello"), null, new File("."));
+			fail("pool is shut down");
+		}
+		catch (IllegalStateException expected) {
+		}
+	}
+
+	@Test
+	public void testTaggedOutput() throws Exception {
+		if (CommandShell.guessOS() != CommandShell.GuessedOS.UNIX_FLAVOUR) {
+			return;
+		}
+		ProcessPool pool = new ProcessPool(2);
+		ReceiverQueue output = new ReceiverQueue();
+		Future<ProcessPool.ProcessResult> first = pool.submit(sh("echo one"), null, new File("."), output, "first");
+		Future<ProcessPool.ProcessResult> second = pool.submit(sh("echo two"), null, new File("."), output, "second");
+		assertNull(first.get().getOutput());
+		second.get();
+
+		assertEquals(2, output.available());
+		while (output.available() > 0) {
+			ProcessPool.TaggedOutput taggedOutput = (ProcessPool.TaggedOutput) output.read();
+			assertEquals("first".equals(taggedOutput.getTag()) ? "one\n" : "two\n", new String(taggedOutput.getData()));
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	public void testFailFast() throws Exception {
+		if (CommandShell.guessOS() != CommandShell.GuessedOS.UNIX_FLAVOUR) {
+			return;
+		}
+		ProcessPool pool = new ProcessPool(2);
+		pool.setFailFast(true);
+		long start = System.currentTimeMillis();
+		Future<ProcessPool.ProcessResult> running = pool.submit(sh("sleep 10"), null, new File("."));
+		Future<ProcessPool.ProcessResult> failing = pool.submit(sh("sleep 0.2; exit 1"), null, new File("."));
+		Future<ProcessPool.ProcessResult> waiting = pool.submit(sh("sleep 10"), null, new File("."));
+
+		assertEquals(1, failing.get().getExitCode());
+		try {
+			running.get();
+			fail("running process must be cancelled");
+		}
+		catch (CancellationException expected) {
+		}
+		assertTrue(waiting.isCancelled());
+		try {
+			pool.submit(sh("echo hello"), null, new File("."));
+			fail("pool is aborted");
+		}
+		catch (IllegalStateException expected) {
+		}
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5000));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+	}
+
+	@Test
+	public void testExecuteRecursive() throws Exception {
+		if (CommandShell.guessOS() != CommandShell.GuessedOS.UNIX_FLAVOUR) {
+			return;
+		}
+		File root = Files.createTempDirectory("processpooltest").toFile();
+		new File(root, "a/b").mkdirs();
+		new File(root, "c").mkdirs();
+		PrintStream systemOut = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		List<ProcessPool.ProcessResult> results;
+		try {
+			System.setOut(new PrintStream(printed));
+			//fewer processes than directories, so that commands are submitted as output is printed
+			results = CommandShell.executeRecursive("pwd", root.getPath(), 1, false);
+		}
+		finally {
+			System.setOut(systemOut);
+		}
+		assertEquals(4, results.size());
+		StringBuilder expected = new StringBuilder();
+		for (ProcessPool.ProcessResult result : results) {
+			assertTrue(result.isSuccessful());
+			expected.append("EXECUTED pwd in dir " + result.getWorkingDir() + " with exit code 0\n");
+			expected.append(result.getWorkingDir().getCanonicalPath() + "\n");
+		}
+		assertEquals(expected.toString(), printed.toString());
+		new File(root, "a/b").delete();
+		new File(root, "a").delete();
+		new File(root, "c").delete();
+		root.delete();
+	}
+}
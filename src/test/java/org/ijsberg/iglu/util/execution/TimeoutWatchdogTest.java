@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.execution;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TimeoutWatchdogTest {
+
+	@Test
+	public void testExpireAfterRotations() throws Exception {
+		//wheel of 4 ticks of 10 ms rotates several times before 150 ms expire
+		TimeoutWatchdog watchdog = new TimeoutWatchdog(10, 4, ThreadSupport.getPlatformThreadFactory());
+		final CountDownLatch expired = new CountDownLatch(1);
+		long start = System.currentTimeMillis();
+		TimeoutWatchdog.Timeout timeout = watchdog.schedule(new Runnable() {
+			public void run() {
+				expired.countDown();
+			}
+		}, 150);
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 150);
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+		assertEquals(0, watchdog.getNrofPendingTimeouts());
+		watchdog.stop();
+	}
+
+	@Test
+	public void testFailingTaskIsRecorded() throws Exception {
+		TimeoutWatchdog watchdog = new TimeoutWatchdog(10, 4, ThreadSupport.getPlatformThreadFactory());
+		final CountDownLatch expired = new CountDownLatch(1);
+		watchdog.schedule(new Runnable() {
+			public void run() {
+				throw new IllegalStateException("failing task");
+			}
+		}, 10);
+		watchdog.schedule(new Runnable() {
+			public void run() {
+				expired.countDown();
+			}
+		}, 50);
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+		assertEquals(1, watchdog.getNrofFailedTasks());
+		assertTrue(watchdog.getLastException() instanceof IllegalStateException);
+		watchdog.stop();
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		TimeoutWatchdog watchdog = new TimeoutWatchdog();
+		final AtomicInteger nrofExpirations = new AtomicInteger();
+		Runnable task = new Runnable() {
+			public void run() {
+				nrofExpirations.incrementAndGet();
+			}
+		};
+		List<TimeoutWatchdog.Timeout> timeouts = new ArrayList<TimeoutWatchdog.Timeout>();
+		for (int i = 0; i < 200000; i++) {
+			timeouts.add(watchdog.schedule(task, 1000 + i % 100));
+		}
+		assertEquals(200000, watchdog.getNrofPendingTimeouts());
+		for (int i = 0; i < timeouts.size(); i += 2) {
+			assertTrue(timeouts.get(i).cancel());
+		}
+		assertEquals(100000, watchdog.getNrofPendingTimeouts());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (watchdog.getNrofPendingTimeouts() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, watchdog.getNrofPendingTimeouts());
+		assertEquals(100000, nrofExpirations.get());
+		assertTrue(timeouts.get(0).isCancelled());
+		assertTrue(timeouts.get(1).isExpired());
+		watchdog.stop();
+		try {
+			watchdog.schedule(task, 10);
+			fail("watchdog is stopped");
+		}
+		catch (IllegalStateException expected) {
+		}
+	}
+
+	@Test
+	public void testExecuteTimed() throws Throwable {
+		Executable exec = new Executable() {
+			protected Object execute() throws Throwable {
+				Thread.sleep(5000);
+				return "done";
+			}
+		};
+		long start = System.currentTimeMillis();
+		try {
+			exec.executeTimed(100);
+			fail("execution should time out");
+		}
+		catch (TimeOutException expected) {
+		}
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals(0, ThreadSupport.getSharedTimeoutWatchdog().getNrofPendingTimeouts());
+
+		exec = new Executable() {
+			protected Object execute() throws Throwable {
+				return "done";
+			}
+		};
+		assertEquals("done", exec.executeTimed(1000));
+		//the timeout is cancelled
+		assertEquals(0, ThreadSupport.getSharedTimeoutWatchdog().getNrofPendingTimeouts());
+	}
+}
@@ -19,9 +19,15 @@
 
 package org.ijsberg.iglu.util.io;
 
+import org.ijsberg.iglu.util.execution.ThreadSupport;
 import org.junit.Test;
 
+import java.util.concurrent.CountDownLatch;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.junit.Assert.assertTrue;
 
 public class BasicChannelTest {
 
@@ -62,5 +68,203 @@ public class BasicChannelTest {
 		assertEquals(0, receiver2.available());
 	}
 
-}
+	@Test
+	public void testClosedReceiverIsSkippedAndRemoved() throws Exception {
+		BasicChannel channel = new BasicChannel("channel");
+		ReceiverQueue receiver1 = channel.createReceiver();
+		ReceiverQueue receiver2 = channel.createReceiver();
+		assertEquals(2, channel.getNrofReceivers());
+
+		receiver1.close();
+		channel.transmit("message");
+
+		assertEquals(0, receiver1.available());
+		assertEquals(1, receiver2.available());
+		assertEquals(1, channel.getNrofReceivers());
+	}
+
+	@Test
+	public void testRemoveReceiver() throws Exception {
+		BasicChannel channel = new BasicChannel("channel", 1);
+		ReceiverQueue receiver = new ReceiverQueue();
+		assertEquals(receiver, channel.registerReceiver(receiver));
+		assertEquals(null, channel.createReceiver());
+
+		assertTrue(channel.removeReceiver(receiver));
+		assertFalse(channel.removeReceiver(receiver));
+		channel.transmit("message");
+		assertEquals(0, receiver.available());
+	}
+
+	@Test
+	public void testConcurrentTransmit() throws Exception {
+		final BasicChannel channel = new BasicChannel("channel");
+		ReceiverQueue receiver = channel.createReceiver();
+		Thread[] publishers = new Thread[4];
+		for (int i = 0; i < publishers.length; i++) {
+			publishers[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						channel.transmit("message");
+					}
+				}
+			});
+			publishers[i].start();
+		}
+		for (Thread publisher : publishers) {
+			publisher.join();
+		}
+		assertEquals(4000, receiver.available());
+	}
+
+	@Test
+	public void testBackpressureReject() throws Exception {
+		BasicChannel channel = new BasicChannel("channel");
+		channel.setBackpressurePolicy(BackpressurePolicy.REJECT, 0);
+		ReceiverQueue receiver = channel.createReceiver();
+		receiver.setWatermarks(1, 2, null);
+
+		channel.transmit("1");
+		channel.transmit("2");
+		try {
+			channel.transmit("3");
+			fail("receiver has reached its high watermark");
+		}
+		catch (TransmissionRejectedException expected) {
+		}
+		assertEquals(2, receiver.available());
 
+		receiver.read();
+		channel.transmit("3");
+		assertEquals(2, receiver.available());
+	}
+
+	@Test
+	public void testBackpressureBlock() throws Exception {
+		final BasicChannel channel = new BasicChannel("channel");
+		channel.setBackpressurePolicy(BackpressurePolicy.BLOCK, 0);
+		final ReceiverQueue receiver = channel.createReceiver();
+		final int[] watermarkEvents = new int[2];
+		receiver.setWatermarks(0, 10, new WatermarkListener() {
+			public void onHighWatermark(Queue queue) {
+				watermarkEvents[0]++;
+			}
+
+			public void onLowWatermark(Queue queue) {
+				watermarkEvents[1]++;
+			}
+		});
+		Thread publisher = new Thread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < 100; i++) {
+					channel.transmit(i);
+				}
+			}
+		});
+		publisher.start();
+		int count = 0;
+		while (count < 100) {
+			Object message = receiver.read(1000);
+			assertEquals(count, message);
+			assertTrue(receiver.available() <= 10);
+			count++;
+		}
+		publisher.join(1000);
+		assertFalse(publisher.isAlive());
+		assertTrue(watermarkEvents[0] > 0);
+		assertTrue(watermarkEvents[1] > 0);
+	}
+
+	@Test
+	public void testAsyncDispatch() throws Exception {
+		BasicChannel channel = new BasicChannel("channel");
+		channel.setAsyncDispatch(ThreadSupport.getSharedExecutor(), 100, OverflowPolicy.BLOCK);
+		final CountDownLatch slowReceiverReleased = new CountDownLatch(1);
+		channel.registerReceiver(new Receiver() {
+			public void onReceive(Object message) {
+				try {
+					slowReceiverReleased.await();
+				}
+				catch (InterruptedException ignore) {
+				}
+			}
+
+			public void onTransmissionClose() {
+			}
+		});
+		ReceiverQueue receiver = channel.createReceiver();
+
+		for (int i = 0; i < 50; i++) {
+			channel.transmit(i);
+		}
+		for (int i = 0; i < 50; i++) {
+			assertEquals(i, receiver.read(1000));
+		}
+		slowReceiverReleased.countDown();
+
+		channel.close();
+		assertTrue(receiver.awaitAvailable(0) || receiver.isClosed());
+		assertTrue(receiver.isClosed());
+	}
+
+	@Test
+	public void testBackpressureOnMailbox() throws Exception {
+		BasicChannel channel = new BasicChannel("channel");
+		channel.setAsyncDispatch(ThreadSupport.getSharedExecutor(), 5, OverflowPolicy.BLOCK);
+		channel.setBackpressurePolicy(BackpressurePolicy.REJECT, 0);
+		final CountDownLatch slowReceiverReleased = new CountDownLatch(1);
+		channel.registerReceiver(new Receiver() {
+			public void onReceive(Object message) {
+				try {
+					slowReceiverReleased.await();
+				}
+				catch (InterruptedException ignore) {
+				}
+			}
+
+			public void onTransmissionClose() {
+			}
+		});
+		int nrofTransmitted = 0;
+		try {
+			while (nrofTransmitted < 1000) {
+				channel.transmit(nrofTransmitted++);
+			}
+			fail("mailbox is full");
+		}
+		catch (TransmissionRejectedException expected) {
+		}
+		finally {
+			slowReceiverReleased.countDown();
+		}
+		channel.close();
+	}
+
+	@Test
+	public void testAsyncReceiverRecordsFailures() throws Exception {
+		ReceiverQueue target = new ReceiverQueue();
+		AsyncReceiver receiver = new AsyncReceiver(new Receiver() {
+			public void onReceive(Object message) {
+				if ("fail".equals(message)) {
+					throw new IllegalStateException("failing receiver");
+				}
+				target.onReceive(message);
+			}
+
+			public void onTransmissionClose() {
+				target.onTransmissionClose();
+			}
+		}, ThreadSupport.getSharedExecutor(), 10, OverflowPolicy.BLOCK);
+		receiver.onReceive("one");
+		receiver.onReceive("fail");
+		receiver.onReceive("two");
+		receiver.onTransmissionClose();
+
+		assertEquals("one", target.read(1000));
+		assertEquals("two", target.read(1000));
+		assertTrue(target.awaitAvailable(1000) || target.isClosed());
+		assertTrue(target.isClosed());
+		assertEquals(1, receiver.getNrofFailedDeliveries());
+		assertTrue(receiver.getLastException() instanceof IllegalStateException);
+	}
+}
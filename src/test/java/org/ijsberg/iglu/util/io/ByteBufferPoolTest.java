@@ -0,0 +1,142 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ByteBufferPoolTest {
+
+	@Test
+	public void testReuse() throws Exception {
+		ByteBufferPool pool = new ByteBufferPool(16, 2, true);
+		PooledByteBuffer buffer = pool.acquire();
+		assertEquals(1, pool.getNrofBuffersCreated());
+
+		buffer.retain();
+		buffer.release();
+		assertEquals(0, pool.getNrofPooledBuffers());
+		buffer.release();
+		assertEquals(1, pool.getNrofPooledBuffers());
+
+		try {
+			buffer.retain();
+			fail("buffer has been released");
+		}
+		catch (IllegalStateException expected) {
+		}
+
+		pool.acquire().release();
+		assertEquals(1, pool.getNrofBuffersCreated());
+	}
+
+	@Test
+	public void testForwardPooledBuffers() throws Exception {
+		byte[] input = new byte[100000];
+		for (int i = 0; i < input.length; i++) {
+			input[i] = (byte) i;
+		}
+		ByteBufferPool pool = new ByteBufferPool(1000, 4, true);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		Transponder transponder = new Transponder(new ByteArrayInputStream(input), new Pipe(new Forwarder(output)));
+		transponder.setBufferPool(pool);
+		transponder.start();
+		//transponder stops at the end of the stream
+		transponder.forwarderThread.join(5000);
+
+		assertArrayEquals(input, output.toByteArray());
+		assertEquals(1, pool.getNrofBuffersCreated());
+		assertEquals(1, pool.getNrofPooledBuffers());
+	}
+
+	@Test
+	public void testFilterPooledBuffers() throws Exception {
+		StringBuilder input = new StringBuilder();
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			input.append("line ").append(i).append('\n');
+			expected.append("line ").append(i).append("\r\n");
+		}
+		ByteBufferPool pool = new ByteBufferPool(1000, 4, true);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		Transponder transponder = new Transponder(new ByteArrayInputStream(input.toString().getBytes()),
+				new Pipe(new Forwarder(output), new NewLineNormalizer()));
+		transponder.setBufferPool(pool);
+		transponder.start();
+		transponder.forwarderThread.join(5000);
+
+		//the filter receives copies, the buffers return to the pool
+		assertEquals(expected.toString(), output.toString());
+		assertEquals(1, pool.getNrofBuffersCreated());
+		assertEquals(1, pool.getNrofPooledBuffers());
+	}
+
+	@Test
+	public void testQueuePooledBuffers() throws Exception {
+		byte[] input = new byte[10000];
+		for (int i = 0; i < input.length; i++) {
+			input[i] = (byte) i;
+		}
+		ByteBufferPool pool = new ByteBufferPool(1000, 4, false);
+		ReceiverQueue queue = new ReceiverQueue();
+
+		Transponder transponder = new Transponder(new ByteArrayInputStream(input), new Pipe(queue));
+		transponder.setBufferPool(pool);
+		transponder.start();
+		transponder.forwarderThread.join(5000);
+
+		//all input has been read before the queued buffers are
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Object message;
+		while ((message = queue.read()) != null) {
+			PooledByteBuffer buffer = (PooledByteBuffer) message;
+			output.write(buffer.toByteArray());
+			buffer.release();
+		}
+		assertArrayEquals(input, output.toByteArray());
+		//queued buffers can not be reused
+		assertTrue(pool.getNrofBuffersCreated() >= 10);
+		assertEquals(4, pool.getNrofPooledBuffers());
+	}
+
+	@Test
+	public void testQueuesReleaseDroppedBuffers() throws Exception {
+		ByteBufferPool pool = new ByteBufferPool(16, 4, false);
+		RingBufferReceiverQueue ringBuffer = new RingBufferReceiverQueue(1, OverflowPolicy.DROP_OLDEST);
+		ReceiverQueue queue = new ReceiverQueue(1);
+		for (int i = 0; i < 2; i++) {
+			PooledByteBuffer buffer = pool.acquire();
+			ringBuffer.onReceive(buffer);
+			queue.onReceive(buffer);
+			buffer.release();
+		}
+		//the first buffer was dropped by both queues
+		assertEquals(1, pool.getNrofPooledBuffers());
+		ringBuffer.clear();
+		queue.clear();
+		assertEquals(2, pool.getNrofPooledBuffers());
+	}
+}
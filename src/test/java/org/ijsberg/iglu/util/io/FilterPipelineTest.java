@@ -0,0 +1,154 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FilterPipelineTest {
+
+	private static class SlowParser implements Filter<String> {
+		public String filter(String input) {
+			if (input.startsWith("skip")) {
+				return null;
+			}
+			if (input.startsWith("fail")) {
+				throw new IllegalArgumentException(input);
+			}
+			try {
+				//later messages finish earlier
+				Thread.sleep(Integer.parseInt(input) % 3);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return input;
+		}
+	}
+
+	private static class Doubler implements Filter<String> {
+		public String filter(String input) {
+			return input + input;
+		}
+	}
+
+	@Test
+	public void testOrdered() throws Exception {
+		ReceiverQueue output = new ReceiverQueue();
+		FilterPipeline pipeline = new FilterPipeline(output)
+				.addStage(new SlowParser(), 4, 2, true)
+				.addStage(new Doubler(), 3);
+		pipeline.start();
+		for (int i = 0; i < 100; i++) {
+			pipeline.onReceive("" + i);
+			if (i % 10 == 0) {
+				pipeline.onReceive("skip");
+				pipeline.onReceive("fail");
+			}
+		}
+		pipeline.onTransmissionClose();
+		assertTrue(pipeline.awaitTermination(10000));
+
+		assertTrue(output.isClosed());
+		assertEquals(10, pipeline.getNrofFailures());
+		assertTrue(pipeline.getLastException() instanceof IllegalArgumentException);
+		assertEquals(100, output.available());
+		for (int i = 0; i < 100; i++) {
+			assertEquals("" + i + i, output.read());
+		}
+	}
+
+	@Test
+	public void testUnordered() throws Exception {
+		ReceiverQueue output = new ReceiverQueue();
+		FilterPipeline pipeline = new FilterPipeline(output)
+				.addStage(new SlowParser(), 4, 10, false);
+		pipeline.start();
+		for (int i = 0; i < 50; i++) {
+			pipeline.onReceive("" + i);
+		}
+		pipeline.onTransmissionClose();
+		assertTrue(pipeline.awaitTermination(10000));
+
+		Set<Object> received = new HashSet<Object>();
+		while (output.available() > 0) {
+			received.add(output.read());
+		}
+		assertEquals(50, received.size());
+	}
+
+	@Test
+	public void testFailingReceiver() throws Exception {
+		final ReceiverQueue output = new ReceiverQueue();
+		FilterPipeline pipeline = new FilterPipeline(new Receiver() {
+			public void onReceive(Object message) {
+				if (Integer.parseInt((String) message) % 10 == 0) {
+					throw new IllegalStateException("failing receiver");
+				}
+				output.onReceive(message);
+			}
+
+			public void onTransmissionClose() {
+				output.onTransmissionClose();
+			}
+		}).addStage(new SlowParser(), 4, 2, true);
+		pipeline.start();
+		for (int i = 0; i < 100; i++) {
+			pipeline.onReceive("" + i);
+		}
+		pipeline.onTransmissionClose();
+		assertTrue(pipeline.awaitTermination(10000));
+
+		assertTrue(output.isClosed());
+		assertEquals(10, pipeline.getNrofFailures());
+		assertEquals(90, output.available());
+		assertEquals("1", output.read());
+	}
+
+	@Test
+	public void testLifecycle() throws Exception {
+		FilterPipeline pipeline = new FilterPipeline(new ReceiverQueue()).addStage(new Doubler(), 1);
+		try {
+			pipeline.onReceive("a");
+			fail("pipeline is not started");
+		}
+		catch (IllegalStateException expected) {
+		}
+		pipeline.start();
+		try {
+			pipeline.addStage(new Doubler(), 1);
+			fail("pipeline is already started");
+		}
+		catch (IllegalStateException expected) {
+		}
+		pipeline.onTransmissionClose();
+		try {
+			pipeline.onReceive("a");
+			fail("pipeline is closed");
+		}
+		catch (IllegalStateException expected) {
+		}
+		assertTrue(pipeline.awaitTermination(10000));
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HeadTailOutputReceiverTest {
+
+	@Test
+	public void testWithinLimit() throws Exception {
+		HeadTailOutputReceiver receiver = new HeadTailOutputReceiver(4, 4);
+		receiver.onReceive("abc".getBytes());
+		receiver.onReceive("def");
+		assertEquals("abcd", new String(receiver.getHead()));
+		assertEquals("ef", new String(receiver.getTail()));
+		assertEquals(0, receiver.getNrofBytesOmitted());
+		assertEquals("abcdef", receiver.getOutput());
+	}
+
+	@Test
+	public void testOmitted() throws Exception {
+		HeadTailOutputReceiver receiver = new HeadTailOutputReceiver(3, 5);
+		for (int i = 0; i < 10; i++) {
+			receiver.onReceive(("" + i).getBytes());
+		}
+		receiver.onReceive("abcdefgh".getBytes());
+		receiver.onReceive("XYZ".getBytes());
+		assertEquals(21, receiver.getNrofBytesReceived());
+		assertEquals("012", new String(receiver.getHead()));
+		assertEquals("ghXYZ", new String(receiver.getTail()));
+		assertEquals(13, receiver.getNrofBytesOmitted());
+		assertEquals("012\n[... 13 bytes omitted ...]\nghXYZ", receiver.getOutput());
+	}
+
+	@Test
+	public void testPooledBuffer() throws Exception {
+		ByteBufferPool pool = new ByteBufferPool(16, 1, false);
+		PooledByteBuffer buffer = pool.acquire();
+		buffer.getWritableBuffer().put("pooled".getBytes()).flip();
+		HeadTailOutputReceiver receiver = new HeadTailOutputReceiver(2, 0);
+		receiver.onReceive(buffer);
+		buffer.release();
+		assertEquals("po", new String(receiver.getHead()));
+		assertEquals(4, receiver.getNrofBytesOmitted());
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class MessagingMetricsTest {
+
+	@Test
+	public void testQueueMetrics() throws Exception {
+		ReceiverQueue queue = new ReceiverQueue(2);
+		MessagingMetrics metrics = new MessagingMetrics();
+		queue.setMetrics(metrics);
+
+		queue.onReceive("1".getBytes());
+		queue.onReceive("22".getBytes());
+		queue.onReceive("333".getBytes());
+		assertEquals(3, metrics.getMessagesIn());
+		assertEquals(6, metrics.getBytesIn());
+		assertEquals(1, metrics.getDrops());
+		assertEquals(2, metrics.getHighWaterMark());
+		assertEquals(2, metrics.getQueueDepth());
+
+		queue.read();
+		queue.read();
+		assertEquals(2, metrics.getMessagesOut());
+		assertEquals(5, metrics.getBytesOut());
+		assertEquals(2, metrics.getLatencyCount());
+		assertEquals(0, metrics.getQueueDepth());
+	}
+
+	@Test
+	public void testChannelMetrics() throws Exception {
+		BasicChannel channel = new BasicChannel("channel");
+		MessagingMetrics metrics = new MessagingMetrics();
+		channel.setMetrics(metrics);
+		channel.createReceiver();
+		channel.createReceiver();
+
+		channel.transmit("message");
+		assertEquals(1, metrics.getMessagesIn());
+		assertEquals(2, metrics.getMessagesOut());
+	}
+
+	@Test
+	public void testLatencyHistogram() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(1000);
+		}
+		histogram.record(1000000);
+		assertEquals(100, histogram.getCount());
+		assertEquals(1000000, histogram.getMaxNanos());
+		long p50 = histogram.getPercentileNanos(50);
+		assertTrue(p50 >= 1000 && p50 < 2048);
+		assertEquals(1000000, histogram.getPercentileNanos(100));
+	}
+
+	@Test
+	public void testRegisterMBean() throws Exception {
+		MessagingMetrics metrics = new MessagingMetrics();
+		metrics.recordIn("message");
+		ObjectName name = metrics.registerMBean("org.ijsberg.iglu:type=Test,name=MessagingMetricsTest");
+		assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "MessagesIn"));
+		MessagingMetrics.unregisterMBean(name);
+	}
+}
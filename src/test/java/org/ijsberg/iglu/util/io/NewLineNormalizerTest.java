@@ -0,0 +1,71 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class NewLineNormalizerTest {
+
+	@Test
+	public void testFilter() throws Exception {
+		NewLineNormalizer normalizer = new NewLineNormalizer();
+		assertEquals("a\r\nb\r\nc\r\n\r\nd", new String(normalizer.filter("a\nb\r\nc\r\rd".getBytes())));
+
+		byte[] normalized = "a\r\nb".getBytes();
+		assertSame(normalized, normalizer.filter(normalized));
+		byte[] noSeparators = "abc".getBytes();
+		assertSame(noSeparators, normalizer.filter(noSeparators));
+	}
+
+	@Test
+	public void testSeparatorSplitOverChunks() throws Exception {
+		NewLineNormalizer normalizer = new NewLineNormalizer();
+		assertEquals("a\r\n", new String(normalizer.filter("a\r".getBytes())));
+		assertEquals("b", new String(normalizer.filter("\nb".getBytes())));
+		assertEquals("\r\n", new String(normalizer.filter("\r".getBytes())));
+		assertEquals("", new String(normalizer.filter("\n".getBytes())));
+		assertEquals("\r\n", new String(normalizer.filter("\n".getBytes())));
+	}
+
+	@Test
+	public void testLineFeed() throws Exception {
+		NewLineNormalizer normalizer = new NewLineNormalizer(NewLineNormalizer.LF);
+		byte[] normalized = "a\nb\n".getBytes();
+		assertSame(normalized, normalizer.filter(normalized));
+		assertEquals("a\nb\n", new String(normalizer.filter("a\r".getBytes())) + new String(normalizer.filter("\nb\r".getBytes())));
+	}
+
+	@Test
+	public void testOutputStream() throws Exception {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		OutputStream out = new NewLineNormalizingOutputStream(result);
+		out.write("line1\r".getBytes());
+		out.write('\n');
+		out.write("line2\nline3\r".getBytes(), 0, 12);
+		out.write("\n".getBytes());
+		out.close();
+		assertEquals("line1\r\nline2\r\nline3\r\n", result.toString());
+	}
+}
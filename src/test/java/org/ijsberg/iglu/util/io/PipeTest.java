@@ -19,7 +19,44 @@
 
 package org.ijsberg.iglu.util.io;
 
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
 
 public class PipeTest {
+
+	@Test
+	public void testTransmitBatch() throws Exception {
+		ReceiverQueue receiver = new ReceiverQueue();
+		Pipe pipe = new Pipe(receiver, new Filter<String>() {
+			public String filter(String input) {
+				return input.toUpperCase();
+			}
+		});
+		pipe.transmitBatch(Arrays.asList("a", "b", "c"));
+
+		List<Object> output = new ArrayList<Object>();
+		assertEquals(3, receiver.drainTo(output, 10));
+		assertEquals(Arrays.asList("A", "B", "C"), output);
+	}
+
+	@Test
+	public void testTransmitBatchToSingleMessageReceiver() throws Exception {
+		final List<Object> received = new ArrayList<Object>();
+		Pipe pipe = new Pipe(new Receiver() {
+			public void onReceive(Object message) {
+				received.add(message);
+			}
+
+			public void onTransmissionClose() {
+			}
+		});
+		pipe.transmitBatch(Arrays.asList("a", "b"));
+		assertEquals(Arrays.asList("a", "b"), received);
+	}
 }
 
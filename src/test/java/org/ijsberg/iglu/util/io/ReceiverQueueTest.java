@@ -19,7 +19,118 @@
 
 package org.ijsberg.iglu.util.io;
 
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
 
 public class ReceiverQueueTest {
-}
 
+	@Test
+	public void testReadWithTimeout() throws Exception {
+		ReceiverQueue queue = new ReceiverQueue();
+		assertNull(queue.read(10));
+		queue.onReceive("message");
+		assertEquals("message", queue.read(10));
+	}
+
+	@Test
+	public void testDrainTo() throws Exception {
+		ReceiverQueue queue = new ReceiverQueue(3);
+		queue.onReceiveBatch(Arrays.asList("1", "2", "3", "4"));
+		assertEquals(3, queue.available());
+
+		List<Object> output = new ArrayList<Object>();
+		assertEquals(2, queue.drainTo(output, 2));
+		assertEquals(Arrays.asList("2", "3"), output);
+		assertEquals(1, queue.drainTo(output, 2));
+		assertEquals(0, queue.drainTo(output, 2));
+		assertEquals(Arrays.asList("2", "3", "4"), output);
+	}
+
+	@Test
+	public void testAwaitAvailable() throws Exception {
+		final ReceiverQueue queue = new ReceiverQueue();
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				}
+				catch (InterruptedException ignore) {
+				}
+				queue.onReceive("message");
+			}
+		}).start();
+		assertTrue(queue.awaitAvailable(0));
+		assertEquals("message", queue.read());
+	}
+
+	@Test
+	public void testAwaitAvailableOnClose() throws Exception {
+		final ReceiverQueue queue = new ReceiverQueue();
+		new Thread(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				}
+				catch (InterruptedException ignore) {
+				}
+				queue.close();
+			}
+		}).start();
+		assertFalse(queue.awaitAvailable(0));
+		assertTrue(queue.isClosed());
+	}
+
+	@Test
+	public void testTransponderForwardsWithoutPolling() throws Exception {
+		ReceiverQueue output = new ReceiverQueue();
+		Transponder transponder = new Transponder(new Pipe(output));
+		transponder.setPollingInterval(10000);
+		transponder.start();
+
+		transponder.onReceive("message");
+		assertEquals("message", output.read(1000));
+
+		transponder.stop();
+	}
+
+	@Test
+	public void testStopDoesNotInterruptTransmission() throws Exception {
+		final CountDownLatch transmitting = new CountDownLatch(1);
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		final ReceiverQueue output = new ReceiverQueue();
+		Transponder transponder = new Transponder(new Pipe(new Receiver() {
+			public void onReceive(Object message) {
+				transmitting.countDown();
+				try {
+					Thread.sleep(100);
+				}
+				catch (InterruptedException e) {
+					interrupted.set(true);
+				}
+				output.onReceive(message);
+			}
+
+			public void onTransmissionClose() {
+				output.onTransmissionClose();
+			}
+		}));
+		transponder.start();
+		transponder.onReceive("message");
+		assertTrue(transmitting.await(1, TimeUnit.SECONDS));
+
+		transponder.stop();
+		transponder.forwarderThread.join(1000);
+		assertFalse(transponder.forwarderThread.isAlive());
+		assertFalse(interrupted.get());
+		assertEquals("message", output.read());
+		assertTrue(output.isClosed());
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RingBufferReceiverQueueTest {
+
+	@Test
+	public void testReadInOrder() throws Exception {
+		RingBufferReceiverQueue queue = new RingBufferReceiverQueue(3);
+		assertEquals(0, queue.available());
+		assertNull(queue.read());
+
+		for (int i = 0; i < 10; i++) {
+			queue.onReceive("message" + i);
+			assertEquals("message" + i, queue.read());
+		}
+		assertFalse(queue.hasNext());
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		RingBufferReceiverQueue queue = new RingBufferReceiverQueue(2, OverflowPolicy.DROP_OLDEST);
+		queue.onReceive("1");
+		queue.onReceive("2");
+		queue.onReceive("3");
+		assertEquals(2, queue.available());
+		assertEquals("2", queue.read());
+		assertEquals("3", queue.read());
+	}
+
+	@Test
+	public void testDropNewest() throws Exception {
+		RingBufferReceiverQueue queue = new RingBufferReceiverQueue(2, OverflowPolicy.DROP_NEWEST);
+		queue.onReceive("1");
+		queue.onReceive("2");
+		queue.onReceive("3");
+		assertEquals(2, queue.available());
+		assertEquals("1", queue.read());
+		assertEquals("2", queue.read());
+	}
+
+	@Test
+	public void testFail() throws Exception {
+		RingBufferReceiverQueue queue = new RingBufferReceiverQueue(1, OverflowPolicy.FAIL);
+		queue.onReceive("1");
+		try {
+			queue.onReceive("2");
+			fail("queue is full");
+		}
+		catch (IllegalStateException expected) {
+		}
+		assertEquals("1", queue.read());
+	}
+
+	@Test
+	public void testBlock() throws Exception {
+		final RingBufferReceiverQueue queue = new RingBufferReceiverQueue(1, OverflowPolicy.BLOCK);
+		queue.onReceive("1");
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				queue.onReceive("2");
+			}
+		});
+		producer.start();
+		Thread.sleep(50);
+		assertTrue(producer.isAlive());
+		assertEquals("1", queue.read());
+		producer.join(1000);
+		assertFalse(producer.isAlive());
+		assertEquals("2", queue.read());
+	}
+
+	@Test
+	public void testConcurrentProducers() throws Exception {
+		final RingBufferReceiverQueue queue = new RingBufferReceiverQueue(16, OverflowPolicy.BLOCK);
+		final int nrofProducers = 4;
+		final int nrofMessages = 10000;
+		Thread[] producers = new Thread[nrofProducers];
+		for (int i = 0; i < nrofProducers; i++) {
+			producers[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < nrofMessages; j++) {
+						queue.onReceive(j);
+					}
+				}
+			});
+			producers[i].start();
+		}
+		long total = 0;
+		int count = 0;
+		while (count < nrofProducers * nrofMessages) {
+			Object message = queue.read();
+			if (message != null) {
+				total += (Integer) message;
+				count++;
+			}
+		}
+		assertEquals((long) nrofProducers * nrofMessages * (nrofMessages - 1) / 2, total);
+		assertEquals(0, queue.available());
+	}
+
+	@Test
+	public void testAvailableMessagesCanBeRead() throws Exception {
+		final RingBufferReceiverQueue queue = new RingBufferReceiverQueue(16, OverflowPolicy.BLOCK);
+		final int nrofProducers = 4;
+		final int nrofMessages = 10000;
+		for (int i = 0; i < nrofProducers; i++) {
+			new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < nrofMessages; j++) {
+						queue.onReceive(j);
+					}
+				}
+			}).start();
+		}
+		int count = 0;
+		while (count < nrofProducers * nrofMessages) {
+			while (queue.available() > 0) {
+				assertNotNull(queue.read());
+				count++;
+			}
+		}
+		assertEquals(0, queue.available());
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		RingBufferReceiverQueue queue = new RingBufferReceiverQueue(2);
+		queue.onReceive("1");
+		queue.onTransmissionClose();
+		queue.onReceive("2");
+		assertTrue(queue.isClosed());
+		assertEquals(1, queue.available());
+		assertEquals("1", queue.read());
+	}
+}
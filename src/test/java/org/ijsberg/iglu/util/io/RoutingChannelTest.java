@@ -0,0 +1,96 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RoutingChannelTest {
+
+	@Test
+	public void testRouting() throws Exception {
+		RoutingChannel channel = new RoutingChannel("test");
+		ReceiverQueue orders = new ReceiverQueue();
+		ReceiverQueue euOrders = new ReceiverQueue();
+		ReceiverQueue noDebug = new ReceiverQueue();
+		ReceiverQueue all = new ReceiverQueue();
+		channel.subscribe(orders, "orders");
+		channel.subscribe(euOrders, "orders&eu");
+		channel.subscribe(noDebug, "!debug");
+		channel.registerReceiver(all);
+		assertEquals(2, channel.getNrofUnindexedSubscriptions());
+
+		assertEquals(4, channel.transmit("1", "orders", "eu"));
+		assertEquals(3, channel.transmit("2", "orders", "us"));
+		assertEquals(2, channel.transmit("3", "orders", "debug", "us"));
+		assertEquals(2, channel.transmit("4", "payments"));
+
+		assertEquals(3, orders.available());
+		assertEquals(1, euOrders.available());
+		assertEquals("1", euOrders.read());
+		assertEquals(3, noDebug.available());
+		assertEquals(4, all.available());
+	}
+
+	@Test
+	public void testMultipleSubscriptions() throws Exception {
+		RoutingChannel channel = new RoutingChannel("test");
+		ReceiverQueue receiver = new ReceiverQueue();
+		channel.subscribe(receiver, "a|b");
+		channel.subscribe(receiver, "b&c");
+		assertEquals(1, channel.transmit("1", "a", "b", "c"));
+		assertEquals(1, receiver.available());
+
+		assertTrue(channel.removeReceiver(receiver));
+		assertFalse(channel.removeReceiver(receiver));
+		assertEquals(0, channel.transmit("2", "a"));
+	}
+
+	@Test
+	public void testTaggedMessage() throws Exception {
+		RoutingChannel channel = new RoutingChannel("test");
+		ReceiverQueue receiver = new ReceiverQueue();
+		channel.subscribe(receiver, "alert");
+		channel.transmit(new RoutingChannel.Tagged() {
+			public String[] getTags() {
+				return new String[]{"alert"};
+			}
+		});
+		channel.transmit("untagged");
+		assertEquals(1, receiver.available());
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		RoutingChannel channel = new RoutingChannel("test");
+		ReceiverQueue closed = new ReceiverQueue();
+		ReceiverQueue receiver = new ReceiverQueue();
+		channel.subscribe(closed, "a");
+		channel.subscribe(receiver, "a");
+		closed.close();
+		assertEquals(1, channel.transmit("1", "a"));
+
+		channel.close();
+		assertTrue(receiver.isClosed());
+		assertNull(channel.subscribe(new ReceiverQueue(), "a"));
+		assertEquals(0, channel.transmit("2", "a"));
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpillingOutputReceiverTest {
+
+	@Test
+	public void testInMemory() throws Exception {
+		SpillingOutputReceiver receiver = new SpillingOutputReceiver(100, null);
+		receiver.onReceive("line 0\r\nline".getBytes());
+		receiver.onReceive(" 1\n\nline 3".getBytes());
+		assertFalse(receiver.isSpilled());
+		assertEquals(4, receiver.getNrofLines());
+		assertEquals("line 0", receiver.getLine(0));
+		assertEquals("line 1", receiver.getLine(1));
+		assertEquals("", receiver.getLine(2));
+		assertEquals("line 3", receiver.getLine(3));
+		receiver.onReceive("\n");
+		assertEquals(4, receiver.getNrofLines());
+		try {
+			receiver.getLine(4);
+			fail("line does not exist");
+		}
+		catch (IndexOutOfBoundsException expected) {
+		}
+	}
+
+	@Test
+	public void testSpill() throws Exception {
+		SpillingOutputReceiver receiver = new SpillingOutputReceiver(50, null);
+		StringBuffer expected = new StringBuffer();
+		for (int i = 0; i < 1000; i++) {
+			String line = "line " + i + "\n";
+			expected.append(line);
+			receiver.onReceive(line.getBytes());
+		}
+		assertTrue(receiver.isSpilled());
+		File spillFile = receiver.getSpillFile();
+		assertTrue(spillFile.exists());
+		assertEquals(expected.length(), receiver.getSize());
+		assertEquals(1000, receiver.getNrofLines());
+		assertEquals("line 0", receiver.getLine(0));
+		assertEquals("line 567", receiver.getLine(567));
+		assertEquals(Arrays.asList("line 998", "line 999"), receiver.getLines(998, 10));
+
+		InputStream input = receiver.getInputStream();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		StreamSupport.absorbInputStream(input, output);
+		input.close();
+		assertEquals(expected.toString(), output.toString());
+
+		receiver.delete();
+		assertFalse(spillFile.exists());
+		assertEquals(0, receiver.getNrofLines());
+	}
+
+	@Test
+	public void testSparseLineIndex() throws Exception {
+		SpillingOutputReceiver receiver = new SpillingOutputReceiver(1000, null);
+		int nrofLines = 3 * SpillingOutputReceiver.LINES_PER_INDEX_ENTRY + 5;
+		for (int i = 0; i < nrofLines; i++) {
+			//lines are split over chunks
+			receiver.onReceive(("line" + i).getBytes());
+			receiver.onReceive("\r\n".getBytes());
+		}
+		assertTrue(receiver.isSpilled());
+		assertEquals(nrofLines, receiver.getNrofLines());
+		for (int i = 0; i < nrofLines; i++) {
+			assertEquals("line" + i, receiver.getLine(i));
+		}
+		List<String> lines = receiver.getLines(SpillingOutputReceiver.LINES_PER_INDEX_ENTRY - 2, 4);
+		assertEquals(4, lines.size());
+		assertEquals("line" + (SpillingOutputReceiver.LINES_PER_INDEX_ENTRY + 1), lines.get(3));
+		receiver.delete();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpillingReceiverQueueTest {
+
+	private File spillDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+		spillDirectory = Files.createTempDirectory("spillingreceiverqueuetest").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		File[] files = spillDirectory.listFiles();
+		for (File file : files) {
+			file.delete();
+		}
+		spillDirectory.delete();
+	}
+
+	@Test
+	public void testSpillInOrder() throws Exception {
+		SpillingReceiverQueue queue = new SpillingReceiverQueue(10, spillDirectory, 1000, new SpillingReceiverQueue.SerializingCodec());
+		for (int i = 0; i < 500; i++) {
+			if (i % 2 == 0) {
+				queue.onReceive(("message" + i).getBytes());
+			}
+			else {
+				queue.onReceive(i);
+			}
+		}
+		assertEquals(500, queue.available());
+		assertEquals(490, queue.getNrofSpilledMessages());
+		assertTrue(queue.getNrofSegments() > 1);
+
+		for (int i = 0; i < 500; i++) {
+			Object message = queue.read();
+			if (i % 2 == 0) {
+				assertEquals("message" + i, new String((byte[]) message));
+			}
+			else {
+				assertEquals(i, message);
+			}
+			if (i == 250) {
+				//arrives behind spilled messages
+				queue.onReceive("late".getBytes());
+			}
+		}
+		assertEquals("late", new String((byte[]) queue.read()));
+		assertNull(queue.read());
+		assertEquals(0, queue.available());
+		assertTrue(queue.getNrofSegments() <= 1);
+	}
+
+	@Test
+	public void testDrainToAndClear() throws Exception {
+		SpillingReceiverQueue queue = new SpillingReceiverQueue(2, spillDirectory, 100, new SpillingReceiverQueue.SerializingCodec());
+		for (int i = 0; i < 10; i++) {
+			queue.onReceive(i);
+		}
+		List<Object> output = new ArrayList<Object>();
+		assertEquals(5, queue.drainTo(output, 5));
+		assertEquals(0, output.get(0));
+		assertEquals(4, output.get(4));
+
+		queue.clear();
+		assertEquals(0, queue.available());
+		assertEquals(0, queue.getNrofSegments());
+	}
+
+	@Test
+	public void testReuseSegments() throws Exception {
+		SpillingReceiverQueue queue = new SpillingReceiverQueue(1, spillDirectory, 100, new SpillingReceiverQueue.SerializingCodec());
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 100; i++) {
+				queue.onReceive(new byte[40]);
+			}
+			while (queue.read() != null) {
+			}
+			assertTrue(queue.getNrofSegments() <= 1);
+			assertEquals(2, queue.getNrofSpareSegments());
+			//segments that are neither in use nor spare have been deleted
+			assertEquals(queue.getNrofSegments() + 2, spillDirectory.listFiles().length);
+		}
+		queue.clear();
+		assertEquals(0, queue.getNrofSpareSegments());
+		assertEquals(0, spillDirectory.listFiles().length);
+	}
+
+	@Test
+	public void testLargeMessage() throws Exception {
+		SpillingReceiverQueue queue = new SpillingReceiverQueue(1, spillDirectory, 16, new SpillingReceiverQueue.SerializingCodec());
+		byte[] large = new byte[1000];
+		large[999] = 1;
+		queue.onReceive("first".getBytes());
+		queue.onReceive(large);
+		assertEquals("first", new String((byte[]) queue.read()));
+		assertArrayEquals(large, (byte[]) queue.read());
+	}
+}
@@ -19,7 +19,30 @@
 
 package org.ijsberg.iglu.util.logic;
 
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
 
 public class ExpressionTest {
-}
 
+	@Test
+	public void testMatch() throws Exception {
+		assertTrue(new Expression("r|w|x").match("x"));
+		assertFalse(new Expression("r|w&x").match("x"));
+		assertTrue(new Expression("r|w&x").match(new Object[]{"w", "x"}));
+		assertTrue(new Expression("!r").match(new Object[]{}));
+	}
+
+	@Test
+	public void testGetTriggerStatements() throws Exception {
+		assertEquals(new HashSet<String>(Arrays.asList("a")), new Expression("a").getTriggerStatements());
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b")), new Expression("a|b").getTriggerStatements());
+		assertEquals(new HashSet<String>(Arrays.asList("a")), new Expression("a&(b|c)").getTriggerStatements());
+		assertEquals(new HashSet<String>(Arrays.asList("b")), new Expression("!a&b").getTriggerStatements());
+		assertNull(new Expression("!a").getTriggerStatements());
+		assertNull(new Expression("a|!b").getTriggerStatements());
+	}
+}
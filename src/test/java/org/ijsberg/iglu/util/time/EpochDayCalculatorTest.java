@@ -0,0 +1,144 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.time;
+
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class EpochDayCalculatorTest {
+
+	//Sao Paulo had transitions at midnight, Lord Howe has a 30 minute DST shift
+	private static final String[] ZONES = {"UTC", "Europe/Amsterdam", "America/New_York", "America/Sao_Paulo",
+			"Australia/Lord_Howe", "Asia/Kolkata", "Pacific/Apia"};
+
+	private static LocalDate getLocalDate(long time, ZoneId zone) {
+		return Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+	}
+
+	private static long getStartOfDayByCalendar(long time, ZoneId zone) {
+		Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone(zone));
+		calendar.setTimeInMillis(time);
+		Calendar start = new GregorianCalendar(TimeZone.getTimeZone(zone));
+		start.clear();
+		start.set(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), calendar.get(Calendar.DAY_OF_MONTH), 0, 0, 0);
+		return start.getTimeInMillis();
+	}
+
+	@Test
+	public void testGetEpochDay() throws Exception {
+		Random random = new Random(7);
+		for (String zoneId : ZONES) {
+			ZoneId zone = ZoneId.of(zoneId);
+			EpochDayCalculator calculator = new EpochDayCalculator(zone, DayOfWeek.MONDAY);
+			for (int i = 0; i < 20000; i++) {
+				//1950 to 2110
+				long time = -631152000000L + (long) (random.nextDouble() * 160 * 365.25 * TimeSupport.DAY_IN_MS);
+				assertEquals(zoneId + " " + time, getLocalDate(time, zone).toEpochDay(), calculator.getEpochDay(time));
+				assertEquals(zoneId + " " + time, zone.getRules().getOffset(Instant.ofEpochMilli(time)).getTotalSeconds() * 1000L, calculator.getUtcOffset(time));
+			}
+		}
+	}
+
+	@Test
+	public void testTransitions() throws Exception {
+		for (String zoneId : ZONES) {
+			ZoneId zone = ZoneId.of(zoneId);
+			EpochDayCalculator calculator = new EpochDayCalculator(zone, DayOfWeek.SUNDAY);
+			for (ZoneOffsetTransition transition : zone.getRules().getTransitions()) {
+				long time = transition.toEpochSecond() * 1000;
+				if (time < -631152000000L) {
+					continue;
+				}
+				for (long t = time - 2 * TimeSupport.DAY_IN_MS; t < time + 2 * TimeSupport.DAY_IN_MS; t += 17 * TimeSupport.MINUTE_IN_MS) {
+					assertEquals(zoneId + " " + t, getLocalDate(t, zone).toEpochDay(), calculator.getEpochDay(t));
+					assertEquals(zoneId + " " + t, getStartOfDayByCalendar(t, zone), calculator.getStartOfDay(t));
+				}
+				assertEquals(transition.getOffsetAfter().getTotalSeconds() * 1000L, calculator.getUtcOffset(time));
+				assertEquals(transition.getOffsetBefore().getTotalSeconds() * 1000L, calculator.getUtcOffset(time - 1));
+			}
+		}
+	}
+
+	@Test
+	public void testGetStartOfDay() throws Exception {
+		ZoneId saoPaulo = ZoneId.of("America/Sao_Paulo");
+		EpochDayCalculator calculator = new EpochDayCalculator(saoPaulo, DayOfWeek.SUNDAY);
+		//clocks moved from 00:00 to 01:00 on November 4th 2018
+		long time = ZonedDateTime.of(2018, 11, 4, 12, 0, 0, 0, saoPaulo).toInstant().toEpochMilli();
+		assertEquals(ZonedDateTime.of(2018, 11, 4, 1, 0, 0, 0, saoPaulo).toInstant().toEpochMilli(), calculator.getStartOfDay(time));
+
+		Random random = new Random(11);
+		for (String zoneId : ZONES) {
+			ZoneId zone = ZoneId.of(zoneId);
+			calculator = new EpochDayCalculator(zone, DayOfWeek.MONDAY);
+			for (int i = 0; i < 2000; i++) {
+				time = (long) (random.nextDouble() * 140 * 365.25 * TimeSupport.DAY_IN_MS);
+				assertEquals(zoneId + " " + time, getStartOfDayByCalendar(time, zone), calculator.getStartOfDay(time));
+			}
+		}
+	}
+
+	@Test
+	public void testIsSameWeek() throws Exception {
+		Random random = new Random(3);
+		for (DayOfWeek firstDayOfWeek : new DayOfWeek[]{DayOfWeek.MONDAY, DayOfWeek.SUNDAY, DayOfWeek.SATURDAY}) {
+			ZoneId zone = ZoneId.of("Europe/Amsterdam");
+			EpochDayCalculator calculator = new EpochDayCalculator(zone, firstDayOfWeek);
+			for (int i = 0; i < 5000; i++) {
+				long time1 = (long) (random.nextDouble() * 60 * 365.25 * TimeSupport.DAY_IN_MS);
+				long time2 = time1 + (long) ((random.nextDouble() - 0.5) * 20 * TimeSupport.DAY_IN_MS);
+				LocalDate weekStart1 = getLocalDate(time1, zone).with(TemporalAdjusters.previousOrSame(firstDayOfWeek));
+				LocalDate weekStart2 = getLocalDate(time2, zone).with(TemporalAdjusters.previousOrSame(firstDayOfWeek));
+				assertEquals(weekStart1.equals(weekStart2), calculator.isSameWeek(time1, time2));
+				assertEquals(weekStart1.toEpochDay() < weekStart2.toEpochDay(), calculator.getEpochWeek(time1) < calculator.getEpochWeek(time2));
+			}
+		}
+		//same week number, different years
+		EpochDayCalculator calculator = new EpochDayCalculator(ZoneId.of("UTC"), DayOfWeek.MONDAY);
+		assertFalse(calculator.isSameWeek(ZonedDateTime.parse("2023-03-01T12:00Z").toInstant().toEpochMilli(),
+				ZonedDateTime.parse("2024-02-28T12:00Z").toInstant().toEpochMilli()));
+	}
+
+	@Test
+	public void testTimeSupportDelegates() throws Exception {
+		long now = System.currentTimeMillis();
+		assertTrue(TimeSupport.isSameDay(now, now));
+		assertTrue(TimeSupport.isSameWeek(now, now));
+		assertFalse(TimeSupport.isSameDay(now, now + TimeSupport.DAY_IN_MS + TimeSupport.HOUR_IN_MS * 2));
+		assertFalse(TimeSupport.isSameWeek(now, now + 8 * TimeSupport.DAY_IN_MS));
+		long midnight = TimeSupport.floorToMidnight(now);
+		assertTrue(TimeSupport.isSameDay(now, midnight));
+		assertFalse(TimeSupport.isSameDay(now, midnight - 1));
+		assertEquals(getStartOfDayByCalendar(now, ZoneId.systemDefault()), midnight);
+	}
+}
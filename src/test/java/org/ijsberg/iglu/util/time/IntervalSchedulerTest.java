@@ -0,0 +1,228 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.time;
+
+import org.ijsberg.iglu.util.io.Receiver;
+import org.junit.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class IntervalSchedulerTest {
+
+	private static class ShiftedClockScheduler extends IntervalScheduler {
+		private final AtomicLong shift = new AtomicLong();
+
+		protected long currentTimeMillis() {
+			return System.currentTimeMillis() + shift.get();
+		}
+
+		/**
+		 * Sets the clock to a moment before the next interval start.
+		 */
+		private long moveBeforeIntervalStart(int intervalInMinutes, long timeBefore) {
+			long now = System.currentTimeMillis();
+			long intervalStart = SchedulingSupport.getNextIntervalStart(now, intervalInMinutes);
+			shift.set(intervalStart - timeBefore - now);
+			return intervalStart;
+		}
+	}
+
+	private static class IrregularityCollector implements Receiver {
+		private final List<IntervalScheduler.Irregularity> irregularities = new ArrayList<IntervalScheduler.Irregularity>();
+
+		public synchronized void onReceive(Object message) {
+			irregularities.add((IntervalScheduler.Irregularity) message);
+		}
+
+		public void onTransmissionClose() {
+		}
+
+		private synchronized List<IntervalScheduler.Irregularity> getIrregularities() {
+			return new ArrayList<IntervalScheduler.Irregularity>(irregularities);
+		}
+	}
+
+	@Test
+	public void testFireAtIntervalStart() throws Exception {
+		ShiftedClockScheduler scheduler = new ShiftedClockScheduler();
+		scheduler.setLatenessTolerance(1000);
+		IrregularityCollector collector = new IrregularityCollector();
+		scheduler.setIrregularityReceiver(collector);
+		long intervalStart = scheduler.moveBeforeIntervalStart(5, 200);
+		final AtomicLong fireTime = new AtomicLong();
+		final CountDownLatch fired = new CountDownLatch(1);
+		final ShiftedClockScheduler clock = scheduler;
+		IntervalScheduler.Registration registration = scheduler.schedule(new Runnable() {
+			public void run() {
+				fireTime.set(clock.currentTimeMillis());
+				fired.countDown();
+			}
+		}, 5);
+		assertEquals(intervalStart, registration.getNextFireTime());
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+		assertTrue(fireTime.get() >= intervalStart);
+		assertEquals(1, registration.getNrofFires());
+		assertEquals(0, registration.getNrofLateFires());
+		assertEquals(0, registration.getNrofSkippedFires());
+		assertEquals(intervalStart + 5 * TimeSupport.MINUTE_IN_MS, registration.getNextFireTime());
+		assertTrue(collector.getIrregularities().isEmpty());
+		scheduler.stop();
+		assertTrue(registration.isCancelled());
+	}
+
+	@Test
+	public void testReportSkippedFires() throws Exception {
+		ShiftedClockScheduler scheduler = new ShiftedClockScheduler();
+		scheduler.setLatenessTolerance(1000);
+		IrregularityCollector collector = new IrregularityCollector();
+		scheduler.setIrregularityReceiver(collector);
+		long intervalStart = scheduler.moveBeforeIntervalStart(1, 200);
+		final CountDownLatch fired = new CountDownLatch(1);
+		IntervalScheduler.Registration registration = scheduler.schedule(new Runnable() {
+			public void run() {
+				fired.countDown();
+			}
+		}, 1);
+		//clock jumps 3 minutes, as after a suspend
+		scheduler.shift.addAndGet(3 * TimeSupport.MINUTE_IN_MS);
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+		assertEquals(1, registration.getNrofFires());
+		assertEquals(3, registration.getNrofSkippedFires());
+		List<IntervalScheduler.Irregularity> irregularities = collector.getIrregularities();
+		assertEquals(1, irregularities.size());
+		assertEquals(3, irregularities.get(0).getNrofSkippedFires());
+		assertEquals(intervalStart + 3 * TimeSupport.MINUTE_IN_MS, irregularities.get(0).getScheduledTime());
+		assertSame(registration, irregularities.get(0).getRegistration());
+		scheduler.stop();
+	}
+
+	@Test
+	public void testRescheduleIfClockIsBehind() throws Exception {
+		ShiftedClockScheduler scheduler = new ShiftedClockScheduler();
+		long intervalStart = scheduler.moveBeforeIntervalStart(1, 100);
+		final AtomicLong fireTime = new AtomicLong();
+		final CountDownLatch fired = new CountDownLatch(1);
+		final ShiftedClockScheduler clock = scheduler;
+		IntervalScheduler.Registration registration = scheduler.schedule(new Runnable() {
+			public void run() {
+				fireTime.set(clock.currentTimeMillis());
+				fired.countDown();
+			}
+		}, 1);
+		scheduler.shift.addAndGet(-300);
+		assertFalse(fired.await(250, TimeUnit.MILLISECONDS));
+		assertTrue(fired.await(5, TimeUnit.SECONDS));
+		assertTrue(fireTime.get() >= intervalStart);
+		assertEquals(0, registration.getNrofSkippedFires());
+		scheduler.stop();
+	}
+
+	@Test
+	public void testDaylightSavingTimeSwitch() throws Exception {
+		TimeZone defaultTimeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone("Europe/Amsterdam"));
+		UtcOffsetProvider.resetDefault();
+		try {
+			//March 31st 2024 lasts 23 hours
+			long midnight = ZonedDateTime.parse("2024-03-30T23:00Z").toInstant().toEpochMilli();
+			ShiftedClockScheduler scheduler = new ShiftedClockScheduler();
+			scheduler.setLatenessTolerance(1000);
+			IrregularityCollector collector = new IrregularityCollector();
+			scheduler.setIrregularityReceiver(collector);
+			scheduler.shift.set(midnight - 200 - System.currentTimeMillis());
+			final CountDownLatch fired = new CountDownLatch(1);
+			IntervalScheduler.Registration registration = scheduler.schedule(new Runnable() {
+				public void run() {
+					fired.countDown();
+				}
+			}, 1440);
+			assertEquals(midnight, registration.getNextFireTime());
+			assertTrue(fired.await(5, TimeUnit.SECONDS));
+			assertEquals(0, registration.getNrofSkippedFires());
+			assertEquals(midnight + 23 * TimeSupport.HOUR_IN_MS, registration.getNextFireTime());
+			assertTrue(collector.getIrregularities().isEmpty());
+			scheduler.stop();
+
+			scheduler = new ShiftedClockScheduler();
+			scheduler.setLatenessTolerance(1000);
+			scheduler.shift.set(midnight - 200 - System.currentTimeMillis());
+			final CountDownLatch firedAfterSuspend = new CountDownLatch(1);
+			registration = scheduler.schedule(new Runnable() {
+				public void run() {
+					firedAfterSuspend.countDown();
+				}
+			}, 1440);
+			//clock jumps a day, past the midnight of April 1st
+			scheduler.shift.addAndGet(TimeSupport.DAY_IN_MS);
+			assertTrue(firedAfterSuspend.await(5, TimeUnit.SECONDS));
+			assertEquals(1, registration.getNrofFires());
+			assertEquals(1, registration.getNrofSkippedFires());
+			scheduler.stop();
+		}
+		finally {
+			TimeZone.setDefault(defaultTimeZone);
+			UtcOffsetProvider.resetDefault();
+		}
+	}
+
+	@Test
+	public void testManyRegistrations() throws Exception {
+		IntervalScheduler scheduler = new IntervalScheduler();
+		for (int i = 0; i < 5000; i++) {
+			scheduler.schedule(new Runnable() {
+				public void run() {
+				}
+			}, 1 + i % 60, i % 7);
+		}
+		assertEquals(5000, scheduler.getNrofRegistrations());
+		scheduler.stop();
+		assertEquals(0, scheduler.getNrofRegistrations());
+		try {
+			scheduler.schedule(new Runnable() {
+				public void run() {
+				}
+			}, 1);
+			fail("scheduler is stopped");
+		}
+		catch (IllegalStateException expected) {
+		}
+	}
+
+	@Test
+	public void testIllegalInterval() throws Exception {
+		try {
+			new IntervalScheduler().schedule(new Runnable() {
+				public void run() {
+				}
+			}, 0);
+			fail("interval must be positive");
+		}
+		catch (IllegalArgumentException expected) {
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.time;
+
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class RecurrenceRuleTest {
+
+	private static final ZoneId UTC = ZoneOffset.UTC;
+	private static final ZoneId AMSTERDAM = ZoneId.of("Europe/Amsterdam");
+
+	private static long time(String isoTime) {
+		return ZonedDateTime.parse(isoTime).toInstant().toEpochMilli();
+	}
+
+	private static long bruteForceNext(RecurrenceRule rule, long time) {
+		long candidate = (Math.floorDiv(time, TimeSupport.MINUTE_IN_MS) + 1) * TimeSupport.MINUTE_IN_MS;
+		while (!rule.matches(candidate)) {
+			candidate += TimeSupport.MINUTE_IN_MS;
+		}
+		return candidate;
+	}
+
+	@Test
+	public void testGetNextFireTime() throws Exception {
+		RecurrenceRule rule = RecurrenceRule.compile("0/15 8-17 * * MON-FRI", UTC);
+		//Friday
+		assertEquals(time("2024-03-01T08:00Z"), rule.getNextFireTime(time("2024-03-01T07:59:59.999Z")));
+		assertEquals(time("2024-03-01T08:15Z"), rule.getNextFireTime(time("2024-03-01T08:00Z")));
+		assertEquals(time("2024-03-01T17:45Z"), rule.getNextFireTime(time("2024-03-01T17:30:01Z")));
+		//skips the weekend
+		assertEquals(time("2024-03-04T08:00Z"), rule.getNextFireTime(time("2024-03-01T17:45Z")));
+
+		rule = RecurrenceRule.compile("30 12 29 FEB *", UTC);
+		assertEquals(time("2028-02-29T12:30Z"), rule.getNextFireTime(time("2024-02-29T12:30Z")));
+		assertEquals(time("2024-02-29T12:30Z"), rule.getPreviousFireTime(time("2028-02-29T12:30Z")));
+
+		rule = RecurrenceRule.compile("0 0 1 1 *", UTC);
+		assertEquals(time("2025-01-01T00:00Z"), rule.getNextFireTime(time("2024-01-01T00:00Z")));
+	}
+
+	@Test
+	public void testGetPreviousFireTime() throws Exception {
+		RecurrenceRule rule = RecurrenceRule.compile("0/15 8-17 * * MON-FRI", UTC);
+		assertEquals(time("2024-03-01T08:00Z"), rule.getPreviousFireTime(time("2024-03-01T08:00:00.001Z")));
+		assertEquals(time("2024-02-29T17:45Z"), rule.getPreviousFireTime(time("2024-03-01T08:00Z")));
+		assertEquals(time("2024-03-01T17:45Z"), rule.getPreviousFireTime(time("2024-03-04T07:00Z")));
+	}
+
+	@Test
+	public void testDayOfMonthOrDayOfWeek() throws Exception {
+		//the 13th or any Friday
+		RecurrenceRule rule = RecurrenceRule.compile("0 0 13 * 5", UTC);
+		//Friday March 1st
+		assertEquals(time("2024-03-01T00:00Z"), rule.getNextFireTime(time("2024-02-29T12:00Z")));
+		//Wednesday March 13th
+		assertEquals(time("2024-03-13T00:00Z"), rule.getNextFireTime(time("2024-03-08T00:00Z")));
+		//Sunday as 0 or 7
+		assertEquals(RecurrenceRule.compile("0 0 * * 0", UTC).getNextFireTime(0),
+				RecurrenceRule.compile("0 0 * * SUN", UTC).getNextFireTime(0));
+		assertEquals(RecurrenceRule.compile("0 0 * * 7", UTC).getNextFireTime(0),
+				RecurrenceRule.compile("0 0 * * sun", UTC).getNextFireTime(0));
+	}
+
+	@Test
+	public void testAgainstBruteForce() throws Exception {
+		String[] expressions = {"* * * * *", "5/15 * * * *", "0 */3 * * *", "10,20-25 4 * * *",
+				"0 9 1-7 * MON", "45 23 31 * *", "0 12 * JUN-AUG SAT,SUN", "7 7 7 7 *"};
+		Random random = new Random(42);
+		for (String expression : expressions) {
+			RecurrenceRule rule = RecurrenceRule.compile(expression, UTC);
+			for (int i = 0; i < 20; i++) {
+				long time = time("2020-01-01T00:00Z") + (long) (random.nextDouble() * 5 * 365 * TimeSupport.DAY_IN_MS);
+				long next = rule.getNextFireTime(time);
+				assertEquals(expression, bruteForceNext(rule, time), next);
+				assertTrue(expression, rule.getPreviousFireTime(next) < next);
+				assertEquals(expression, next, rule.getNextFireTime(rule.getPreviousFireTime(next)));
+			}
+		}
+	}
+
+	@Test
+	public void testForInterval() throws Exception {
+		ZoneId localZone = ZoneId.systemDefault();
+		RecurrenceRule rule = RecurrenceRule.forInterval(90, 20, localZone);
+		//away from daylight saving transitions
+		long time = time("2024-01-10T12:00Z");
+		for (int i = 0; i < 50; i++) {
+			assertEquals(SchedulingSupport.getNextIntervalStart(time, 90, 20), rule.getNextFireTime(time));
+			time = rule.getNextFireTime(time);
+		}
+		rule = RecurrenceRule.forInterval(15, -10, localZone);
+		assertEquals(SchedulingSupport.getNextIntervalStart(time, 15, -10), rule.getNextFireTime(time));
+
+		TimeZone defaultTimeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone(AMSTERDAM));
+		UtcOffsetProvider.resetDefault();
+		try {
+			rule = RecurrenceRule.forInterval(60, 0, AMSTERDAM);
+			//03:00 follows the gap on March 31st 2024
+			assertEquals(time("2024-03-31T01:00Z"), SchedulingSupport.getNextIntervalStart(time("2024-03-31T00:30Z"), 60));
+			assertEquals(time("2024-03-31T01:00Z"), rule.getNextFireTime(time("2024-03-31T00:30Z")));
+			//02:00 occurs twice on October 27th 2024, an interval starts at both, the rule fires once
+			assertEquals(time("2024-10-27T00:00Z"), SchedulingSupport.getNextIntervalStart(time("2024-10-26T23:30Z"), 60));
+			assertEquals(time("2024-10-27T00:00Z"), rule.getNextFireTime(time("2024-10-26T23:30Z")));
+			assertEquals(time("2024-10-27T01:00Z"), SchedulingSupport.getNextIntervalStart(time("2024-10-27T00:00Z"), 60));
+			assertEquals(time("2024-10-27T02:00Z"), rule.getNextFireTime(time("2024-10-27T00:00Z")));
+		}
+		finally {
+			TimeZone.setDefault(defaultTimeZone);
+			UtcOffsetProvider.resetDefault();
+		}
+		try {
+			RecurrenceRule.forInterval(7, 0);
+			fail("7 minutes do not divide a day");
+		}
+		catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void testDaylightSavingTime() throws Exception {
+		RecurrenceRule rule = RecurrenceRule.compile("30 2 * * *", AMSTERDAM);
+		//02:30 does not exist on March 31st 2024, fires when the gap ends at 03:00
+		assertEquals(time("2024-03-31T01:00Z"), rule.getNextFireTime(time("2024-03-30T23:00Z")));
+		assertEquals(time("2024-04-01T00:30Z"), rule.getNextFireTime(time("2024-03-31T01:00Z")));
+		assertEquals(time("2024-03-31T01:00Z"), rule.getPreviousFireTime(time("2024-04-01T00:30Z")));
+		assertEquals(time("2024-03-30T01:30Z"), rule.getPreviousFireTime(time("2024-03-31T01:00Z")));
+		//02:30 occurs twice on October 27th 2024, fires once
+		assertEquals(time("2024-10-27T00:30Z"), rule.getNextFireTime(time("2024-10-26T22:00Z")));
+		assertEquals(time("2024-10-28T01:30Z"), rule.getNextFireTime(time("2024-10-27T00:30Z")));
+		//searching back from the second occurrence of the repeated hour
+		rule = RecurrenceRule.compile("*/5 * * * *", AMSTERDAM);
+		assertEquals(time("2024-10-27T00:25Z"), rule.getPreviousFireTime(time("2024-10-27T00:30Z")));
+		assertEquals(time("2024-10-27T00:55Z"), rule.getPreviousFireTime(time("2024-10-27T01:00Z")));
+		assertEquals(time("2024-10-27T00:55Z"), rule.getPreviousFireTime(time("2024-10-27T01:10Z")));
+		assertEquals(time("2024-10-27T00:55Z"), rule.getPreviousFireTime(time("2024-10-27T01:30Z")));
+		assertEquals(time("2024-10-27T00:55Z"), rule.getPreviousFireTime(time("2024-10-27T02:00Z")));
+		assertEquals(time("2024-10-27T02:05Z"), rule.getPreviousFireTime(time("2024-10-27T02:10Z")));
+
+		rule = RecurrenceRule.compile("0 * * * *", AMSTERDAM);
+		//02:00 local at 00:00 UTC is not repeated at 01:00 UTC
+		assertEquals(time("2024-10-27T02:00Z"), rule.getNextFireTime(time("2024-10-27T00:00Z")));
+		assertEquals(time("2024-10-27T00:00Z"), rule.getPreviousFireTime(time("2024-10-27T02:00Z")));
+	}
+
+	@Test
+	public void testIllegalExpressions() throws Exception {
+		String[] expressions = {"* * * *", "60 * * * *", "* 24 * * *", "* * 0 * *", "* * * 13 *", "* * * * 8",
+				"5-1 * * * *", "*/0 * * * *", "x * * * *", "0 0 30 FEB *", "0 0 31 APR,JUN *"};
+		for (String expression : expressions) {
+			try {
+				RecurrenceRule.compile(expression, UTC);
+				fail("expression '" + expression + "' is illegal");
+			}
+			catch (IllegalArgumentException expected) {
+			}
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.time;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TimestampCodecTest {
+
+	private static final String[] ZONES = {"UTC", "Europe/Amsterdam", "America/New_York", "Australia/Lord_Howe", "Asia/Kolkata"};
+
+	private static SimpleDateFormat getSimpleDateFormat(TimestampCodec.Layout layout, String zoneId) {
+		SimpleDateFormat format = new SimpleDateFormat(layout.getPattern());
+		format.setTimeZone(TimeZone.getTimeZone(zoneId));
+		return format;
+	}
+
+	@Test
+	public void testFormat() throws Exception {
+		Random random = new Random(5);
+		for (String zoneId : ZONES) {
+			for (TimestampCodec.Layout layout : TimestampCodec.Layout.values()) {
+				TimestampCodec codec = new TimestampCodec(layout, ZoneId.of(zoneId));
+				SimpleDateFormat format = getSimpleDateFormat(layout, zoneId);
+				char[] buffer = new char[layout.getLength() + 2];
+				long time = (long) (random.nextDouble() * 100 * 365.25 * TimeSupport.DAY_IN_MS);
+				for (int i = 0; i < 2000; i++) {
+					//mostly within the cached minute
+					time += random.nextInt(i % 10 == 0 ? 10 * TimeSupport.DAY_IN_MS : 20000);
+					String expected = format.format(new Date(time));
+					assertEquals(zoneId, expected, codec.format(time));
+					assertEquals(layout.getLength() + 1, codec.format(time, buffer, 1));
+					assertEquals(expected, new String(buffer, 1, layout.getLength()));
+					StringBuilder out = new StringBuilder("> ");
+					codec.format(time, out);
+					assertEquals("> " + expected, out.toString());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testParse() throws Exception {
+		Random random = new Random(9);
+		for (String zoneId : ZONES) {
+			for (TimestampCodec.Layout layout : TimestampCodec.Layout.values()) {
+				TimestampCodec codec = new TimestampCodec(layout, ZoneId.of(zoneId));
+				SimpleDateFormat format = getSimpleDateFormat(layout, zoneId);
+				for (int i = 0; i < 2000; i++) {
+					String timestamp = format.format(new Date((long) (random.nextDouble() * 100 * 365.25 * TimeSupport.DAY_IN_MS)));
+					assertEquals(zoneId + " " + timestamp, format.parse(timestamp).getTime(), codec.parse(timestamp));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDaylightSavingTime() throws Exception {
+		TimestampCodec codec = new TimestampCodec(TimestampCodec.Layout.EXCEL, ZoneId.of("Europe/Amsterdam"));
+		SimpleDateFormat format = getSimpleDateFormat(TimestampCodec.Layout.EXCEL, "Europe/Amsterdam");
+		//gap, overlap and their edges
+		String[] timestamps = {"2024-03-31 01:59", "2024-03-31 02:00", "2024-03-31 02:30", "2024-03-31 03:00",
+				"2024-10-27 01:59", "2024-10-27 02:00", "2024-10-27 02:30", "2024-10-27 03:00"};
+		for (String timestamp : timestamps) {
+			assertEquals(timestamp, format.parse(timestamp).getTime(), codec.parse(timestamp));
+		}
+		TimestampCodec newYorkCodec = new TimestampCodec(TimestampCodec.Layout.EXCEL, ZoneId.of("America/New_York"));
+		SimpleDateFormat newYorkFormat = getSimpleDateFormat(TimestampCodec.Layout.EXCEL, "America/New_York");
+		for (String timestamp : new String[]{"2024-03-10 02:30", "2024-03-10 03:00", "2024-11-03 01:00", "2024-11-03 01:30", "2024-11-03 02:00"}) {
+			assertEquals(timestamp, newYorkFormat.parse(timestamp).getTime(), newYorkCodec.parse(timestamp));
+		}
+		long time = format.parse("2024-10-27 01:00").getTime();
+		for (int i = 0; i < 4 * 60; i++) {
+			assertEquals(format.format(new Date(time)), codec.format(time));
+			time += TimeSupport.MINUTE_IN_MS;
+		}
+	}
+
+	@Test
+	public void testParseMalformed() throws Exception {
+		TimestampCodec codec = new TimestampCodec(TimestampCodec.Layout.ISO_8601_SECONDS, ZoneId.of("UTC"));
+		assertEquals(0, codec.parse("1970-01-01T00:00:00"));
+		String[] timestamps = {"", "1970-01-01T00:00", "1970-01-01T00:00:00.000", "1970-1-01T00:00:00", "1970-01-01T00:00:0x",
+				"1970-13-01T00:00:00", "1970-02-29T00:00:00", "1970-01-01T24:00:00", "1970-01-01T00:60:00", "1970-01-01X00:00:00", "1970-01-01 00:00:00"};
+		for (String timestamp : timestamps) {
+			assertEquals(timestamp, -1, codec.parse(timestamp, -1));
+			try {
+				codec.parse(timestamp);
+				fail("timestamp '" + timestamp + "' is malformed");
+			}
+			catch (ParseException expected) {
+			}
+		}
+		assertEquals(-1, codec.parse(null, -1));
+		assertEquals(951782400000L, codec.parse("2000-02-29T00:00:00"));
+	}
+
+	@Test
+	public void testConcurrentUse() throws Exception {
+		final TimestampCodec codec = new TimestampCodec(TimestampCodec.Layout.ISO_8601_MILLIS, ZoneId.of("Europe/Amsterdam"));
+		final SimpleDateFormat format = getSimpleDateFormat(TimestampCodec.Layout.ISO_8601_MILLIS, "Europe/Amsterdam");
+		final long start = System.currentTimeMillis();
+		final List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			expected.add(format.format(new Date(start + i * 7919L)));
+		}
+		final AtomicInteger nrofMismatches = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final int threadNr = t;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					char[] buffer = new char[23];
+					for (int i = 0; i < 50000; i++) {
+						int index = (i * (threadNr + 1)) % 1000;
+						codec.format(start + index * 7919L, buffer, 0);
+						if (!expected.get(index).equals(new String(buffer))) {
+							nrofMismatches.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, nrofMismatches.get());
+	}
+
+	@Test
+	public void testTimeSupportDelegates() throws Exception {
+		long time = System.currentTimeMillis();
+		assertEquals(new SimpleDateFormat(TimeSupport.TIMESTAMP_FORMAT_EXCEL).format(new Date(time)), TimeSupport.getTimeStampExcel(time));
+		assertEquals(new SimpleDateFormat(TimeSupport.TIMESTAMP_FORMAT_ISO8061).format(new Date(time)), TimeSupport.getTimestampFormatIso8061(new Date(time)));
+		assertEquals(TimeSupport.roundToMinute(time - 30000), TimeSupport.getTimeStampExcel(TimeSupport.getTimeStampExcel(time)).getTime());
+		assertEquals(TimeSupport.roundToMinute(time - 30000), TimeSupport.getTimeStampIso8061(TimeSupport.getTimestampFormatIso8061(new Date(time))).getTime());
+		//lenient parsing is left to SimpleDateFormat
+		assertEquals(TimeSupport.getTimeStampExcel("2024-03-01 12:30").getTime(), TimeSupport.getTimeStampExcel("2024-3-1T12:30").getTime());
+	}
+
+	@Test
+	public void testTimeSupportOutsideCodecRange() throws Exception {
+		//Julian calendar and 5 digit year
+		SimpleDateFormat format = new SimpleDateFormat(TimeSupport.TIMESTAMP_FORMAT_EXCEL);
+		long[] times = {format.parse("1500-03-01 12:30").getTime(), format.parse("10000-03-01 12:30").getTime()};
+		for (long time : times) {
+			assertEquals(new SimpleDateFormat(TimeSupport.TIMESTAMP_FORMAT_EXCEL).format(new Date(time)), TimeSupport.getTimeStampExcel(time));
+			assertEquals(new SimpleDateFormat(TimeSupport.TIMESTAMP_FORMAT_ISO8061).format(new Date(time)), TimeSupport.getTimestampFormatIso8061(new Date(time)));
+		}
+		assertEquals(times[0], TimeSupport.getTimeStampExcel("1500-03-01 12:30").getTime());
+		assertEquals(times[0], TimeSupport.getTimeStampIso8061("1500-03-01T12:30").getTime());
+	}
+
+	@Test
+	public void testSeparatorMustMatchLayout() throws Exception {
+		assertEquals(-1, TimestampCodec.getDefault(TimestampCodec.Layout.ISO_8601).parse("2024-03-01 12:30", -1));
+		assertEquals(-1, TimestampCodec.getDefault(TimestampCodec.Layout.EXCEL).parse("2024-03-01T12:30", -1));
+		try {
+			TimeSupport.getTimeStampIso8061("2024-03-01 12:30");
+			fail("ISO 8601 timestamp requires 'T'");
+		}
+		catch (ParseException expected) {
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2011-2013 Jeroen Meetsma - IJsberg
+ *
+ * This file is part of Iglu.
+ *
+ * Iglu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Iglu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Iglu.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.ijsberg.iglu.util.time;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class UtcOffsetProviderTest {
+
+	private static final ZoneId AMSTERDAM = ZoneId.of("Europe/Amsterdam");
+
+	private static long time(String isoTime) {
+		return ZonedDateTime.parse(isoTime).toInstant().toEpochMilli();
+	}
+
+	@Test
+	public void testGetUtcOffset() throws Exception {
+		UtcOffsetProvider provider = new UtcOffsetProvider(AMSTERDAM);
+		Random random = new Random(13);
+		for (int i = 0; i < 10000; i++) {
+			long time = (long) (random.nextDouble() * 80 * 365.25 * TimeSupport.DAY_IN_MS);
+			assertEquals(AMSTERDAM.getRules().getOffset(Instant.ofEpochMilli(time)).getTotalSeconds() * 1000L, provider.getUtcOffset(time));
+		}
+		assertEquals(AMSTERDAM.getRules().getOffset(Instant.now()).getTotalSeconds() * 1000L, provider.getUtcOffset());
+	}
+
+	@Test
+	public void testGetPeriod() throws Exception {
+		UtcOffsetProvider provider = new UtcOffsetProvider(AMSTERDAM);
+		UtcOffsetProvider.Period period = provider.getPeriod(time("2024-06-01T12:00Z"));
+		assertEquals(time("2024-03-31T01:00Z"), period.getStart());
+		assertEquals(time("2024-10-27T01:00Z"), period.getEnd());
+		assertEquals(2 * TimeSupport.HOUR_IN_MS, period.getUtcOffset());
+		//the transition starts a period
+		assertEquals(period.getStart(), provider.getPeriod(time("2024-03-31T01:00Z")).getStart());
+		assertEquals(TimeSupport.HOUR_IN_MS, provider.getUtcOffset(time("2024-03-31T01:00Z") - 1));
+		assertEquals(TimeSupport.HOUR_IN_MS, provider.getUtcOffset(time("2024-10-27T01:00Z")));
+
+		//periods ahead of the current one are cached without evicting it
+		long now = System.currentTimeMillis();
+		UtcOffsetProvider.Period currentPeriod = provider.getPeriod(now);
+		long summer = time("2090-06-01T12:00Z");
+		UtcOffsetProvider.Period summerPeriod = provider.getPeriod(summer);
+		assertEquals(AMSTERDAM.getRules().previousTransition(Instant.ofEpochMilli(summer)).toEpochSecond() * 1000, summerPeriod.getStart());
+		assertEquals(AMSTERDAM.getRules().nextTransition(Instant.ofEpochMilli(summer)).toEpochSecond() * 1000, summerPeriod.getEnd());
+		assertSame(summerPeriod, provider.getPeriod(summer + TimeSupport.DAY_IN_MS));
+		assertSame(currentPeriod, provider.getPeriod(now));
+		UtcOffsetProvider.Period nextPeriod = provider.getPeriod(currentPeriod.getEnd());
+		assertEquals(currentPeriod.getEnd(), nextPeriod.getStart());
+		assertSame(nextPeriod, provider.getPeriod(currentPeriod.getEnd() + TimeSupport.HOUR_IN_MS));
+		assertSame(currentPeriod, provider.getPeriod(now));
+		//looking up past times evicts neither
+		provider.getUtcOffset(time("2000-01-01T00:00Z"));
+		assertSame(currentPeriod, provider.getPeriod(now));
+		assertSame(nextPeriod, provider.getPeriod(currentPeriod.getEnd()));
+
+		UtcOffsetProvider utc = new UtcOffsetProvider(ZoneId.of("UTC"));
+		assertEquals(Long.MIN_VALUE, utc.getPeriod(0).getStart());
+		assertEquals(Long.MAX_VALUE, utc.getPeriod(0).getEnd());
+	}
+
+	@Test
+	public void testSchedulingSupportAcrossTransitions() throws Exception {
+		TimeZone defaultTimeZone = TimeZone.getDefault();
+		TimeZone.setDefault(TimeZone.getTimeZone(AMSTERDAM));
+		UtcOffsetProvider.resetDefault();
+		try {
+			//daily at 02:30 does not exist on March 31st, starts when the gap ends
+			assertEquals(time("2024-03-31T01:00Z"), SchedulingSupport.getNextIntervalStart(time("2024-03-30T12:00Z"), 1440, 150));
+			assertEquals(time("2024-03-31T01:00Z"), SchedulingSupport.getPreviousIntervalStart(time("2024-03-31T12:00Z"), 1440, 150));
+			assertEquals(time("2024-04-01T00:30Z"), SchedulingSupport.getNextIntervalStart(time("2024-03-31T12:00Z"), 1440, 150));
+			//midnight follows the offset, before and after the switch
+			assertEquals(time("2024-03-30T23:00Z"), SchedulingSupport.getPreviousIntervalStart(time("2024-03-31T12:00Z"), 1440));
+			assertEquals(time("2024-03-31T22:00Z"), SchedulingSupport.getNextIntervalStart(time("2024-03-31T12:00Z"), 1440));
+			assertEquals(time("2024-10-26T22:00Z"), SchedulingSupport.getPreviousIntervalStart(time("2024-10-27T12:00Z"), 1440));
+			assertEquals(time("2024-10-27T23:00Z"), SchedulingSupport.getNextIntervalStart(time("2024-10-27T12:00Z"), 1440));
+			//hourly in the repeated hour
+			assertEquals(time("2024-10-27T01:00Z"), SchedulingSupport.getNextIntervalStart(time("2024-10-27T00:30Z"), 60));
+			assertEquals(time("2024-10-27T00:00Z"), SchedulingSupport.getPreviousIntervalStart(time("2024-10-27T00:30Z"), 60));
+			assertEquals(time("2024-10-27T02:00Z"), SchedulingSupport.getNextIntervalStart(time("2024-10-27T01:00Z"), 60));
+			//every 4 hours, interval started before the switch
+			assertEquals(time("2024-10-26T22:00Z"), SchedulingSupport.getPreviousIntervalStart(time("2024-10-27T01:10Z"), 240));
+			assertEquals(time("2024-10-27T03:00Z"), SchedulingSupport.getNextIntervalStart(time("2024-10-27T01:10Z"), 240));
+			assertEquals(6 * 60, SchedulingSupport.getIntervalsSinceMidnight(time("2024-07-01T04:00Z"), 1));
+
+			Random random = new Random(17);
+			int[] intervals = {1, 5, 15, 60, 90, 120, 240, 1440};
+			for (int i = 0; i < 20000; i++) {
+				long time = time("2024-01-01T00:00Z") + (long) (random.nextDouble() * 365 * TimeSupport.DAY_IN_MS);
+				int interval = intervals[i % intervals.length];
+				int offset = random.nextInt(interval);
+				long previous = SchedulingSupport.getPreviousIntervalStart(time, interval, offset);
+				long next = SchedulingSupport.getNextIntervalStart(time, interval, offset);
+				assertTrue(previous <= time);
+				assertTrue(next > time);
+				assertTrue(next - previous <= interval * TimeSupport.MINUTE_IN_MS + TimeSupport.HOUR_IN_MS);
+				assertEquals(next, SchedulingSupport.getNextIntervalStart(previous, interval, offset));
+			}
+		}
+		finally {
+			TimeZone.setDefault(defaultTimeZone);
+			UtcOffsetProvider.resetDefault();
+		}
+	}
+}